@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.benchmarks;
+
+import java.util.Date;
+import java.util.Random;
+
+import pw.phylame.jem.core.Book;
+import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.util.FileObject;
+import pw.phylame.jem.util.FileFactory;
+import pw.phylame.jem.util.TextFactory;
+
+/**
+ * Generates synthetic books for benchmarks.
+ * <p>Books generated with same settings are identical.</p>
+ */
+public class BookGenerator {
+    // header of PNG file
+    private static final byte[] PNG_HEAD = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * Number of chapters containing text, sections are not counted.
+     */
+    private int chapters = 100;
+
+    /**
+     * Number of characters in each chapter.
+     */
+    private int chapterSize = 4096;
+
+    /**
+     * Ratio of CJK characters in text, from <tt>0</tt> to <tt>1</tt>.
+     */
+    private double cjkRatio = 0.5;
+
+    /**
+     * Generates covers for book and sections.
+     */
+    private boolean covers = false;
+
+    /**
+     * Depth of chapter tree, <tt>1</tt> for no section.
+     */
+    private int depth = 1;
+
+    private long seed = 2016L;
+
+    public BookGenerator chapters(int chapters) {
+        if (chapters < 0) {
+            throw new IllegalArgumentException("chapters < 0: " + chapters);
+        }
+        this.chapters = chapters;
+        return this;
+    }
+
+    public BookGenerator chapterSize(int chapterSize) {
+        if (chapterSize < 0) {
+            throw new IllegalArgumentException("chapterSize < 0: " + chapterSize);
+        }
+        this.chapterSize = chapterSize;
+        return this;
+    }
+
+    public BookGenerator cjkRatio(double cjkRatio) {
+        if (cjkRatio < 0 || cjkRatio > 1) {
+            throw new IllegalArgumentException("cjkRatio must be in [0, 1]: " + cjkRatio);
+        }
+        this.cjkRatio = cjkRatio;
+        return this;
+    }
+
+    public BookGenerator covers(boolean covers) {
+        this.covers = covers;
+        return this;
+    }
+
+    public BookGenerator depth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth < 1: " + depth);
+        }
+        this.depth = depth;
+        return this;
+    }
+
+    public BookGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Creates new book with current settings.
+     *
+     * @return the book
+     */
+    public Book generate() {
+        Random random = new Random(seed);
+        Book book = new Book("Benchmark Book", "Jem");
+        book.setDate(new Date(1451606400000L));
+        book.setGenre("Benchmark");
+        book.setIntro(TextFactory.forString(randomText(random, Math.min(chapterSize, 512))));
+        if (covers) {
+            book.setCover(randomCover(random, "cover"));
+        }
+        // number of sub-chapters of each section, leaves are distributed evenly
+        int fanout = Math.max(1, (int) Math.ceil(Math.pow(chapters, 1.0 / depth)));
+        appendChapters(random, book, "", 1, chapters, fanout);
+        return book;
+    }
+
+    private void appendChapters(Random random, Chapter parent, String prefix, int level, int count, int fanout) {
+        if (level == depth) {
+            for (int i = 1; i <= count; ++i) {
+                Chapter chapter = new Chapter("Chapter " + prefix + i);
+                chapter.setContent(TextFactory.forString(randomText(random, chapterSize)));
+                parent.append(chapter);
+            }
+            return;
+        }
+        int sections = Math.min(fanout, count);
+        for (int i = 1, rest = count; i <= sections; ++i) {
+            int size = rest / (sections - i + 1);
+            rest -= size;
+            Chapter section = new Chapter("Chapter " + prefix + i);
+            section.setContent(TextFactory.forString(randomText(random, Math.min(chapterSize, 256))));
+            if (covers) {
+                section.setCover(randomCover(random, "cover-" + prefix + i));
+            }
+            appendChapters(random, section, prefix + i + ".", level + 1, size, fanout);
+            parent.append(section);
+        }
+    }
+
+    private String randomText(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size);
+        int line = 0;
+        while (sb.length() < size) {
+            if (line > 40 && random.nextInt(40) == 0) {
+                sb.append('\n');
+                line = 0;
+            } else if (random.nextDouble() < cjkRatio) {
+                sb.append((char) (0x4E00 + random.nextInt(0x9FA5 - 0x4E00)));
+                ++line;
+            } else {
+                int n = random.nextInt(27);
+                sb.append(n == 26 ? ' ' : (char) ('a' + n));
+                ++line;
+            }
+        }
+        return sb.toString();
+    }
+
+    // random bytes, only the header is valid
+    private FileObject randomCover(Random random, String name) {
+        byte[] bytes = new byte[32 * 1024];
+        random.nextBytes(bytes);
+        System.arraycopy(PNG_HEAD, 0, bytes, 0, PNG_HEAD.length);
+        return FileFactory.forBytes(name + ".png", bytes, "image/png");
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.benchmarks;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import pw.phylame.jem.formats.txt.TxtMakeConfig;
+import pw.phylame.jem.formats.txt.TxtParseConfig;
+
+/**
+ * Parameters of generated book shared by benchmarks.
+ */
+@State(Scope.Benchmark)
+public abstract class BookState {
+    @Param({"200"})
+    public int chapters;
+
+    @Param({"4096"})
+    public int chapterSize;
+
+    @Param({"0.5"})
+    public double cjkRatio;
+
+    @Param({"1"})
+    public int depth;
+
+    @Param({"false"})
+    public boolean covers;
+
+    protected BookGenerator newGenerator() {
+        return new BookGenerator()
+                .chapters(chapters)
+                .chapterSize(chapterSize)
+                .cjkRatio(cjkRatio)
+                .depth(depth)
+                .covers(covers);
+    }
+
+    /**
+     * Returns arguments for parser of specified format.
+     *
+     * @param format the format
+     * @return the arguments
+     */
+    protected static Map<String, Object> parseArguments(String format) {
+        Map<String, Object> arguments = new HashMap<>();
+        if (format.equals("txt")) {
+            arguments.put(TxtParseConfig.ENCODING, "UTF-8");
+            arguments.put(TxtParseConfig.PATTERN, "^Chapter [\\d.]+$");
+        }
+        return arguments;
+    }
+
+    /**
+     * Returns arguments for maker of specified format.
+     *
+     * @param format the format
+     * @return the arguments
+     */
+    protected static Map<String, Object> makeArguments(String format) {
+        Map<String, Object> arguments = new HashMap<>();
+        if (format.equals("txt")) {
+            arguments.put(TxtMakeConfig.ENCODING, "UTF-8");
+        }
+        return arguments;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import pw.phylame.jem.core.Book;
+import pw.phylame.jem.core.Chapter;
+
+/**
+ * Allocation of chapters holding only title and word count, as chapters of web novels.
+ * <p>Run with GC profiler, <tt>gc.alloc.rate.norm</tt> divided by <tt>count</tt> is
+ * bytes allocated for each chapter, including its title string and its slot in the
+ * sub-chapter list.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChapterFootprintBenchmark {
+    @Param({"1000"})
+    public int count;
+
+    @Benchmark
+    public Book createChapters() {
+        Book book = new Book();
+        for (int i = 0; i < count; ++i) {
+            Chapter chapter = new Chapter("Chapter " + i);
+            chapter.setWords(i);
+            book.append(chapter);
+        }
+        return book;
+    }
+}
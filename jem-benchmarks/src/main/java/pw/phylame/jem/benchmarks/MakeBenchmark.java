@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import pw.phylame.jem.core.Jem;
+import pw.phylame.jem.core.Book;
+import pw.phylame.jem.util.JemException;
+import pw.phylame.jem.formats.umd.UmdMakeConfig;
+import pw.phylame.jem.formats.ebk.EbkMakeConfig;
+
+/**
+ * Benchmarks of {@link Jem#writeBook} for each format.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MakeBenchmark extends BookState {
+    @Param({"pmab", "epub", "umd", "txt", "jar", "ebk2"})
+    public String format;
+
+    /**
+     * Number of threads compressing text blocks of UMD and EBK2,
+     * <tt>1</tt> for sequential compression.
+     */
+    @Param({"1", "0"})
+    public int compressThreads;
+
+    private Book book;
+    private File output;
+    private Map<String, Object> arguments;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        book = newGenerator().generate();
+        output = File.createTempFile("jem_bench_", "." + format);
+        arguments = makeArguments(format);
+        if (format.equals("umd")) {
+            arguments.put(UmdMakeConfig.COMPRESS_THREADS, compressThreads);
+        } else if (format.equals("ebk2")) {
+            arguments.put(EbkMakeConfig.COMPRESS_THREADS, compressThreads);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        book.cleanup();
+        if (!output.delete()) {
+            output.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public void writeBook() throws IOException, JemException {
+        Jem.writeBook(book, output, format, arguments);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pw.phylame.jem.core.Jem;
+import pw.phylame.jem.core.Book;
+import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.util.JemException;
+import pw.phylame.jem.util.TextObject;
+
+/**
+ * Benchmarks of {@link Jem#readBook} and reading text of parsed chapters for each format.
+ * <p>Sample files are made from generated book before the benchmarks. EPUB is not
+ * included as there is no EPUB parser.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark extends BookState {
+    @Param({"pmab", "umd", "txt", "jar", "ebk2"})
+    public String format;
+
+    private File input;
+    private Map<String, Object> arguments;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JemException {
+        Book book = newGenerator().generate();
+        input = File.createTempFile("jem_bench_", "." + format);
+        try {
+            Jem.writeBook(book, input, format, makeArguments(format));
+        } finally {
+            book.cleanup();
+        }
+        arguments = parseArguments(format);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!input.delete()) {
+            input.deleteOnExit();
+        }
+    }
+
+    /**
+     * Parses the book only, text of chapters is not read.
+     */
+    @Benchmark
+    public void readBook(Blackhole blackhole) throws IOException, JemException {
+        Book book = Jem.readBook(input, format, arguments);
+        blackhole.consume(book.descendantCount());
+        book.cleanup();
+    }
+
+    /**
+     * Parses the book and reads text of all chapters.
+     */
+    @Benchmark
+    public long readText() throws Exception {
+        Book book = Jem.readBook(input, format, arguments);
+        long length = 0;
+        try {
+            for (int i = 0, end = book.descendantCount(); i < end; ++i) {
+                Chapter chapter = book.descendantAt(i);
+                TextObject content = chapter.getContent();
+                if (content != null) {
+                    length += content.getText().length();
+                }
+            }
+        } finally {
+            book.cleanup();
+        }
+        return length;
+    }
+}
@@ -153,6 +153,11 @@ public class Book extends Chapter {
      */
     protected VariantMap extensions = new VariantMap();
 
+    /**
+     * Open snapshots of this book, created when taking the first snapshot.
+     */
+    volatile Snapshot.Registry snapshotRegistry = null;
+
     /**
      * Associates the specified value with the specified name in extensions.
      * <p>If the <tt>name</tt> not exists add a new extension, otherwise overwritten
@@ -163,7 +168,9 @@ public class Book extends Chapter {
      * @throws NullPointerException if the <tt>value</tt> is <tt>null</tt>
      */
     public void setExtension(String name, Object value) {
+        beforeChange();
         extensions.put(name, value);
+        setModified(true);
     }
 
     /**
@@ -199,14 +206,21 @@ public class Book extends Chapter {
      * <tt>null</tt> if there was extension for <tt>name</tt>.
      */
     public Object removeExtension(String name) {
-        return extensions.remove(name);
+        beforeChange();
+        Object value = extensions.remove(name);
+        if (value != null) {
+            setModified(true);
+        }
+        return value;
     }
 
     /**
      * Removes all items from extension map.
      */
     public void clearExtensions() {
+        beforeChange();
         extensions.clear();
+        setModified(true);
     }
 
     /**
@@ -237,17 +251,42 @@ public class Book extends Chapter {
         return extensions.entries();
     }
 
+    /**
+     * Takes a copy-on-write snapshot of this book.
+     * <p>Only chapters of this book changed after this method are saved for the snapshot.</p>
+     *
+     * @return the snapshot
+     * @since 2.4
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
     @Override
     public void cleanup() {
         clearExtensions();
         super.cleanup();
     }
 
+    @Override
+    void unshare() {
+        super.unshare();
+        extensions = (VariantMap) extensions.clone();
+    }
+
+    @Override
+    Chapter emptyCopy() {
+        Book book = (Book) super.emptyCopy();
+        book.snapshotRegistry = null;
+        return book;
+    }
+
     @Override
     protected void dump(Chapter chapter) {
         super.dump(chapter);
         if (chapter instanceof Book) {
             ((Book) chapter).extensions = (VariantMap) extensions.clone();
+            ((Book) chapter).snapshotRegistry = null;
         }
     }
 
@@ -22,6 +22,7 @@ import java.util.*;
 import java.net.URL;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 import pw.phylame.jem.util.IOUtils;
 import pw.phylame.jem.util.ImplementFactory;
@@ -39,6 +40,13 @@ import pw.phylame.jem.util.ImplementFactory;
  * <li><tt>MAKER_DEFINE_FILE</tt> - declares Maker classes, ex: txt=foo.bar.TxtMaker</li>
  * </ul>
  * The properties files must be stored in valid class path.
+ * <p>Built-in formats are registered by the static registry {@link #BUILTIN_REGISTRY}, the
+ * only class looked up at startup. Properties files are not scanned at startup when it
+ * is found, they are loaded when a name or extension not registered is requested or all
+ * names are listed, formats declared in them do not replace registered ones. Without the
+ * registry, properties files are loaded at startup.</p>
+ * <p>This class is thread-safe. Parser and maker instances are shared by all threads,
+ * so implementations must not keep state of one parsing or making in fields.</p>
  */
 public final class BookHelper {
     /**
@@ -51,6 +59,26 @@ public final class BookHelper {
      */
     public static final String MAKER_DEFINE_FILE = "META-INF/pw-jem/makers.properties";
 
+    /**
+     * Class name of the static registry of built-in formats.
+     *
+     * @since 2.4
+     */
+    public static final String BUILTIN_REGISTRY = "pw.phylame.jem.formats.FormatRegistry";
+
+    /**
+     * Static registry of parsers and makers.
+     * <p>Implementation must have a public default constructor.</p>
+     *
+     * @since 2.4
+     */
+    public interface Registry {
+        /**
+         * Registers parsers, makers and their extension names by methods of <tt>BookHelper</tt>.
+         */
+        void register();
+    }
+
     /**
      * Holds registered <tt>Parser</tt> class information.
      */
@@ -64,12 +92,17 @@ public final class BookHelper {
     /**
      * Mapping parser and maker name to file extension names.
      */
-    private static final HashMap<String, Set<String>> extensions = new HashMap<>();
+    private static final ConcurrentHashMap<String, Set<String>> extensions = new ConcurrentHashMap<>();
 
     /**
      * Mapping file extension name to parser and maker name.
      */
-    private static final HashMap<String, String> names = new HashMap<>();
+    private static final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * Whether properties files in class path are loaded.
+     */
+    private static volatile boolean scanned = false;
 
     /**
      * Registers parser class with specified name.
@@ -116,7 +149,10 @@ public final class BookHelper {
      * @return <tt>true</tt> if the parser is registered otherwise <tt>false</tt>
      */
     public static boolean hasParser(String name) {
-        return parsers.hasImplement(name);
+        if (parsers.hasImplement(name)) {
+            return true;
+        }
+        return scanRegisters() && parsers.hasImplement(name);
     }
 
     /**
@@ -125,6 +161,7 @@ public final class BookHelper {
      * @return sequence of format names
      */
     public static String[] supportedParsers() {
+        scanRegisters();
         return parsers.implementNames();
     }
 
@@ -139,7 +176,11 @@ public final class BookHelper {
      * @throws ClassNotFoundException if registered class path is invalid
      */
     public static Parser getParser(String name) throws IllegalAccessException, InstantiationException, ClassNotFoundException {
-        return parsers.newInstance(name);
+        Parser parser = parsers.newInstance(name);
+        if (parser == null && scanRegisters()) {
+            parser = parsers.newInstance(name);
+        }
+        return parser;
     }
 
     /**
@@ -187,7 +228,10 @@ public final class BookHelper {
      * @return <tt>true</tt> if the maker is registered otherwise <tt>false</tt>
      */
     public static boolean hasMaker(String name) {
-        return makers.hasImplement(name);
+        if (makers.hasImplement(name)) {
+            return true;
+        }
+        return scanRegisters() && makers.hasImplement(name);
     }
 
     /**
@@ -196,6 +240,7 @@ public final class BookHelper {
      * @return sequence of format names
      */
     public static String[] supportedMakers() {
+        scanRegisters();
         return makers.implementNames();
     }
 
@@ -210,7 +255,11 @@ public final class BookHelper {
      * @throws ClassNotFoundException if registered class path is invalid
      */
     public static Maker getMaker(String name) throws IllegalAccessException, InstantiationException, ClassNotFoundException {
-        return makers.newInstance(name);
+        Maker maker = makers.newInstance(name);
+        if (maker == null && scanRegisters()) {
+            maker = makers.newInstance(name);
+        }
+        return maker;
     }
 
     /**
@@ -221,7 +270,7 @@ public final class BookHelper {
      *                   if <tt>null</tt> use the parser name as one extension
      * @throws NullPointerException if the <tt>name</tt> is <tt>null</tt>
      */
-    public static void mapExtensions(String name, String[] extensions) {
+    public static synchronized void mapExtensions(String name, String[] extensions) {
         if (name == null) {
             throw new NullPointerException("name");
         }
@@ -245,8 +294,11 @@ public final class BookHelper {
      * @param name the name of parser or maker
      * @return the string set of extension name
      */
-    public static String[] extensionsOfName(String name) {
+    public static synchronized String[] extensionsOfName(String name) {
         Set<String> extensions = BookHelper.extensions.get(name);
+        if (extensions == null && scanRegisters()) {
+            extensions = BookHelper.extensions.get(name);
+        }
         return extensions.toArray(new String[extensions.size()]);
     }
 
@@ -257,7 +309,11 @@ public final class BookHelper {
      * @return the name or <tt>null</tt> if the extension name is unknown.
      */
     public static String nameOfExtension(String extension) {
-        return names.get(extension);
+        String name = names.get(extension);
+        if (name == null && scanRegisters()) {
+            name = names.get(extension);
+        }
+        return name;
     }
 
     private static final String NAME_EXTENSION_SEPARATOR = ";";
@@ -268,15 +324,18 @@ public final class BookHelper {
         if (urls == null) {
             return;
         }
-        InputStream in;
         Properties prop;
         try {
             while (urls.hasMoreElements()) {
-                in = urls.nextElement().openStream();
                 prop = new Properties();
-                prop.load(in);
+                try (InputStream in = urls.nextElement().openStream()) {
+                    prop.load(in);
+                }
                 for (Map.Entry<Object, Object> entry : prop.entrySet()) {
                     String name = entry.getKey().toString();
+                    if (factory.hasImplement(name)) {   // registered formats are kept
+                        continue;
+                    }
                     String[] parts = entry.getValue().toString().split(NAME_EXTENSION_SEPARATOR, 2);
                     factory.registerImplement(name, parts[0]);
                     if (parts.length > 1) {
@@ -291,9 +350,49 @@ public final class BookHelper {
         }
     }
 
-    static {
+    /**
+     * Loads properties files in class path if not loaded.
+     *
+     * @return <tt>true</tt> if the files are loaded by this call
+     */
+    private static boolean scanRegisters() {
+        if (scanned) {
+            return false;
+        }
+        synchronized (BookHelper.class) {
+            if (scanned) {
+                return false;
+            }
+            ClassLoader classLoader = IOUtils.getContextClassLoader();
+            loadRegisters(classLoader, PARSER_DEFINE_FILE, parsers);
+            loadRegisters(classLoader, MAKER_DEFINE_FILE, makers);
+            scanned = true;
+            return true;
+        }
+    }
+
+    private static boolean loadRegistry(String name) {
         ClassLoader classLoader = IOUtils.getContextClassLoader();
-        loadRegisters(classLoader, PARSER_DEFINE_FILE, parsers);
-        loadRegisters(classLoader, MAKER_DEFINE_FILE, makers);
+        if (classLoader == null) {
+            classLoader = BookHelper.class.getClassLoader();
+        }
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(name, true, classLoader);
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+        try {
+            clazz.asSubclass(Registry.class).newInstance().register();
+        } catch (ClassCastException | InstantiationException | IllegalAccessException e) {
+            return false;
+        }
+        return true;
+    }
+
+    static {
+        if (!loadRegistry(BUILTIN_REGISTRY)) {
+            scanRegisters();
+        }
     }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.core;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.io.InterruptedIOException;
+
+/**
+ * Asynchronous reading or writing of book.
+ * <p>Instances are created by {@link Jem#readBookAsync} and {@link Jem#writeBookAsync}.</p>
+ * <p>While the task is running, parsers and makers report number of processed chapters
+ * by {@link #advance(long)}, and stop by {@link #checkCancelled()} after the task
+ * is cancelled. These static methods do nothing when called out of a task.</p>
+ * <p>Cancelling is cooperative, the thread running the task is never interrupted,
+ * see {@link #cancel(boolean)}.</p>
+ *
+ * @param <V> type of the result
+ * @since 2.4
+ */
+public class BookTask<V> extends FutureTask<V> {
+    private static final ThreadLocal<BookTask<?>> current = new ThreadLocal<>();
+
+    /**
+     * Listener for progress of book task.
+     */
+    public interface ProgressListener {
+        /**
+         * Invoked after some chapters are processed, called in thread running the task.
+         *
+         * @param task  the task
+         * @param done  number of processed chapters
+         * @param total number of all chapters, <tt>-1</tt> if unknown
+         */
+        void onProgress(BookTask<?> task, long done, long total);
+    }
+
+    private final ProgressListener listener;
+
+    private volatile long done = 0L;
+
+    private volatile long total = -1L;
+
+    public BookTask(Callable<V> callable, ProgressListener listener) {
+        super(callable);
+        this.listener = listener;
+    }
+
+    /**
+     * Returns number of processed chapters.
+     *
+     * @return the number
+     */
+    public long getDone() {
+        return done;
+    }
+
+    /**
+     * Returns number of all chapters.
+     *
+     * @return the number, <tt>-1</tt> if unknown
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Attempts to cancel the task.
+     * <p>The running thread is not interrupted even if <tt>mayInterruptIfRunning</tt>
+     * is <tt>true</tt>, the task stops at next {@link #checkCancelled()} or
+     * {@link #advance(long)}. Interrupting could close file channels shared by all
+     * chapters of the book being read.</p>
+     *
+     * @param mayInterruptIfRunning ignored
+     * @return <tt>false</tt> if the task could not be cancelled, typically because it
+     * has already completed, <tt>true</tt> otherwise
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return super.cancel(false);
+    }
+
+    @Override
+    protected void set(V v) {
+        super.set(v);
+        // the result is ignored when the task is cancelled before it is set
+        if (isCancelled()) {
+            discard(v);
+        }
+    }
+
+    /**
+     * Releases result of the task which is cancelled after the result is computed.
+     * <p>Called in thread running the task. The default implementation does nothing.</p>
+     *
+     * @param result the discarded result
+     */
+    protected void discard(V result) {
+    }
+
+    @Override
+    public void run() {
+        BookTask<?> outer = current.get();
+        current.set(this);
+        try {
+            super.run();
+        } finally {
+            if (outer != null) {
+                current.set(outer);
+            } else {
+                current.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the task running in current thread.
+     *
+     * @return the task, or <tt>null</tt> if not in a task
+     */
+    public static BookTask<?> current() {
+        return current.get();
+    }
+
+    /**
+     * Throws exception if the task in current thread is cancelled.
+     *
+     * @throws InterruptedIOException if the task is cancelled
+     */
+    public static void checkCancelled() throws InterruptedIOException {
+        BookTask<?> task = current.get();
+        if (task != null && task.isCancelled()) {
+            throw new InterruptedIOException("Book task is cancelled");
+        }
+    }
+
+    /**
+     * Sets number of all chapters of the task in current thread.
+     *
+     * @param total number of chapters, <tt>-1</tt> if unknown
+     */
+    public static void setTotal(long total) {
+        BookTask<?> task = current.get();
+        if (task != null) {
+            task.total = total;
+            task.fireProgress();
+        }
+    }
+
+    /**
+     * Adds number of processed chapters of the task in current thread.
+     *
+     * @param count number of chapters processed from last report
+     * @throws InterruptedIOException if the task is cancelled
+     */
+    public static void advance(long count) throws InterruptedIOException {
+        BookTask<?> task = current.get();
+        if (task == null) {
+            return;
+        }
+        if (task.isCancelled()) {
+            throw new InterruptedIOException("Book task is cancelled");
+        }
+        task.done += count;
+        task.fireProgress();
+    }
+
+    private void fireProgress() {
+        if (listener != null) {
+            listener.onProgress(this, done, total);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.core;
+
+import java.io.IOException;
+
+import pw.phylame.jem.util.TextObject;
+import pw.phylame.jem.util.JemException;
+
+/**
+ * Receives contents of book parsed by {@link VisitingParser} in reading order.
+ * <p>Streaming parsers report the book without building the whole chapter tree, so
+ * the sub-chapter list of reported book and chapters may be empty or incomplete,
+ * the tree is reported by nested {@link #startChapter(Chapter)} and
+ * {@link #endChapter(Chapter)} calls instead.</p>
+ * <p>Text and file objects reported are valid only until the parse method returns.</p>
+ *
+ * @since 2.4
+ */
+public interface BookVisitor {
+    /**
+     * Invoked when attributes and extensions of the book are parsed.
+     *
+     * @param book the book
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when processing the book
+     */
+    void onAttributes(Book book) throws IOException, JemException;
+
+    /**
+     * Invoked when attributes of a chapter are parsed, before its content and sub-chapters.
+     *
+     * @param chapter the chapter
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when processing the chapter
+     */
+    void startChapter(Chapter chapter) throws IOException, JemException;
+
+    /**
+     * Invoked with content of the chapter, not called for chapter without content.
+     *
+     * @param chapter the chapter
+     * @param content the content
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when processing the content
+     */
+    void content(Chapter chapter, TextObject content) throws IOException, JemException;
+
+    /**
+     * Invoked after content and all sub-chapters of the chapter are reported.
+     *
+     * @param chapter the chapter
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when processing the chapter
+     */
+    void endChapter(Chapter chapter) throws IOException, JemException;
+
+    /**
+     * Invoked after all chapters of the book are reported.
+     *
+     * @param book the book
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when processing the book
+     */
+    void endBook(Book book) throws IOException, JemException;
+}
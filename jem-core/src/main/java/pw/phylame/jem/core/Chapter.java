@@ -20,6 +20,7 @@ package pw.phylame.jem.core;
 
 import java.util.Set;
 import java.util.Map;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -44,6 +45,16 @@ import pw.phylame.jem.util.VariantMap;
  * <li>sub-chapter list: list of sub chapters</li>
  * <li>clean works: task for cleaning resources and others</li>
  * </ul>
+ * <p>Each chapter remembers its position in parent, and a section keeps an index
+ * of its sub-chapter tree for {@link #descendantCount()}, {@link #descendantAt(int)},
+ * {@link #orderOf(Chapter)} and {@link #depth()}. Changing the sub-chapter list updates
+ * the index of the section and its ancestors in place, visiting sub-chapters after the
+ * changed one in each level, so appending is cheap. Query methods never change the
+ * chapter, so a chapter tree can be read by multiple threads when not being changed.
+ * Chapters of book created by {@link Snapshot#getBook()} create their sub-chapters on
+ * first query, which is safe for multiple threads too.</p>
+ * <p>Changes of attributes, content and sub-chapter list mark the chapter as modified,
+ * see {@link #isModified()}.</p>
  */
 public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
     /**
@@ -112,7 +123,9 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @throws NullPointerException if the <tt>value</tt> is <tt>null</tt>
      */
     public void setAttribute(String name, Object value) {
+        beforeChange();
         attributes.put(name, value);
+        modified = true;
     }
 
     /**
@@ -122,7 +135,9 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @throws NullPointerException if the <tt>map</tt> is <tt>null</tt>
      */
     public void updateAttributes(Map<String, Object> map) {
+        beforeChange();
         attributes.update(map);
+        modified = true;
     }
 
     /**
@@ -132,7 +147,9 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @throws NullPointerException if the <tt>chapter</tt> is <tt>null</tt>
      */
     public void updateAttributes(Chapter chapter) {
+        beforeChange();
         attributes.update(chapter.attributes);
+        modified = true;
     }
 
     /**
@@ -178,14 +195,21 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @return removed attribute value or <tt>null</tt> if the name not exists.
      */
     public Object removeAttribute(String name) {
-        return attributes.remove(name);
+        beforeChange();
+        Object value = attributes.remove(name);
+        if (value != null) {
+            modified = true;
+        }
+        return value;
     }
 
     /**
      * Removes all attributes from the map.
      */
     public void clearAttributes() {
+        beforeChange();
         attributes.clear();
+        modified = true;
     }
 
     /**
@@ -290,7 +314,160 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
         if (content == null) {
             throw new NullPointerException();
         }
+        beforeChange();
         this.content = content;
+        modified = true;
+    }
+
+    // ************************
+    // ** Modification state **
+    // ************************
+
+    /**
+     * Modified flag, new chapters are modified.
+     */
+    boolean modified = true;
+
+    /**
+     * Tests this chapter is modified or not.
+     * <p>A chapter is modified when its attributes, content or sub-chapter list is
+     * changed by methods of this class after last {@link #resetModified()}, changes in
+     * sub-chapters do not modify this chapter. Changes by entries of {@link #attributeEntries()}
+     * are not tracked.</p>
+     * <p>{@link Jem#readBook(java.io.File, String, Map)} and
+     * {@link Jem#writeBook(Book, java.io.File, String, Map)} reset the flags of the book,
+     * so makers and caches can find chapters changed after last reading or writing, and
+     * reuse the others by fingerprints of their content.</p>
+     *
+     * @return <tt>true</tt> if modified, otherwise <tt>false</tt>
+     * @see TextObject#fingerprint()
+     * @since 2.4
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Sets modified flag of this chapter.
+     *
+     * @param modified the flag
+     * @since 2.4
+     */
+    public void setModified(boolean modified) {
+        if (this.modified != modified) {
+            beforeChange();
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * Tests this chapter or any chapter in sub-chapter tree is modified.
+     *
+     * @return <tt>true</tt> if modified, otherwise <tt>false</tt>
+     * @since 2.4
+     */
+    public boolean isTreeModified() {
+        if (modified) {
+            return true;
+        }
+        loadChildren();
+        for (Chapter sub : children) {
+            if (sub.isTreeModified()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clears modified flag of this chapter and all chapters in sub-chapter tree.
+     *
+     * @since 2.4
+     */
+    public void resetModified() {
+        setModified(false);
+        loadChildren();
+        for (Chapter sub : children) {
+            sub.resetModified();
+        }
+    }
+
+    // *********************************
+    // ** Copy-on-write for snapshots **
+    // *********************************
+
+    /**
+     * Version of snapshot clock when state of this chapter was last saved.
+     */
+    long snapshotVersion = Snapshot.currentVersion();
+
+    /**
+     * Sub-chapters to be loaded for chapter of book created by snapshot, <tt>null</tt> if loaded.
+     */
+    volatile Snapshot.Pending pending = null;
+
+    /**
+     * Whether maps of this chapter are shared with state saved by snapshot.
+     */
+    boolean sharedState = false;
+
+    /**
+     * Saves state of this chapter for open snapshots of its book, called before changing.
+     */
+    void beforeChange() {
+        loadChildren();
+        if (sharedState) {
+            unshare();
+        }
+        Snapshot.beforeChange(this, false);
+    }
+
+    /**
+     * Copies maps shared with saved state of snapshot before changing them.
+     */
+    void unshare() {
+        attributes = (VariantMap) attributes.clone();
+        offsets = offsets.clone();
+        sharedState = false;
+    }
+
+    /**
+     * Loads sub-chapters of chapter created by snapshot, called before using sub-chapter list.
+     */
+    final void loadChildren() {
+        Snapshot.Pending p = pending;
+        if (p != null) {
+            p.load(this);
+        }
+    }
+
+    /**
+     * Creates chapter of same class as this chapter for snapshot.
+     * <p>Fields of subclasses are copied as is, other fields are set by the snapshot.</p>
+     *
+     * @return the new chapter
+     */
+    Chapter emptyCopy() {
+        Chapter chapter;
+        try {
+            chapter = (Chapter) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e);
+        }
+        chapter.children = new ArrayList<>();
+        chapter.parent = null;
+        chapter.position = -1;
+        chapter.cleaners = new LinkedList<>();
+        chapter.pending = null;
+        return chapter;
+    }
+
+    /**
+     * Saves state of specified sub-chapter and its sub-chapters for open snapshots,
+     * called before removing it, as it is not tracked after leaving the book.
+     */
+    private void beforeRemove(Chapter chapter) {
+        Snapshot.beforeChange(chapter, true);
     }
 
     // ****************************
@@ -300,7 +477,7 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
     /**
      * Parent of current chapter.
      */
-    private Chapter parent = null;
+    Chapter parent = null;
 
     /**
      * Returns parent chapter of current chapter.
@@ -316,6 +493,73 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      */
     protected ArrayList<Chapter> children = new ArrayList<>();
 
+    // index of this chapter in sub-chapter list of parent, -1 if not in a section
+    int position = -1;
+
+    // number of all chapters in sub-chapter tree, not including this chapter
+    int total = 0;
+
+    // depth of sub-chapter tree
+    int depth = 0;
+
+    // offsets[i] is order of i-th sub-chapter in the tree, first size() of them are used
+    int[] offsets = EMPTY_OFFSETS;
+
+    private static final int[] EMPTY_OFFSETS = {};
+
+    /*
+     * Updates index after a sub-chapter is added, removed or replaced, from specified
+     * index in sub-chapter list. Depth of the old and new sub-chapter is -1 if none.
+     * Then ancestors are updated in the same way, sub-chapters before the changed one
+     * are not visited.
+     */
+    private void reindex(int from, int oldDepth, int newDepth) {
+        Chapter chapter = this;
+        while (true) {
+            int previousDepth = chapter.depth;
+            chapter.updateOffsets(from);
+            chapter.updateDepth(oldDepth, newDepth);
+            Chapter parent = chapter.parent;
+            if (parent == null) {
+                break;
+            }
+            from = chapter.position + 1;
+            oldDepth = previousDepth;
+            newDepth = chapter.depth;
+            chapter = parent;
+            // index of ancestors is saved for snapshots too
+            chapter.beforeChange();
+        }
+    }
+
+    private void updateOffsets(int from) {
+        int size = children.size();
+        if (offsets.length < size) {
+            offsets = Arrays.copyOf(offsets, size + (size >> 1));
+        }
+        int order = from == 0 ? 0 : offsets[from - 1] + 1 + children.get(from - 1).total;
+        for (int ix = from; ix < size; ++ix) {
+            Chapter sub = children.get(ix);
+            sub.position = ix;
+            offsets[ix] = order;
+            order += 1 + sub.total;
+        }
+        total = order;
+    }
+
+    private void updateDepth(int oldDepth, int newDepth) {
+        if (newDepth + 1 > depth) {
+            depth = newDepth + 1;
+        } else if (oldDepth + 1 == depth && newDepth < oldDepth) {   // the deepest one is lowered
+            depth = 0;
+            for (Chapter sub : children) {
+                if (sub.depth + 1 > depth) {
+                    depth = sub.depth + 1;
+                }
+            }
+        }
+    }
+
     private Chapter checkChapter(Chapter chapter) {
         if (chapter == null) {
             throw new NullPointerException();
@@ -333,8 +577,12 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @throws NullPointerException if the <tt>chapter</tt> is <tt>null</tt>
      */
     public void append(Chapter chapter) {
-        children.add(checkChapter(chapter));
+        checkChapter(chapter);
+        beforeChange();
+        children.add(chapter);
         chapter.parent = this;
+        modified = true;
+        reindex(children.size() - 1, -1, chapter.depth);
     }
 
     /**
@@ -347,8 +595,12 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      *                                   range (index &lt; 0 || index &ge; size())
      */
     public void insert(int index, Chapter chapter) {
-        children.add(index, checkChapter(chapter));
+        checkChapter(chapter);
+        beforeChange();
+        children.add(index, chapter);
         chapter.parent = this;
+        modified = true;
+        reindex(index, -1, chapter.depth);
     }
 
     /**
@@ -367,7 +619,7 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
         if (chapter.parent != this) {  // to be faster
             return -1;
         }
-        return children.indexOf(chapter);
+        return chapter.position;
     }
 
     /**
@@ -379,8 +631,13 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @throws IndexOutOfBoundsException if the index is out of range (index &lt; 0 || index &ge; size())
      */
     public Chapter removeAt(int index) {
+        beforeChange();
+        beforeRemove(children.get(index));
         Chapter chapter = children.remove(index);
         chapter.parent = null;
+        chapter.position = -1;
+        modified = true;
+        reindex(index, chapter.depth, -1);
         return chapter;
     }
 
@@ -395,15 +652,12 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
         if (chapter == null) {
             throw new NullPointerException();
         }
-        // not contained in children list
-        if (chapter.getParent() != this) {  // to be faster
+        int index = indexOf(chapter);
+        if (index == -1) {
             return false;
         }
-        if (children.remove(chapter)) {     // contained in list
-            chapter.parent = null;
-            return true;
-        }
-        return false;
+        removeAt(index);
+        return true;
     }
 
     /**
@@ -416,9 +670,15 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @throws IndexOutOfBoundsException if the index is out of range (index &lt; 0 || index &ge; size())
      */
     public Chapter replace(int index, Chapter chapter) {
-        Chapter previous = children.set(index, checkChapter(chapter));
+        checkChapter(chapter);
+        beforeChange();
+        beforeRemove(children.get(index));
+        Chapter previous = children.set(index, chapter);
         chapter.parent = this;
         previous.parent = null;
+        previous.position = -1;
+        modified = true;
+        reindex(index, previous.depth, chapter.depth);
         return previous;
     }
 
@@ -431,6 +691,7 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @throws IndexOutOfBoundsException if the index is out of range (index &lt; 0 || index &ge; size())
      */
     public Chapter chapterAt(int index) {
+        loadChildren();
         return children.get(index);
     }
 
@@ -438,10 +699,17 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * Removes all chapters from sub-chapter list.
      */
     public void clear() {
+        beforeChange();
+        for (Chapter chapter : children) {
+            beforeRemove(chapter);
+        }
         for (Chapter chapter : children) {
             chapter.parent = null;
+            chapter.position = -1;
         }
         children.clear();
+        modified = true;
+        reindex(0, depth - 1, -1);
     }
 
     /**
@@ -450,6 +718,7 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @return number of sub-chapters
      */
     public int size() {
+        loadChildren();
         return children.size();
     }
 
@@ -460,9 +729,89 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      * @return <tt>true</tt> if has sub-chapters otherwise <tt>false</tt>
      */
     public boolean isSection() {
+        loadChildren();
         return !children.isEmpty();
     }
 
+    /**
+     * Returns number of all chapters in sub-chapter tree, not including this chapter.
+     *
+     * @return number of descendant chapters
+     * @since 2.4
+     */
+    public int descendantCount() {
+        return total;
+    }
+
+    /**
+     * Returns the chapter at specified position of sub-chapter tree in reading order.
+     * <p>The first sub-chapter is at <tt>0</tt>, and a section is followed by its
+     * own sub-chapters. The chapter is found by binary search in each level.</p>
+     *
+     * @param order position of the chapter in reading order
+     * @return the chapter
+     * @throws IndexOutOfBoundsException if the order is out of
+     *                                   range (order &lt; 0 || order &ge; descendantCount())
+     * @since 2.4
+     */
+    public Chapter descendantAt(int order) {
+        if (order < 0 || order >= descendantCount()) {
+            throw new IndexOutOfBoundsException("order: " + order + ", count: " + descendantCount());
+        }
+        Chapter chapter = this;
+        while (true) {
+            chapter.loadChildren();
+            int[] offsets = chapter.offsets;
+            int index = Arrays.binarySearch(offsets, 0, chapter.children.size(), order);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            chapter = chapter.children.get(index);
+            order -= offsets[index];
+            if (order == 0) {
+                return chapter;
+            }
+            --order;
+        }
+    }
+
+    /**
+     * Returns position of specified chapter in sub-chapter tree in reading order.
+     *
+     * @param chapter the chapter
+     * @return the position, or <tt>-1</tt> if the chapter is not a descendant of this chapter
+     * @throws NullPointerException if the <tt>chapter</tt> is <tt>null</tt>
+     * @see #descendantAt(int)
+     * @since 2.4
+     */
+    public int orderOf(Chapter chapter) {
+        if (chapter == null) {
+            throw new NullPointerException();
+        }
+        int order = -1;
+        while (chapter != this) {
+            Chapter parent = chapter.parent;
+            int index;
+            if (parent == null || (index = parent.indexOf(chapter)) == -1) {
+                return -1;
+            }
+            order += parent.offsets[index] + 1;
+            chapter = parent;
+        }
+        return order;
+    }
+
+    /**
+     * Returns depth of sub-chapter tree.
+     * <p>Depth of a chapter without sub-chapter is <tt>0</tt>.</p>
+     *
+     * @return the depth
+     * @since 2.4
+     */
+    public int depth() {
+        return depth;
+    }
+
     /**
      * Returns an iterator over sub-chapter list.
      *
@@ -470,7 +819,39 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
      */
     @Override
     public Iterator<Chapter> iterator() {
-        return children.iterator();
+        loadChildren();
+        return new ChapterIterator();
+    }
+
+    private class ChapterIterator implements Iterator<Chapter> {
+        private final Iterator<Chapter> it = children.iterator();
+        private int index = -1;
+        private Chapter last = null;
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        @Override
+        public Chapter next() {
+            last = it.next();
+            ++index;
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            beforeChange();
+            if (last != null) {
+                beforeRemove(last);
+            }
+            it.remove();
+            last.parent = null;
+            last.position = -1;
+            modified = true;
+            reindex(index--, last.depth, -1);
+        }
     }
 
     // *****************
@@ -494,7 +875,7 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
     /**
      * Clean works
      */
-    private final LinkedList<Cleanable> cleaners = new LinkedList<>();
+    private LinkedList<Cleanable> cleaners = new LinkedList<>();
 
     /**
      * Registers the specified <tt>Cleanable</tt> to clean works list.
@@ -532,6 +913,7 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
             work.clean(this);
         }
         cleaners.clear();
+        beforeChange();
         // remove all attributes
         clearAttributes();
 
@@ -540,18 +922,7 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
             sub.cleanup();
         }
         children.clear();
-
-        cleaned = true;
-    }
-
-    private boolean cleaned = false;
-
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
-        if (!cleaned) {
-            System.err.printf("*** BUG: Chapter \"%s@%d\" not cleaned ***\n", getTitle(), hashCode());
-        }
+        reindex(0, depth - 1, -1);
     }
 
     /**
@@ -574,10 +945,19 @@ public class Chapter implements Cloneable, Attributes, Iterable<Chapter> {
 
     @SuppressWarnings("unchecked")
     protected void dump(Chapter chapter) {
+        loadChildren();
+        chapter.pending = null;
+        chapter.sharedState = false;
         chapter.attributes = (VariantMap) attributes.clone();
         chapter.children = (ArrayList<Chapter>) children.clone();
         chapter.parent = parent;
+        chapter.position = -1;
+        // same sub-chapters, so the index is still valid
+        chapter.offsets = offsets.clone();
+        chapter.total = total;
+        chapter.depth = depth;
         chapter.content = content;
+        chapter.snapshotVersion = Snapshot.currentVersion();
     }
 
     /**
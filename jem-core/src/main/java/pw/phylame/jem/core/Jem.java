@@ -21,7 +21,10 @@ package pw.phylame.jem.core;
 import java.util.*;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.text.SimpleDateFormat;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 import pw.phylame.jem.util.*;
 
@@ -73,6 +76,7 @@ public final class Jem {
 
     /**
      * Reads <tt>Book</tt> from book file.
+     * <p>Chapters of the returned book are not modified.</p>
      *
      * @param input     book file to be read
      * @param format    format of the book file
@@ -87,7 +91,84 @@ public final class Jem {
         if (input == null) {
             throw new NullPointerException("input");
         }
-        return getParser(format).parse(input, arguments);
+        Book book = getParser(format).parse(input, arguments);
+        book.resetModified();
+        return book;
+    }
+
+    /**
+     * Reads book file and reports contents to specified visitor.
+     * <p>If the parser is not a {@link VisitingParser}, the book is parsed fully,
+     * then walked by {@link #walkBook(Book, BookVisitor)} and cleaned up.</p>
+     *
+     * @param input     book file to be read
+     * @param format    format of the book file
+     * @param arguments arguments to parser
+     * @param visitor   the visitor
+     * @throws NullPointerException if the file, format or visitor is <tt>null</tt>
+     * @throws IOException          if occurs I/O errors
+     * @throws JemException         if occurs errors when parsing book file
+     * @since 2.4
+     */
+    public static void readBook(File input, String format, Map<String, Object> arguments, BookVisitor visitor)
+            throws IOException, JemException {
+        if (input == null) {
+            throw new NullPointerException("input");
+        }
+        if (visitor == null) {
+            throw new NullPointerException("visitor");
+        }
+        visitBook(getParser(format), input, arguments, visitor);
+    }
+
+    private static void visitBook(Parser parser, File input, Map<String, Object> arguments, BookVisitor visitor)
+            throws IOException, JemException {
+        if (parser instanceof VisitingParser) {
+            ((VisitingParser) parser).parse(input, arguments, visitor);
+            return;
+        }
+        Book book = parser.parse(input, arguments);
+        try {
+            walkBook(book, visitor);
+        } finally {
+            book.cleanup();
+        }
+    }
+
+    /**
+     * Reports contents of specified book to visitor in reading order.
+     *
+     * @param book    the book
+     * @param visitor the visitor
+     * @throws NullPointerException if the book or visitor is <tt>null</tt>
+     * @throws IOException          if occurs I/O errors
+     * @throws JemException         if the visitor reports errors
+     * @since 2.4
+     */
+    public static void walkBook(Book book, BookVisitor visitor) throws IOException, JemException {
+        if (book == null) {
+            throw new NullPointerException("book");
+        }
+        if (visitor == null) {
+            throw new NullPointerException("visitor");
+        }
+        visitor.onAttributes(book);
+        walkChapters(book, visitor);
+        visitor.endBook(book);
+    }
+
+    private static void walkChapters(Chapter parent, BookVisitor visitor) throws IOException, JemException {
+        for (Chapter chapter : parent) {
+            visitor.startChapter(chapter);
+            TextObject content = chapter.getContent();
+            if (content != null) {
+                visitor.content(chapter, content);
+            }
+            if (chapter.isSection()) {
+                walkChapters(chapter, visitor);
+            }
+            visitor.endChapter(chapter);
+        }
     }
 
     public static Maker getMaker(String format) throws UnsupportedFormatException {
@@ -109,6 +190,7 @@ public final class Jem {
 
     /**
      * Writes <tt>Book</tt> to book with specified format.
+     * <p>After the book is written, chapters of the book are not modified.</p>
      *
      * @param book      the <tt>Book</tt> to be written
      * @param output    output book file
@@ -127,6 +209,143 @@ public final class Jem {
             throw new NullPointerException("output");
         }
         getMaker(format).make(book, output, arguments);
+        book.resetModified();
+    }
+
+    /**
+     * Converts book file to another format.
+     * <p>If the maker is a {@link StreamingMaker}, chapters are written while being parsed,
+     * when the parser is a {@link VisitingParser} too, the whole book is never loaded.
+     * Otherwise the book is read fully, written and cleaned up.</p>
+     *
+     * @param input        book file to be read
+     * @param inFormat     format of the book file
+     * @param inArguments  arguments to parser
+     * @param output       output book file
+     * @param outFormat    output format
+     * @param outArguments arguments to maker
+     * @throws NullPointerException if the files or formats is <tt>null</tt>
+     * @throws IOException          if occurs I/O errors
+     * @throws JemException         if occurs errors when parsing or making book file
+     * @since 2.4
+     */
+    public static void convertBook(File input, String inFormat, Map<String, Object> inArguments,
+                                   File output, String outFormat, Map<String, Object> outArguments)
+            throws IOException, JemException {
+        if (input == null) {
+            throw new NullPointerException("input");
+        }
+        if (output == null) {
+            throw new NullPointerException("output");
+        }
+        Parser parser = getParser(inFormat);
+        Maker maker = getMaker(outFormat);
+        if (maker instanceof StreamingMaker) {
+            try (StreamingMaker.Sink sink = ((StreamingMaker) maker).open(output, outArguments)) {
+                visitBook(parser, input, inArguments, sink);
+            }
+            return;
+        }
+        Book book = parser.parse(input, inArguments);
+        try {
+            maker.make(book, output, outArguments);
+        } finally {
+            book.cleanup();
+        }
+    }
+
+    /**
+     * Reads <tt>Book</tt> from book file in specified executor.
+     * <p>If the task is cancelled after the book is parsed, the book is cleaned up.</p>
+     *
+     * @param input     book file to be read
+     * @param format    format of the book file
+     * @param arguments arguments to parser
+     * @param executor  the executor running the task
+     * @param listener  listener for progress of the task, may be <tt>null</tt>
+     * @return the task, result of which is the book
+     * @throws NullPointerException if the file, format or executor is <tt>null</tt>
+     * @see #readBook(File, String, Map)
+     * @since 2.4
+     */
+    public static BookTask<Book> readBookAsync(final File input, final String format,
+                                               final Map<String, Object> arguments, Executor executor,
+                                               BookTask.ProgressListener listener) {
+        if (input == null) {
+            throw new NullPointerException("input");
+        }
+        if (format == null) {
+            throw new NullPointerException("format");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        BookTask<Book> task = new BookTask<Book>(new Callable<Book>() {
+            @Override
+            public Book call() throws Exception {
+                BookTask.checkCancelled();
+                Book book = readBook(input, format, arguments);
+                try {
+                    long count = book.descendantCount();
+                    BookTask.setTotal(count);
+                    BookTask.advance(count - BookTask.current().getDone());
+                } catch (InterruptedIOException e) {
+                    book.cleanup();
+                    throw e;
+                }
+                return book;
+            }
+        }, listener) {
+            @Override
+            protected void discard(Book result) {
+                result.cleanup();
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Writes <tt>Book</tt> to book file in specified executor.
+     * <p>The book must not be changed until the task is done.</p>
+     *
+     * @param book      the <tt>Book</tt> to be written
+     * @param output    output book file
+     * @param format    output format
+     * @param arguments arguments to maker
+     * @param executor  the executor running the task
+     * @param listener  listener for progress of the task, may be <tt>null</tt>
+     * @return the task
+     * @throws NullPointerException if the book, output, format or executor is <tt>null</tt>
+     * @see #writeBook(Book, File, String, Map)
+     * @since 2.4
+     */
+    public static BookTask<Void> writeBookAsync(final Book book, final File output, final String format,
+                                                final Map<String, Object> arguments, Executor executor,
+                                                BookTask.ProgressListener listener) {
+        if (book == null) {
+            throw new NullPointerException("book");
+        }
+        if (output == null) {
+            throw new NullPointerException("output");
+        }
+        if (format == null) {
+            throw new NullPointerException("format");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        BookTask<Void> task = new BookTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                BookTask.setTotal(book.descendantCount());
+                BookTask.checkCancelled();
+                writeBook(book, output, format, arguments);
+                return null;
+            }
+        }, listener);
+        executor.execute(task);
+        return task;
     }
 
     /**
@@ -181,29 +400,18 @@ public final class Jem {
 
     /**
      * Returns the depth of sub-chapter tree in specified chapter.
+     * <p>The depth is kept by the chapter and updated when its sub-chapter tree is changed.</p>
      *
      * @param chapter the chapter
      * @return depth of the chapter
      * @throws NullPointerException if the chapter is <tt>null</tt>
+     * @see Chapter#depth()
      */
     public static int depthOf(Chapter chapter) {
         if (chapter == null) {
             throw new NullPointerException();
         }
-
-        if (!chapter.isSection()) {
-            return 0;
-        }
-
-        int depth = 0;
-        for (Chapter sub : chapter) {
-            int d = depthOf(sub);
-            if (d > depth) {
-                depth = d;
-            }
-        }
-
-        return depth + 1;
+        return chapter.depth();
     }
 
     /**
@@ -251,9 +459,10 @@ public final class Jem {
      * @param chapter   the parent chapter
      * @param filter    the filter
      * @param result    store matched chapters
-     * @param limit     limits of matched chapters
+     * @param limit     limits of matched chapters, not limited if <tt>limit</tt> &le; 0
      * @param recursion <tt>true</tt> to find sub-chapter(s) of <tt>chapter</tt>
      * @return the number of found chapter(s)
+     * @see Traversal#filter(Chapter, Filter)
      */
     public static int select(Chapter chapter, Filter filter, List<Chapter> result, int limit,
                              boolean recursion) {
@@ -266,7 +475,11 @@ public final class Jem {
                 }
             }
             if (c.isSection() && recursion) {
-                count += select(c, filter, result, limit, true);
+                // sub-chapters may select the remaining number only
+                count += select(c, filter, result, limit > 0 ? limit - count : limit, true);
+                if (count == limit) {
+                    break;
+                }
             }
         }
         return count;
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.core;
+
+import java.util.List;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pw.phylame.jem.util.TextObject;
+import pw.phylame.jem.util.VariantMap;
+
+/**
+ * Copy-on-write snapshot of book.
+ * <p>Taking a snapshot by {@link Book#snapshot()} costs constant time, nothing is copied.
+ * After that, state (attributes, content, sub-chapter list and modified flag) of a chapter
+ * in the book is copied for open snapshots of the book when the chapter is changed at the
+ * first time, so only the changed chapters are copied. Changes of other books are not
+ * tracked by the snapshot. A chapter removed from the book is saved with all its
+ * sub-chapters, as it may be changed after leaving the book.</p>
+ * <p>{@link #getBook()} creates the book as it was when the snapshot was taken. It is
+ * designed to be called in a background thread (e.g. saving or exporting the book) while
+ * the original book is being changed in another thread, changing the book waits only while
+ * state of one chapter is being copied. The created book is not a full copy: creating it
+ * costs constant time, and sub-chapters of a chapter in it are created when they are first
+ * used, from the saved state if the original chapter was changed, or else from the current
+ * state of the original chapter. Created chapters keep classes of the original chapters and
+ * share the saved attributes and index until they are changed, text and file objects are
+ * shared with the original book, so the book must not be cleaned up before the snapshot
+ * is used. Changes of the original book are tracked until all chapters of the created
+ * book are loaded or the snapshot is closed.</p>
+ * <p>Changes made by modifying protected fields of <tt>Chapter</tt> or by entries of
+ * {@link Chapter#attributeEntries()} are not tracked.</p>
+ * <p>The snapshot should be closed after used, unclosed snapshots are discarded after
+ * being garbage collected.</p>
+ *
+ * @since 2.4
+ */
+public final class Snapshot implements Closeable {
+    // version of last snapshot of all books
+    private static final AtomicLong clock = new AtomicLong();
+
+    static long currentVersion() {
+        return clock.get();
+    }
+
+    /**
+     * Open snapshots of a book.
+     */
+    static final class Registry {
+        // open snapshots, guarded by this
+        private final List<WeakReference<Snapshot>> snapshots = new LinkedList<>();
+
+        // max version of open snapshots, 0 if no snapshot is open
+        private volatile long latest = 0;
+
+        // removes discarded snapshots and updates latest version, called with lock held
+        private void update() {
+            long max = 0;
+            Iterator<WeakReference<Snapshot>> it = snapshots.iterator();
+            while (it.hasNext()) {
+                Snapshot snapshot = it.next().get();
+                if (snapshot == null) {
+                    it.remove();
+                } else if (snapshot.version > max) {
+                    max = snapshot.version;
+                }
+            }
+            latest = max;
+        }
+    }
+
+    // registry of the book containing the chapter, null if not in a book or no snapshot is taken
+    private static Registry registryOf(Chapter chapter) {
+        Chapter parent;
+        while ((parent = chapter.getParent()) != null) {
+            chapter = parent;
+        }
+        return chapter instanceof Book ? ((Book) chapter).snapshotRegistry : null;
+    }
+
+    /**
+     * Saves state of specified chapter for open snapshots of its book taken after the chapter
+     * was last saved.
+     * <p>Called by chapter before it is changed, or before it is removed from its parent with
+     * <tt>subtree</tt> being <tt>true</tt> to save its sub-chapters too.</p>
+     */
+    static void beforeChange(Chapter chapter, boolean subtree) {
+        Registry registry = registryOf(chapter);
+        if (registry == null || (!subtree && chapter.snapshotVersion >= registry.latest)) {
+            return;
+        }
+        synchronized (registry) {
+            registry.update();
+            if (registry.latest != 0) {
+                save(chapter, registry, subtree);
+            }
+        }
+    }
+
+    private static void save(Chapter chapter, Registry registry, boolean subtree) {
+        if (chapter.snapshotVersion < registry.latest) {
+            State state = null;
+            for (WeakReference<Snapshot> ref : registry.snapshots) {
+                Snapshot snapshot = ref.get();
+                if (snapshot != null && snapshot.version > chapter.snapshotVersion
+                        && !snapshot.states.containsKey(chapter)) {
+                    if (state == null) {
+                        state = new State(chapter);
+                    }
+                    snapshot.states.put(chapter, state);
+                }
+            }
+            chapter.snapshotVersion = clock.get();
+        }
+        if (subtree) {
+            // sub-chapters removed before were saved when removing
+            chapter.loadChildren();
+            for (Chapter sub : chapter.children) {
+                save(sub, registry, true);
+            }
+        }
+    }
+
+    /**
+     * State of chapter when the snapshot was taken, shared by snapshots.
+     * <p>The maps and index are never changed, chapters created by snapshots share them
+     * until they are changed.</p>
+     */
+    private static class State {
+        private final VariantMap attributes;
+        private final VariantMap extensions;
+        private final ArrayList<Chapter> children;
+        private final TextObject content;
+        private final boolean modified;
+        private final int[] offsets;
+        private final int total;
+        private final int depth;
+
+        private State(Chapter chapter) {
+            chapter.loadChildren();
+            attributes = (VariantMap) chapter.attributes.clone();
+            extensions = chapter instanceof Book ? (VariantMap) ((Book) chapter).extensions.clone() : null;
+            children = new ArrayList<>(chapter.children);
+            content = chapter.content;
+            modified = chapter.isModified();
+            offsets = Arrays.copyOf(chapter.offsets, children.size());
+            total = chapter.total;
+            depth = chapter.depth;
+        }
+    }
+
+    /**
+     * Sub-chapters to be loaded for chapter of book created by snapshot.
+     */
+    static final class Pending {
+        private final Snapshot snapshot;
+
+        // chapters of the original book
+        private final List<Chapter> sources;
+
+        private Pending(Snapshot snapshot, List<Chapter> sources) {
+            this.snapshot = snapshot;
+            this.sources = sources;
+        }
+
+        void load(Chapter chapter) {
+            snapshot.load(chapter, this);
+        }
+    }
+
+    private final long version;
+
+    private final Book source;
+
+    private final Registry registry;
+
+    // saved states of changed chapters, guarded by registry
+    private final IdentityHashMap<Chapter, State> states = new IdentityHashMap<>();
+
+    private Book book = null;
+
+    // number of chapters of the book whose sub-chapters are not loaded, guarded by this
+    private int pendingCount = 0;
+
+    Snapshot(Book source) {
+        if (source == null) {
+            throw new NullPointerException("source");
+        }
+        this.source = source;
+        synchronized (source) {
+            if (source.snapshotRegistry == null) {
+                source.snapshotRegistry = new Registry();
+            }
+            registry = source.snapshotRegistry;
+        }
+        synchronized (registry) {
+            version = clock.incrementAndGet();
+            registry.snapshots.add(new WeakReference<>(this));
+            registry.latest = version;
+        }
+    }
+
+    /**
+     * Returns the book as it was when the snapshot was taken.
+     * <p>The book is created at the first call, chapters in it are created when their
+     * parents are first used, see the class description. The book should be used as
+     * read-only and not be cleaned up.</p>
+     *
+     * @return the book
+     * @throws IllegalStateException if the snapshot is closed before the book is created
+     */
+    public synchronized Book getBook() {
+        if (book == null) {
+            State state;
+            synchronized (registry) {
+                if (!isOpen()) {
+                    throw new IllegalStateException("Snapshot is closed");
+                }
+                state = stateOf(source);
+            }
+            book = (Book) create(source, state);
+            if (pendingCount == 0) {
+                untrack();
+            }
+        }
+        return book;
+    }
+
+    // returns saved or current state of the chapter, called with registry locked
+    private State stateOf(Chapter chapter) {
+        State state = states.remove(chapter);
+        return state != null ? state : new State(chapter);  // not changed
+    }
+
+    // creates chapter with the state, sharing maps and index of the state
+    private Chapter create(Chapter chapter, State state) {
+        Chapter target = chapter.emptyCopy();
+        target.attributes = state.attributes;
+        if (target instanceof Book) {
+            ((Book) target).extensions = state.extensions != null ? state.extensions : new VariantMap();
+        }
+        target.content = state.content;
+        target.modified = state.modified;
+        target.offsets = state.offsets;
+        target.total = state.total;
+        target.depth = state.depth;
+        target.sharedState = true;
+        target.snapshotVersion = clock.get();
+        if (!state.children.isEmpty()) {
+            target.pending = new Pending(this, state.children);
+            ++pendingCount;
+        }
+        return target;
+    }
+
+    private synchronized void load(Chapter target, Pending pending) {
+        if (target.pending != pending) {  // loaded by other thread
+            return;
+        }
+        List<Chapter> sources = pending.sources;
+        List<State> subStates = new ArrayList<>(sources.size());
+        synchronized (registry) {
+            for (Chapter sub : sources) {
+                subStates.add(stateOf(sub));
+            }
+        }
+        ArrayList<Chapter> children = new ArrayList<>(sources.size());
+        for (int ix = 0, end = sources.size(); ix < end; ++ix) {
+            Chapter sub = create(sources.get(ix), subStates.get(ix));
+            sub.parent = target;
+            sub.position = ix;
+            children.add(sub);
+        }
+        target.children = children;
+        target.pending = null;
+        if (--pendingCount == 0) {
+            untrack();
+        }
+    }
+
+    // loads all chapters of the book created by the snapshot
+    private void loadAll(Chapter chapter) {
+        chapter.loadChildren();
+        for (Chapter sub : chapter.children) {
+            loadAll(sub);
+        }
+    }
+
+    private boolean isOpen() {
+        for (WeakReference<Snapshot> ref : registry.snapshots) {
+            if (ref.get() == this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the snapshot, changes of the book are not tracked for it any more.
+     * <p>Chapters of the created book not loaded yet are loaded before closing,
+     * so the created book is still available after closed.</p>
+     */
+    @Override
+    public synchronized void close() {
+        if (book != null) {
+            loadAll(book);
+        }
+        untrack();
+    }
+
+    private void untrack() {
+        synchronized (registry) {
+            Iterator<WeakReference<Snapshot>> it = registry.snapshots.iterator();
+            while (it.hasNext()) {
+                if (it.next().get() == this) {
+                    it.remove();
+                }
+            }
+            states.clear();
+            registry.update();
+        }
+    }
+}
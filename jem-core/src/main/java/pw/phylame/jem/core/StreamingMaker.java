@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.core;
+
+import java.util.Map;
+import java.io.File;
+import java.io.Closeable;
+import java.io.IOException;
+
+import pw.phylame.jem.util.JemException;
+
+/**
+ * <tt>Maker</tt> writing book reported by {@link BookVisitor} chapter by chapter.
+ * <p>With a {@link VisitingParser}, book can be converted without building the whole
+ * <tt>Book</tt>, see {@link Jem#convertBook}.</p>
+ *
+ * @since 2.4
+ */
+public interface StreamingMaker extends Maker {
+    /**
+     * Sink receiving contents of book to be written.
+     * <p>The book file is completed when {@link #endBook(Book)} is invoked, chapters
+     * and text objects reported to the sink are not used after the next event.
+     * The sink must be closed even if the book is not completed.</p>
+     */
+    interface Sink extends BookVisitor, Closeable {
+    }
+
+    /**
+     * Creates book file and returns sink for writing contents of the book.
+     *
+     * @param file      output file to store book
+     * @param arguments arguments to the maker
+     * @return the sink
+     * @throws NullPointerException if the <tt>file</tt> is <tt>null</tt>
+     * @throws IOException          if occurs I/O errors
+     * @throws JemException         if occurs errors when making book file
+     */
+    Sink open(File file, Map<String, Object> arguments) throws IOException, JemException;
+}
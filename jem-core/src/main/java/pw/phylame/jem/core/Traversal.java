@@ -0,0 +1,352 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.core;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Parallel traversal of sub-chapter tree.
+ * <p>Sub-chapter list of a section is split into ranges, which are walked by
+ * tasks of a <tt>ForkJoinPool</tt>. Ranges with less than {@link #THRESHOLD}
+ * chapters (including their descendants) are walked sequentially.</p>
+ * <p>The chapter given to the traversal is not visited itself, and the tree must not be
+ * changed until the traversal returns. Visitors may be called from many threads
+ * at the same time, so they must be thread-safe.</p>
+ * <p>Exceptions thrown by visitors are rethrown to the caller.</p>
+ *
+ * @since 2.4
+ */
+public final class Traversal {
+    /**
+     * Max number of chapters walked by one task without splitting.
+     */
+    public static final int THRESHOLD = 16;
+
+    private static ForkJoinPool defaultPool;
+
+    private Traversal() {
+    }
+
+    /**
+     * Returns the pool used by traversal methods without pool argument.
+     *
+     * @return the pool
+     */
+    public static synchronized ForkJoinPool getDefaultPool() {
+        if (defaultPool == null) {
+            defaultPool = new ForkJoinPool();
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Action for visited chapters.
+     */
+    public interface Visitor {
+        void visit(Chapter chapter);
+    }
+
+    /**
+     * Maps chapter to a value.
+     *
+     * @param <T> type of the value
+     */
+    public interface Mapper<T> {
+        T map(Chapter chapter);
+    }
+
+    /**
+     * Combines two values to one, it must be associative.
+     *
+     * @param <T> type of the value
+     */
+    public interface Reducer<T> {
+        T reduce(T first, T second);
+    }
+
+    /**
+     * Visits all sub-chapters of specified chapter in parallel, no order is guaranteed.
+     *
+     * @param chapter the chapter
+     * @param visitor the visitor
+     * @throws NullPointerException if the <tt>chapter</tt> or <tt>visitor</tt> is <tt>null</tt>
+     */
+    public static void forEach(Chapter chapter, Visitor visitor) {
+        forEach(chapter, visitor, getDefaultPool());
+    }
+
+    public static void forEach(Chapter chapter, final Visitor visitor, ForkJoinPool pool) {
+        if (visitor == null) {
+            throw new NullPointerException("visitor");
+        }
+        invoke(pool, chapter, new Job<Void>() {
+            @Override
+            Void visit(Chapter chapter) {
+                visitor.visit(chapter);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Visits all sub-chapters of specified chapter in reading order on current thread.
+     *
+     * @param chapter the chapter
+     * @param visitor the visitor
+     * @throws NullPointerException if the <tt>chapter</tt> or <tt>visitor</tt> is <tt>null</tt>
+     */
+    public static void forEachOrdered(Chapter chapter, Visitor visitor) {
+        if (chapter == null) {
+            throw new NullPointerException("chapter");
+        }
+        if (visitor == null) {
+            throw new NullPointerException("visitor");
+        }
+        for (Chapter sub : chapter) {
+            visitor.visit(sub);
+            if (sub.isSection()) {
+                forEachOrdered(sub, visitor);
+            }
+        }
+    }
+
+    /**
+     * Selects sub-chapters accepted by specified filter, in reading order.
+     *
+     * @param chapter the chapter
+     * @param filter  the filter
+     * @return list of accepted chapters
+     * @throws NullPointerException if the <tt>chapter</tt> or <tt>filter</tt> is <tt>null</tt>
+     */
+    public static List<Chapter> filter(Chapter chapter, Jem.Filter filter) {
+        return filter(chapter, filter, getDefaultPool());
+    }
+
+    public static List<Chapter> filter(Chapter chapter, final Jem.Filter filter, ForkJoinPool pool) {
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        List<Chapter> result = invoke(pool, chapter, new Job<List<Chapter>>() {
+            @Override
+            List<Chapter> visit(Chapter chapter) {
+                if (!filter.accept(chapter)) {
+                    return null;
+                }
+                List<Chapter> list = new ArrayList<>();
+                list.add(chapter);
+                return list;
+            }
+
+            @Override
+            List<Chapter> combine(List<Chapter> first, List<Chapter> second) {
+                if (first == null) {
+                    return second;
+                } else if (second != null) {
+                    first.addAll(second);
+                }
+                return first;
+            }
+        });
+        return result != null ? result : new ArrayList<Chapter>();
+    }
+
+    /**
+     * Selects sub-chapters accepted by specified filter, no order is guaranteed.
+     *
+     * @param chapter the chapter
+     * @param filter  the filter
+     * @return collection of accepted chapters
+     * @throws NullPointerException if the <tt>chapter</tt> or <tt>filter</tt> is <tt>null</tt>
+     */
+    public static Collection<Chapter> filterUnordered(Chapter chapter, Jem.Filter filter) {
+        return filterUnordered(chapter, filter, getDefaultPool());
+    }
+
+    public static Collection<Chapter> filterUnordered(Chapter chapter, final Jem.Filter filter,
+                                                      ForkJoinPool pool) {
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        final ConcurrentLinkedQueue<Chapter> result = new ConcurrentLinkedQueue<>();
+        invoke(pool, chapter, new Job<Void>() {
+            @Override
+            Void visit(Chapter chapter) {
+                if (filter.accept(chapter)) {
+                    result.add(chapter);
+                }
+                return null;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Maps all sub-chapters and reduces the values in reading order.
+     * <p>Values are reduced in reading order, so the <tt>reducer</tt> needs not to
+     * be commutative. <tt>null</tt> values returned by <tt>mapper</tt> are skipped.</p>
+     *
+     * @param chapter the chapter
+     * @param mapper  the mapper
+     * @param reducer the reducer
+     * @param <T>     type of the value
+     * @return the reduced value, or <tt>null</tt> if no value is mapped
+     * @throws NullPointerException if the <tt>chapter</tt>, <tt>mapper</tt> or <tt>reducer</tt> is <tt>null</tt>
+     */
+    public static <T> T mapReduce(Chapter chapter, Mapper<T> mapper, Reducer<T> reducer) {
+        return mapReduce(chapter, mapper, reducer, getDefaultPool());
+    }
+
+    public static <T> T mapReduce(Chapter chapter, final Mapper<T> mapper, final Reducer<T> reducer,
+                                  ForkJoinPool pool) {
+        if (mapper == null) {
+            throw new NullPointerException("mapper");
+        }
+        if (reducer == null) {
+            throw new NullPointerException("reducer");
+        }
+        return invoke(pool, chapter, new Job<T>() {
+            @Override
+            T visit(Chapter chapter) {
+                return mapper.map(chapter);
+            }
+
+            @Override
+            T combine(T first, T second) {
+                if (first == null) {
+                    return second;
+                } else if (second == null) {
+                    return first;
+                }
+                return reducer.reduce(first, second);
+            }
+        });
+    }
+
+    /**
+     * Counts sub-chapters accepted by specified filter.
+     *
+     * @param chapter the chapter
+     * @param filter  the filter
+     * @return number of accepted chapters
+     * @throws NullPointerException if the <tt>chapter</tt> or <tt>filter</tt> is <tt>null</tt>
+     */
+    public static int count(Chapter chapter, Jem.Filter filter) {
+        return count(chapter, filter, getDefaultPool());
+    }
+
+    public static int count(Chapter chapter, final Jem.Filter filter, ForkJoinPool pool) {
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        Integer count = invoke(pool, chapter, new Job<Integer>() {
+            @Override
+            Integer visit(Chapter chapter) {
+                return filter.accept(chapter) ? 1 : 0;
+            }
+
+            @Override
+            Integer combine(Integer first, Integer second) {
+                return first == null ? second : second == null ? first : first + second;
+            }
+        });
+        return count != null ? count : 0;
+    }
+
+    private static <R> R invoke(ForkJoinPool pool, Chapter chapter, Job<R> job) {
+        if (chapter == null) {
+            throw new NullPointerException("chapter");
+        }
+        if (pool == null) {
+            throw new NullPointerException("pool");
+        }
+        if (chapter.descendantCount() == 0) {  // nothing to walk
+            return null;
+        }
+        return pool.invoke(new WalkTask<>(job, chapter, 0, chapter.size()));
+    }
+
+    /**
+     * Work done for each chapter, results are combined in reading order.
+     */
+    private static abstract class Job<R> {
+        abstract R visit(Chapter chapter);
+
+        R combine(R first, R second) {
+            return null;
+        }
+
+        R walk(Chapter parent, int from, int to) {
+            R result = null;
+            for (int ix = from; ix < to; ++ix) {
+                Chapter chapter = parent.chapterAt(ix);
+                result = combine(result, visit(chapter));
+                if (chapter.isSection()) {
+                    result = combine(result, walk(chapter, 0, chapter.size()));
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class WalkTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final Job<R> job;
+        private final Chapter parent;
+        private final int from, to;
+
+        private WalkTask(Job<R> job, Chapter parent, int from, int to) {
+            this.job = job;
+            this.parent = parent;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected R compute() {
+            if (to - from == 1) {
+                Chapter chapter = parent.chapterAt(from);
+                R result = job.visit(chapter);
+                if (chapter.descendantCount() > THRESHOLD) {
+                    return job.combine(result, new WalkTask<>(job, chapter, 0, chapter.size()).compute());
+                } else if (chapter.isSection()) {
+                    return job.combine(result, job.walk(chapter, 0, chapter.size()));
+                }
+                return result;
+            }
+            int weight = to - from;
+            for (int ix = from; ix < to && weight <= THRESHOLD; ++ix) {
+                weight += parent.chapterAt(ix).descendantCount();
+            }
+            if (weight <= THRESHOLD) {
+                return job.walk(parent, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            WalkTask<R> left = new WalkTask<>(job, parent, from, middle);
+            left.fork();
+            R second = new WalkTask<>(job, parent, middle, to).compute();
+            return job.combine(left.join(), second);
+        }
+    }
+}
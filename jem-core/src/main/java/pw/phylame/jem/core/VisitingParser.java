@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.core;
+
+import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+
+import pw.phylame.jem.util.JemException;
+
+/**
+ * <tt>Parser</tt> reporting contents of book file to {@link BookVisitor}
+ * without building the whole <tt>Book</tt>.
+ *
+ * @since 2.4
+ */
+public interface VisitingParser extends Parser {
+    /**
+     * Parses book file and reports contents to specified visitor.
+     *
+     * @param file      the input book file
+     * @param arguments arguments to the parser
+     * @param visitor   the visitor
+     * @throws NullPointerException if the <tt>file</tt> or <tt>visitor</tt> is <tt>null</tt>
+     * @throws IOException          if occurs I/O errors
+     * @throws JemException         if occurs errors when parsing book file
+     */
+    void parse(File file, Map<String, Object> arguments, BookVisitor visitor) throws IOException, JemException;
+}
@@ -21,6 +21,9 @@ package pw.phylame.jem.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Abstract <tt>FileObject</tt> implementation.
@@ -28,6 +31,9 @@ import java.io.OutputStream;
 public abstract class AbstractFile implements FileObject {
     private final String mime;
 
+    // cached fingerprint, null if not computed
+    private volatile Fingerprint fingerprint = null;
+
     protected AbstractFile(String mime) {
         if (mime == null) {
             throw new NullPointerException();
@@ -54,6 +60,58 @@ public abstract class AbstractFile implements FileObject {
         }
     }
 
+    @Override
+    public ReadableByteChannel openChannel() throws IOException {
+        return Channels.newChannel(openStream());
+    }
+
+    @Override
+    public int writeTo(WritableByteChannel channel) throws IOException {
+        try (ReadableByteChannel source = openChannel()) {
+            return (int) IOUtils.copy(source, channel, -1);
+        }
+    }
+
+    @Override
+    public long fingerprint() throws IOException {
+        Object version = contentVersion();
+        Fingerprint last = fingerprint;
+        if (version != null && last != null && version.equals(last.version)) {
+            return last.hash;
+        }
+        long hash;
+        try (InputStream stream = openStream()) {
+            hash = IOUtils.fingerprint(stream);
+        }
+        if (version != null) {
+            fingerprint = new Fingerprint(version, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns version of the content, which is changed when the content is changed.
+     * <p>Fingerprint of the content is cached until the version is changed, <tt>null</tt>
+     * for not caching it. The default implementation returns a constant as the content
+     * never changes.</p>
+     *
+     * @return the version, or <tt>null</tt> if unknown
+     * @since 2.4
+     */
+    protected Object contentVersion() {
+        return Boolean.TRUE;
+    }
+
+    private static final class Fingerprint {
+        private final Object version;
+        private final long hash;
+
+        private Fingerprint(Object version, long hash) {
+            this.version = version;
+            this.hash = hash;
+        }
+    }
+
     @Override
     public String toString() {
         return getName() + ";mime=" + getMime();
@@ -19,7 +19,9 @@
 package pw.phylame.jem.util;
 
 import java.util.List;
+import java.io.Reader;
 import java.io.Writer;
+import java.io.StringReader;
 
 /**
  * Abstract class for <tt>TextObject</tt>.
@@ -27,6 +29,9 @@ import java.io.Writer;
 public abstract class AbstractText implements TextObject {
     private final String type;
 
+    // cached fingerprint, null if not computed
+    private volatile Fingerprint fingerprint = null;
+
     protected AbstractText(String type) {
         if (type == null) {
             throw new NullPointerException();
@@ -44,6 +49,16 @@ public abstract class AbstractText implements TextObject {
         return TextFactory.splitLines(getText(), skipEmpty);
     }
 
+    @Override
+    public Reader openReader() throws Exception {
+        return new StringReader(getText());
+    }
+
+    @Override
+    public int visitLines(LineVisitor visitor, boolean skipEmpty) throws Exception {
+        return TextFactory.visitLines(getText(), visitor, skipEmpty);
+    }
+
     @Override
     public int writeTo(Writer writer) throws Exception {
         String text = getText();
@@ -52,6 +67,46 @@ public abstract class AbstractText implements TextObject {
         return text.length();
     }
 
+    @Override
+    public long fingerprint() throws Exception {
+        Object version = contentVersion();
+        Fingerprint last = fingerprint;
+        if (version != null && last != null && version.equals(last.version)) {
+            return last.hash;
+        }
+        long hash;
+        try (Reader reader = openReader()) {
+            hash = IOUtils.fingerprint(reader);
+        }
+        if (version != null) {
+            fingerprint = new Fingerprint(version, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns version of the text, which is changed when the text is changed.
+     * <p>Fingerprint of the text is cached until the version is changed, <tt>null</tt>
+     * for not caching it. The default implementation returns a constant as the text
+     * never changes.</p>
+     *
+     * @return the version, or <tt>null</tt> if unknown
+     * @since 2.4
+     */
+    protected Object contentVersion() {
+        return Boolean.TRUE;
+    }
+
+    private static final class Fingerprint {
+        private final Object version;
+        private final long hash;
+
+        private Fingerprint(Object version, long hash) {
+            this.version = version;
+            this.hash = hash;
+        }
+    }
+
     @Override
     public String toString() {
         try {
@@ -20,6 +20,11 @@ package pw.phylame.jem.util;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.zip.ZipFile;
 
@@ -70,6 +75,32 @@ public class FileFactory {
         public FileInputStream openStream() throws IOException {
             return new FileInputStream(file);
         }
+
+        @Override
+        public FileChannel openChannel() throws IOException {
+            return openStream().getChannel();
+        }
+
+        @Override
+        protected Object contentVersion() {
+            // the file may be changed by others
+            return file.lastModified() + ":" + file.length();
+        }
+
+        @Override
+        public int writeTo(OutputStream out) throws IOException {
+            if (out instanceof FileOutputStream) {
+                return writeTo(((FileOutputStream) out).getChannel());
+            }
+            return super.writeTo(out);
+        }
+
+        @Override
+        public int writeTo(WritableByteChannel channel) throws IOException {
+            try (FileChannel source = openChannel()) {
+                return (int) IOUtils.transfer(source, 0, -1, channel);
+            }
+        }
     }
 
     private static class EntryFile extends AbstractFile {
@@ -114,6 +145,9 @@ public class FileFactory {
 
     /**
      * File object that represents a block of source file.
+     * <p>Content of the block is fetched with positional reads, the file pointer
+     * of source file is never moved, so blocks sharing one source can be read
+     * by different threads at the same time.</p>
      */
     public static class BlockFile extends AbstractFile {
         static {
@@ -121,24 +155,29 @@ public class FileFactory {
         }
 
         private final String name;
-        private final RandomAccessFile file;
+        private final FileChannel channel;
 
         public long offset, size;
 
         public BlockFile(String name, RandomAccessFile file, long offset, long size, String mime)
                 throws IOException {
+            this(name, file != null ? file.getChannel() : null, offset, size, mime);
+        }
+
+        public BlockFile(String name, FileChannel channel, long offset, long size, String mime)
+                throws IOException {
             super(mime);
             if (name == null) {
                 throw new NullPointerException("name");
             }
-            if (file == null) {
-                throw new NullPointerException("file");
+            if (channel == null) {
+                throw new NullPointerException("channel");
             }
-            if (size > (file.length() - offset)) {
+            if (size > (IOUtils.size(channel) - offset)) {
                 throw new IOException("Source size < " + size);
             }
             this.name = name;
-            this.file = file;
+            this.channel = channel;
             this.offset = offset;
             this.size = size;
         }
@@ -150,15 +189,13 @@ public class FileFactory {
 
         @Override
         public InputStream openStream() throws IOException {
-            file.seek(offset);
-            return new RAFInputStream(file, size);
+            return new RAFInputStream(channel, offset, size);
         }
 
         @Override
         public byte[] readAll() throws IOException {
-            file.seek(offset);
             byte[] buf = new byte[(int) size];
-            int n = file.read(buf);
+            int n = IOUtils.read(channel, offset, buf, 0, buf.length);
             if (n < size) {
                 return Arrays.copyOf(buf, n);
             } else {
@@ -166,10 +203,22 @@ public class FileFactory {
             }
         }
 
+        @Override
+        public ReadableByteChannel openChannel() throws IOException {
+            return new BlockChannel(channel, offset, size);
+        }
+
         @Override
         public int writeTo(OutputStream out) throws IOException {
-            file.seek(offset);
-            return IOUtils.copy(file, out, (int) size);
+            if (out instanceof FileOutputStream) {
+                return writeTo(((FileOutputStream) out).getChannel());
+            }
+            return IOUtils.copy(channel, offset, out, (int) size);
+        }
+
+        @Override
+        public int writeTo(WritableByteChannel target) throws IOException {
+            return (int) IOUtils.transfer(channel, offset, size, target);
         }
 
         @Override
@@ -178,6 +227,112 @@ public class FileFactory {
         }
     }
 
+    /**
+     * File object that represents a region of memory-mapped file.
+     * <p>All readers share the mapped region, each read works on a duplicate view
+     * of the buffer, so the object can be used by different threads at the same time.</p>
+     *
+     * @since 2.4
+     */
+    public static class MappedFile extends AbstractFile {
+        static {
+            Jem.mapVariantType(MappedFile.class, Jem.FILE);
+        }
+
+        private final String name;
+        private final ByteBuffer buffer;
+
+        public MappedFile(String name, ByteBuffer buffer, String mime) {
+            super(mime);
+            if (name == null) {
+                throw new NullPointerException("name");
+            }
+            if (buffer == null) {
+                throw new NullPointerException("buffer");
+            }
+            this.name = name;
+            this.buffer = buffer.slice().asReadOnlyBuffer();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns a read-only view of the mapped content, no bytes are copied.
+         *
+         * @return the buffer, position is <tt>0</tt> and limit is size of the content
+         */
+        public ByteBuffer getBuffer() {
+            return buffer.duplicate();
+        }
+
+        /**
+         * Creates a new <tt>MappedFile</tt> shares the specified region of this object.
+         *
+         * @param name   name of the new file object
+         * @param offset begin position of the region in this file
+         * @param size   size of the region
+         * @param mime   MIME type of the new file object
+         * @return the sliced file object
+         * @throws IndexOutOfBoundsException if the region is out of this file
+         */
+        public MappedFile slice(String name, int offset, int size, String mime) {
+            if (offset < 0 || size < 0 || size > buffer.capacity() - offset) {
+                throw new IndexOutOfBoundsException("offset=" + offset + ", size=" + size);
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset).limit(offset + size);
+            return new MappedFile(name, view, getOrDetectMime(name, mime));
+        }
+
+        public int size() {
+            return buffer.capacity();
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new ByteBufferInputStream(buffer);
+        }
+
+        @Override
+        public byte[] readAll() throws IOException {
+            byte[] buf = new byte[buffer.capacity()];
+            buffer.duplicate().get(buf);
+            return buf;
+        }
+
+        @Override
+        public int writeTo(OutputStream out) throws IOException {
+            ByteBuffer view = buffer.duplicate();
+            byte[] bytes = new byte[Math.min(IOUtils.bufferSize, view.remaining())];
+            int total = view.remaining();
+            while (view.hasRemaining()) {
+                int n = Math.min(bytes.length, view.remaining());
+                view.get(bytes, 0, n);
+                out.write(bytes, 0, n);
+            }
+            out.flush();
+            return total;
+        }
+
+        @Override
+        public int writeTo(WritableByteChannel channel) throws IOException {
+            ByteBuffer view = buffer.duplicate();
+            int total = view.remaining();
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            return "mapped://" + super.toString() + ";size=" + buffer.capacity();
+        }
+    }
+
     private static class URLFile extends AbstractFile {
         static {
             Jem.mapVariantType(URLFile.class, Jem.FILE);
@@ -247,12 +402,74 @@ public class FileFactory {
             return buf.length;
         }
 
+        @Override
+        public int writeTo(WritableByteChannel channel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(buf);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return buf.length;
+        }
+
         @Override
         public String toString() {
             return "bytes://" + super.toString();
         }
     }
 
+    /**
+     * Channel for reading a block of source channel with positional reads.
+     */
+    private static class BlockChannel implements ReadableByteChannel {
+        private final FileChannel source;
+        private long position;
+        private final long end;
+        private boolean open = true;
+
+        private BlockChannel(FileChannel source, long offset, long size) {
+            this.source = source;
+            this.position = offset;
+            this.end = offset + size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            long remaining = end - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n;
+            if (dst.remaining() > remaining) {
+                ByteBuffer slice = dst.duplicate();
+                slice.limit(slice.position() + (int) remaining);
+                n = IOUtils.read(source, position, slice);
+                if (n > 0) {
+                    dst.position(dst.position() + n);
+                }
+            } else {
+                n = IOUtils.read(source, position, dst);
+            }
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            // the source channel is shared, not closed here
+            open = false;
+        }
+    }
+
     private static FileObject EMPTY_FILE;
 
     public static synchronized FileObject emptyFile() {
@@ -275,6 +492,74 @@ public class FileFactory {
         return new BlockFile(name, file, offset, size, getOrDetectMime(name, mime));
     }
 
+    public static BlockFile forBlock(String name, FileChannel channel, long offset, long size,
+                                     String mime) throws IOException {
+        return new BlockFile(name, channel, offset, size, getOrDetectMime(name, mime));
+    }
+
+    /**
+     * Maps whole content of specified file into memory.
+     *
+     * @param file the file
+     * @param mime MIME type of the file, if <tt>null</tt> detect by file name
+     * @return the mapped file object
+     * @throws IOException if occurs I/O errors
+     * @since 2.4
+     */
+    public static MappedFile forMapped(File file, String mime) throws IOException {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return forMapped(file.getPath(), raf.getChannel(), 0, raf.length(), mime);
+        }
+    }
+
+    /**
+     * Maps region of specified channel into memory.
+     * <p>The mapping is still valid after the channel is closed.</p>
+     *
+     * @param name    name of the file object
+     * @param channel the source channel
+     * @param offset  begin position of the region
+     * @param size    size of the region, must not be greater than <tt>Integer.MAX_VALUE</tt>
+     * @param mime    MIME type of the file, if <tt>null</tt> detect by name
+     * @return the mapped file object
+     * @throws IOException if occurs I/O errors
+     * @since 2.4
+     */
+    public static MappedFile forMapped(String name, FileChannel channel, long offset, long size, String mime)
+            throws IOException {
+        if (channel == null) {
+            throw new NullPointerException("channel");
+        }
+        if (size > (channel.size() - offset)) {
+            throw new IOException("Source size < " + size);
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        return new MappedFile(name, buffer, getOrDetectMime(name, mime));
+    }
+
+    /**
+     * Creates file object shares region of specified buffer, no bytes are copied.
+     *
+     * @param name   name of the file object
+     * @param buffer the source buffer, normally a <tt>MappedByteBuffer</tt>
+     * @param offset begin position of the region in the buffer
+     * @param size   size of the region
+     * @param mime   MIME type of the file, if <tt>null</tt> detect by name
+     * @return the mapped file object
+     * @since 2.4
+     */
+    public static MappedFile forMapped(String name, ByteBuffer buffer, int offset, int size, String mime) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer");
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + size).position(offset);
+        return new MappedFile(name, view, getOrDetectMime(name, mime));
+    }
+
     public static FileObject forURL(URL url, String mime) {
         return new URLFile(url, getOrDetectMime(url.getPath(), mime));
     }
@@ -21,6 +21,8 @@ package pw.phylame.jem.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Provides reused read-only input source.
@@ -53,6 +55,15 @@ public interface FileObject {
      */
     InputStream openStream() throws IOException;
 
+    /**
+     * Opens a channel for reading the content.
+     *
+     * @return the channel, never be <tt>null</tt>
+     * @throws IOException if occurs I/O errors
+     * @since 2.4
+     */
+    ReadableByteChannel openChannel() throws IOException;
+
     /**
      * Reads all bytes from the file object.
      *
@@ -69,4 +80,27 @@ public interface FileObject {
      * @throws IOException if occurs I/O errors
      */
     int writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Writes the file object to specified channel.
+     * <p>File based objects transfer the bytes by the operating system if possible.</p>
+     *
+     * @param channel the destination channel
+     * @return number of written bytes
+     * @throws IOException if occurs I/O errors
+     * @since 2.4
+     */
+    int writeTo(WritableByteChannel channel) throws IOException;
+
+    /**
+     * Returns fingerprint of the content.
+     * <p>The fingerprint is a 64-bit hash of the bytes. Implementations may cache it while
+     * the content is unchanged, for files in file system, it is computed again after the
+     * modified time or length of the file is changed.</p>
+     *
+     * @return the fingerprint
+     * @throws IOException if occurs I/O errors
+     * @since 2.4
+     */
+    long fingerprint() throws IOException;
 }
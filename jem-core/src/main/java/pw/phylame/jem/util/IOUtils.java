@@ -21,6 +21,10 @@ package pw.phylame.jem.util;
 import java.io.*;
 import java.util.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
@@ -311,6 +315,185 @@ public final class IOUtils {
         return copy(in, out, size, bufferSize);
     }
 
+    /**
+     * Reads a sequence of bytes from specified position of <tt>FileChannel</tt> to buffer.
+     * <p>The position of the channel is not changed, so the method can be invoked by
+     * many threads for one channel at the same time.</p>
+     * <p>A <tt>FileChannel</tt> is closed when a thread blocked in it is interrupted, which
+     * would break all readers sharing the channel. So interrupt status of current thread
+     * is cleared before reading and restored after, then a thread interrupted before
+     * reading still reads the bytes. The channel is only closed if the thread is interrupted
+     * by others during the read.</p>
+     *
+     * @param channel  source channel
+     * @param position start position in the channel
+     * @param dst      buffer to store read bytes
+     * @return number of read bytes, <tt>-1</tt> if the position is at end of the channel
+     * @throws IOException if occur I/O error.
+     * @since 2.4
+     */
+    public static int read(FileChannel channel, long position, ByteBuffer dst) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            return channel.read(dst, position);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns size of file of specified <tt>FileChannel</tt>.
+     * <p>Interrupt status of current thread is handled as
+     * {@link #read(FileChannel, long, ByteBuffer)}, so the shared channel is not closed.</p>
+     *
+     * @param channel the channel
+     * @return size of the file in bytes
+     * @throws IOException if occur I/O error.
+     * @since 2.4
+     */
+    public static long size(FileChannel channel) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            return channel.size();
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reads bytes from specified position of <tt>FileChannel</tt>.
+     * <p>The position of the channel is not changed, so the method can be invoked by
+     * many threads for one channel at the same time. Interrupt status of current thread
+     * is handled as {@link #read(FileChannel, long, ByteBuffer)}.</p>
+     *
+     * @param channel  source channel
+     * @param position start position in the channel
+     * @param b        buffer to store read bytes
+     * @param off      start offset in <tt>b</tt>
+     * @param len      maximum number of bytes to read
+     * @return number of read bytes, less than <tt>len</tt> if reached end of the channel
+     * @throws IOException if occur I/O error.
+     * @since 2.4
+     */
+    public static int read(FileChannel channel, long position, byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        int n, total = 0;
+        while (buffer.hasRemaining() && (n = read(channel, position + total, buffer)) != -1) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Copies bytes from specified position of <tt>FileChannel</tt> to <tt>OutputStream</tt>.
+     * <p>The position of the channel is not changed.</p>
+     *
+     * @param in       source channel
+     * @param position start position in the channel
+     * @param out      destination stream
+     * @param size     size of bytes to copy, <tt>-1</tt> to copy all
+     * @param bufSize  size of buffer area
+     * @return number of copied bytes
+     * @throws IOException if occur I/O error.
+     * @since 2.4
+     */
+    public static int copy(FileChannel in, long position, OutputStream out, int size, int bufSize) throws IOException {
+        if (size < 0) {
+            size = (int) (size(in) - position);
+        }
+        byte[] bytes = new byte[Math.min(bufSize, size)];
+        int n, total = 0;
+        while (total < size && (n = read(in, position + total, bytes, 0, Math.min(bytes.length, size - total))) > 0) {
+            out.write(bytes, 0, n);
+            total += n;
+        }
+        out.flush();
+        return total;
+    }
+
+    public static int copy(FileChannel in, long position, OutputStream out, int size) throws IOException {
+        return copy(in, position, out, size, bufferSize);
+    }
+
+    /**
+     * Transfers bytes from specified position of <tt>FileChannel</tt> to <tt>WritableByteChannel</tt>.
+     * <p>The bytes may be transferred by the operating system without copying to heap,
+     * the position of source channel is not changed. Interrupt status of current thread
+     * is cleared when transferring and restored after, as
+     * {@link #read(FileChannel, long, ByteBuffer)}.</p>
+     *
+     * @param in       source channel
+     * @param position start position in the channel
+     * @param size     size of bytes to transfer, <tt>-1</tt> to transfer all
+     * @param out      destination channel
+     * @return number of transferred bytes
+     * @throws IOException if occur I/O error.
+     * @since 2.4
+     */
+    public static long transfer(FileChannel in, long position, long size, WritableByteChannel out)
+            throws IOException {
+        if (size < 0) {
+            size = size(in) - position;
+        }
+        long n, total = 0;
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (total < size && (n = in.transferTo(position + total, size - total, out)) > 0) {
+                total += n;
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Copies bytes from <tt>ReadableByteChannel</tt> to <tt>WritableByteChannel</tt>.
+     *
+     * @param in      source channel
+     * @param out     destination channel
+     * @param size    size of bytes to copy, <tt>-1</tt> to copy all
+     * @param bufSize size of buffer area
+     * @return number of copied bytes
+     * @throws IOException if occur I/O error.
+     * @since 2.4
+     */
+    public static long copy(ReadableByteChannel in, WritableByteChannel out, long size, int bufSize)
+            throws IOException {
+        if (in instanceof FileChannel) {
+            FileChannel fc = (FileChannel) in;
+            long n = transfer(fc, fc.position(), size, out);
+            fc.position(fc.position() + n);
+            return n;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(bufSize);
+        long total = 0;
+        while (size < 0 || total < size) {
+            if (size >= 0) {
+                buffer.limit((int) Math.min(bufSize, size - total));
+            }
+            if (in.read(buffer) == -1) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                total += out.write(buffer);
+            }
+            buffer.clear();
+        }
+        return total;
+    }
+
+    public static long copy(ReadableByteChannel in, WritableByteChannel out, long size) throws IOException {
+        return copy(in, out, size, bufferSize);
+    }
+
     /**
      * Close specified <tt>Closeable</tt> quietly.
      *
@@ -361,6 +544,50 @@ public final class IOUtils {
         return toBytes(getByteInput(raf));
     }
 
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Computes 64-bit FNV-1a hash of all bytes of specified input.
+     *
+     * @param in the input
+     * @return the hash
+     * @throws IOException if occur I/O error
+     * @since 2.4
+     */
+    public static long fingerprint(InputStream in) throws IOException {
+        long hash = FNV_OFFSET;
+        byte[] buf = new byte[bufferSize];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            for (int ix = 0; ix < n; ++ix) {
+                hash = (hash ^ (buf[ix] & 0xFF)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Computes 64-bit FNV-1a hash of all characters of specified reader.
+     *
+     * @param reader the reader
+     * @return the hash
+     * @throws IOException if occur I/O error
+     * @since 2.4
+     */
+    public static long fingerprint(Reader reader) throws IOException {
+        long hash = FNV_OFFSET;
+        char[] buf = new char[bufferSize];
+        int n;
+        while ((n = reader.read(buf)) != -1) {
+            for (int ix = 0; ix < n; ++ix) {
+                hash = (hash ^ buf[ix]) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
     /**
      * Open a reader for specified input stream with specified encoding.
      *
@@ -488,6 +715,7 @@ public final class IOUtils {
 
     /**
      * Copies source file to target file.
+     * <p>The bytes are transferred between file channels, so <tt>bufSize</tt> is not used now.</p>
      *
      * @param source  the source file
      * @param target  the target file
@@ -496,7 +724,7 @@ public final class IOUtils {
      */
     public static void copyFile(File source, File target, int bufSize) throws IOException {
         try (FileInputStream in = new FileInputStream(source); FileOutputStream out = new FileOutputStream(target)) {
-            copy(in, out, -1, bufSize);
+            transfer(in.getChannel(), 0, -1, out.getChannel());
         }
     }
 
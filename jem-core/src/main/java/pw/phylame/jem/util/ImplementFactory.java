@@ -18,12 +18,23 @@
 
 package pw.phylame.jem.util;
 
-import java.util.HashMap;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Factory for named implementations of interface <tt>T</tt>.
+ * <p>This class is thread-safe. If instances are reusable, one instance for
+ * each name is shared by all threads.</p>
+ * <p>Classes registered by path are not loaded until the first instance is
+ * requested, the resolved constructor is kept for later instances.</p>
+ *
+ * @param <T> type of the interface
+ */
 public class ImplementFactory<T> {
     private final Class<T> type;
-    private final HashMap<String, ImplHolder> implementations = new HashMap<>();
-    private final HashMap<String, T> objectCache;
+    private final ConcurrentHashMap<String, ImplHolder> implementations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, T> objectCache;
 
     /**
      * Constructs object with specified class type.
@@ -33,7 +44,7 @@ public class ImplementFactory<T> {
      */
     public ImplementFactory(Class<T> type, boolean reusable) {
         this.type = type;
-        objectCache = reusable ? new HashMap<String, T>() : null;
+        objectCache = reusable ? new ConcurrentHashMap<String, T>() : null;
     }
 
     /**
@@ -50,14 +61,8 @@ public class ImplementFactory<T> {
         if (path == null || path.isEmpty()) {
             throw new IllegalArgumentException("path cannot be null or empty");
         }
-        ImplHolder impl = implementations.get(name);
-        if (impl != null) {
-            impl.path = path;
-            if (objectCache != null) {
-                objectCache.remove(name);
-            }
-        } else {
-            implementations.put(name, new ImplHolder(path));
+        if (implementations.put(name, new ImplHolder(path)) != null && objectCache != null) {
+            objectCache.remove(name);
         }
     }
 
@@ -75,14 +80,8 @@ public class ImplementFactory<T> {
         if (clazz == null) {
             throw new NullPointerException("clazz");
         }
-        ImplHolder impl = implementations.get(name);
-        if (impl != null) {
-            impl.clazz = clazz;
-            if (objectCache != null) {
-                objectCache.remove(name);
-            }
-        } else {
-            implementations.put(name, new ImplHolder(clazz));
+        if (implementations.put(name, new ImplHolder(clazz)) != null && objectCache != null) {
+            objectCache.remove(name);
         }
     }
 
@@ -121,25 +120,54 @@ public class ImplementFactory<T> {
         ImplHolder impl = implementations.get(name);
         if (impl != null) {
             obj = impl.instantiate();
-            if (objectCache != null) {
-                objectCache.put(name, obj);
+            if (objectCache != null && obj != null) {
+                // another thread may have created one, keep the first
+                T old = objectCache.putIfAbsent(name, obj);
+                if (old != null) {
+                    obj = old;
+                }
             }
         }
         return obj;
     }
 
     private class ImplHolder {
-        private String path;
-        private Class<? extends T> clazz;
+        private final String path;
+        private final Class<? extends T> clazz;
+
+        // resolved when creating the first instance
+        private volatile Constructor<? extends T> constructor;
+
+        // class of path is not a subclass of T
+        private volatile boolean incompatible = false;
 
         private ImplHolder(String path) {
             this.path = path;
+            this.clazz = null;
         }
 
         private ImplHolder(Class<? extends T> clazz) {
+            this.path = null;
             this.clazz = clazz;
         }
 
+        private Constructor<? extends T> resolve() throws ClassNotFoundException, InstantiationException {
+            Class<? extends T> klass = clazz;
+            if (klass == null) {
+                Class<?> c = Class.forName(path);
+                if (!type.isAssignableFrom(c)) {
+                    incompatible = true;
+                    return null;
+                }
+                klass = c.asSubclass(type);
+            }
+            try {
+                return klass.getConstructor();
+            } catch (NoSuchMethodException e) {
+                throw new InstantiationException("No public default constructor in " + klass.getName());
+            }
+        }
+
         /**
          * Creates a new instance of implement for <tt>T</tt>.
          *
@@ -148,20 +176,22 @@ public class ImplementFactory<T> {
          * @throws IllegalAccessException if the class of <tt>path</tt> is inaccessible
          * @throws InstantiationException if cannot create instance of the class
          */
-        @SuppressWarnings("unchecked")
         private T instantiate() throws ClassNotFoundException, IllegalAccessException, InstantiationException {
-            if (clazz != null) {
-                clazz.newInstance();
-            }
-            if (path == null) {
-                throw new AssertionError("BUG: implementation without clazz and path specified");
+            Constructor<? extends T> ctor = constructor;
+            if (ctor == null) {
+                if (incompatible || (ctor = resolve()) == null) {
+                    return null;
+                }
+                constructor = ctor;
             }
-            Class<?> klass = Class.forName(path);
-            if (!type.isAssignableFrom(klass)) {
-                return null;
+            try {
+                return ctor.newInstance();
+            } catch (InvocationTargetException e) {
+                InstantiationException ex = new InstantiationException("Cannot create instance of "
+                        + ctor.getDeclaringClass().getName());
+                ex.initCause(e.getCause());
+                throw ex;
             }
-            clazz = (Class<T>) klass;
-            return clazz.newInstance();
         }
     }
 }
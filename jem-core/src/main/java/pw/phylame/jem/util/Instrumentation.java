@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.util;
+
+/**
+ * Reports time of processing stages and counters of parsers and makers.
+ * <p>Instrumentation is disabled by default, set system property <tt>jem.instrument</tt>
+ * to <tt>true</tt> for installing {@link InstrumentationStats}, or call
+ * {@link #setListener(Listener)} with custom listener.
+ * When disabled, {@link #start()} returns <tt>0</tt> and other methods do nothing.</p>
+ * <p>Parsers and makers enter their format name while working, stages and counters
+ * reported in the thread are assigned to the format. Stages may be nested, e.g.
+ * time of {@link Stage#DECODE} includes the {@link Stage#INFLATE} in it.</p>
+ * <p>Usage:</p>
+ * <pre>
+ * Object token = Instrumentation.enter("umd");
+ * long begin = Instrumentation.start();
+ * try {
+ *     // decode text
+ * } finally {
+ *     Instrumentation.stop(Instrumentation.Stage.DECODE, begin);
+ *     Instrumentation.exit(token);
+ * }
+ * </pre>
+ *
+ * @since 2.4
+ */
+public final class Instrumentation {
+    /**
+     * System property for enabling instrumentation.
+     */
+    public static final String ENABLE_KEY = "jem.instrument";
+
+    /**
+     * Format name of stages and counters reported out of any format.
+     */
+    public static final String UNKNOWN_FORMAT = "unknown";
+
+    /**
+     * Processing stages.
+     */
+    public enum Stage {
+        /**
+         * Parsing book file, including validating and reading chapters.
+         */
+        PARSE,
+        /**
+         * Validating book file.
+         */
+        VALIDATE,
+        /**
+         * Decoding content of chapter.
+         */
+        DECODE,
+        /**
+         * Decompressing data.
+         */
+        INFLATE,
+        /**
+         * Compressing data.
+         */
+        DEFLATE,
+        /**
+         * Rendering text of chapter.
+         */
+        RENDER,
+        /**
+         * Writing entry of ZIP archive.
+         */
+        ZIP_WRITE,
+        /**
+         * Making book file.
+         */
+        MAKE
+    }
+
+    /**
+     * Counters.
+     */
+    public enum Counter {
+        /**
+         * Size of parsed book files.
+         */
+        BYTES_READ,
+        /**
+         * Size of made book files.
+         */
+        BYTES_WRITTEN,
+        /**
+         * Number of parsed chapters.
+         */
+        CHAPTERS_READ,
+        /**
+         * Number of written chapters.
+         */
+        CHAPTERS_WRITTEN
+    }
+
+    /**
+     * Receiver of instrumentation data, it may be called from many threads at the same time.
+     */
+    public interface Listener {
+        void onStage(String format, Stage stage, long nanos);
+
+        void onCount(String format, Counter counter, long delta);
+    }
+
+    private static volatile Listener listener;
+
+    private static final ThreadLocal<String> format = new ThreadLocal<>();
+
+    // tokens returned by enter
+    private static final Object NOT_ENTERED = new Object(), NO_FORMAT = new Object();
+
+    private Instrumentation() {
+    }
+
+    public static boolean isEnabled() {
+        return listener != null;
+    }
+
+    public static Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * Sets listener for instrumentation data.
+     *
+     * @param listener the listener, <tt>null</tt> to disable instrumentation
+     */
+    public static void setListener(Listener listener) {
+        Instrumentation.listener = listener;
+    }
+
+    /**
+     * Makes specified format be the format of current thread.
+     *
+     * @param name name of the format
+     * @return token for restoring previous format by {@link #exit(Object)}
+     */
+    public static Object enter(String name) {
+        if (listener == null) {
+            return NOT_ENTERED;
+        }
+        String prev = format.get();
+        format.set(name);
+        return prev != null ? prev : NO_FORMAT;
+    }
+
+    /**
+     * Restores format of current thread before the {@link #enter(String)}.
+     *
+     * @param token the token returned by <tt>enter</tt>
+     */
+    public static void exit(Object token) {
+        if (token == NOT_ENTERED) {
+            return;
+        }
+        if (token == NO_FORMAT) {
+            format.remove();
+        } else {
+            format.set((String) token);
+        }
+    }
+
+    /**
+     * Returns start time of a stage.
+     *
+     * @return the time in nanoseconds, or <tt>0</tt> if disabled
+     */
+    public static long start() {
+        return listener != null ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Reports a stage started at specified time is finished.
+     *
+     * @param stage the stage
+     * @param start the value returned by {@link #start()}
+     */
+    public static void stop(Stage stage, long start) {
+        Listener l = listener;
+        if (l != null && start != 0L) {
+            l.onStage(currentFormat(), stage, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Adds specified value to the counter.
+     *
+     * @param counter the counter
+     * @param delta   the value
+     */
+    public static void count(Counter counter, long delta) {
+        Listener l = listener;
+        if (l != null) {
+            l.onCount(currentFormat(), counter, delta);
+        }
+    }
+
+    private static String currentFormat() {
+        String name = format.get();
+        return name != null ? name : UNKNOWN_FORMAT;
+    }
+
+    static {
+        if (Boolean.getBoolean(ENABLE_KEY)) {
+            InstrumentationStats.install();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import javax.management.MBeanServer;
+import javax.management.JMException;
+
+/**
+ * Default instrumentation listener collecting total time of stages and counters for each format.
+ * <p>The installed instance is registered to platform MBean server with name
+ * {@link #OBJECT_NAME}.</p>
+ *
+ * @since 2.4
+ */
+public class InstrumentationStats implements Instrumentation.Listener, InstrumentationStatsMXBean {
+    /**
+     * Name of the MBean.
+     */
+    public static final String OBJECT_NAME = "pw.phylame.jem:type=Instrumentation";
+
+    private static InstrumentationStats installed;
+
+    private final ConcurrentHashMap<String, AtomicLong> stageNanos = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> stageCalls = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Installs the default instance as instrumentation listener and registers it to MBean server.
+     *
+     * @return the installed instance
+     */
+    public static synchronized InstrumentationStats install() {
+        if (installed == null) {
+            installed = new InstrumentationStats();
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(installed, name);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+        Instrumentation.setListener(installed);
+        return installed;
+    }
+
+    /**
+     * Disables instrumentation and unregisters the installed instance from MBean server.
+     */
+    public static synchronized void uninstall() {
+        if (installed == null) {
+            return;
+        }
+        if (Instrumentation.getListener() == installed) {
+            Instrumentation.setListener(null);
+        }
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        installed = null;
+    }
+
+    @Override
+    public void onStage(String format, Instrumentation.Stage stage, long nanos) {
+        String key = format + '.' + stage.name();
+        add(stageNanos, key, nanos);
+        add(stageCalls, key, 1L);
+    }
+
+    @Override
+    public void onCount(String format, Instrumentation.Counter counter, long delta) {
+        add(counters, format + '.' + counter.name(), delta);
+    }
+
+    @Override
+    public Map<String, Long> getStageNanos() {
+        return snapshot(stageNanos);
+    }
+
+    @Override
+    public Map<String, Long> getStageCalls() {
+        return snapshot(stageCalls);
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        return snapshot(counters);
+    }
+
+    @Override
+    public void reset() {
+        stageNanos.clear();
+        stageCalls.clear();
+        counters.clear();
+    }
+
+    private static void add(ConcurrentHashMap<String, AtomicLong> map, String key, long delta) {
+        AtomicLong value = map.get(key);
+        if (value == null) {
+            AtomicLong prev = map.putIfAbsent(key, value = new AtomicLong());
+            if (prev != null) {
+                value = prev;
+            }
+        }
+        value.addAndGet(delta);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> map) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+}
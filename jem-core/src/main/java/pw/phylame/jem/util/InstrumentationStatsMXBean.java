@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.util;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link InstrumentationStats}.
+ * <p>Keys of the maps are <tt>format.name</tt>, e.g. <tt>umd.INFLATE</tt>.</p>
+ *
+ * @since 2.4
+ */
+public interface InstrumentationStatsMXBean {
+    /**
+     * Returns total time of stages in nanoseconds.
+     *
+     * @return map of stage to the time
+     */
+    Map<String, Long> getStageNanos();
+
+    /**
+     * Returns number of finished stages.
+     *
+     * @return map of stage to the number
+     */
+    Map<String, Long> getStageCalls();
+
+    /**
+     * Returns values of counters.
+     *
+     * @return map of counter to the value
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Clears all collected data.
+     */
+    void reset();
+}
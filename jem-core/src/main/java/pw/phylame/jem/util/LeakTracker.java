@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.util;
+
+import java.util.Set;
+import java.util.Collections;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.PhantomReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reports objects owning resources that are collected without being released.
+ * <p>Tracking is disabled by default, set system property <tt>jem.leak.debug</tt>
+ * to <tt>true</tt> or call {@link #setEnabled(boolean)} to enable it.
+ * When disabled, {@link #track(Object, String)} returns <tt>null</tt> and costs nothing.</p>
+ * <p>Leaks are checked when new object is tracked or by {@link #checkLeaks()}.</p>
+ *
+ * @since 2.4
+ */
+public final class LeakTracker {
+    /**
+     * System property for enabling leak tracking.
+     */
+    public static final String DEBUG_KEY = "jem.leak.debug";
+
+    private static volatile boolean enabled = Boolean.getBoolean(DEBUG_KEY);
+
+    private static final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    // keeps the references reachable until released or reported
+    private static final Set<Handle> handles = Collections.newSetFromMap(new ConcurrentHashMap<Handle, Boolean>());
+
+    private LeakTracker() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        LeakTracker.enabled = enabled;
+    }
+
+    /**
+     * Starts tracking specified object.
+     *
+     * @param owner       the object owning resources
+     * @param description description of the resources, used in leak report
+     * @return the handle to be released when the resources are released,
+     * or <tt>null</tt> if tracking is disabled
+     * @throws NullPointerException if the <tt>owner</tt> is <tt>null</tt>
+     */
+    public static Handle track(Object owner, String description) {
+        if (owner == null) {
+            throw new NullPointerException("owner");
+        }
+        if (!enabled) {
+            return null;
+        }
+        checkLeaks();
+        Handle handle = new Handle(owner, description);
+        handles.add(handle);
+        return handle;
+    }
+
+    /**
+     * Reports tracked objects that were collected without being released.
+     *
+     * @return number of found leaks
+     */
+    public static int checkLeaks() {
+        int count = 0;
+        Handle handle;
+        while ((handle = (Handle) queue.poll()) != null) {
+            if (handles.remove(handle)) {
+                ++count;
+                System.err.printf("*** BUG: %s not released ***\n", handle.description);
+                if (handle.trace != null) {
+                    handle.trace.printStackTrace();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns number of tracked objects not released.
+     *
+     * @return number of objects
+     */
+    public static int trackedCount() {
+        return handles.size();
+    }
+
+    /**
+     * Handle for tracked object.
+     */
+    public static final class Handle extends PhantomReference<Object> {
+        private final String description;
+        private final Throwable trace;
+
+        private Handle(Object owner, String description) {
+            super(owner, queue);
+            this.description = description;
+            trace = new Throwable("Tracked at");
+        }
+
+        /**
+         * Marks resources of the tracked object are released.
+         */
+        public void release() {
+            handles.remove(this);
+            clear();
+        }
+    }
+}
@@ -21,14 +21,21 @@ package pw.phylame.jem.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Wrapper for block of <tt>RandomAccessFile</tt> as <tt>InputStream</tt>.
+ * <p>Bytes are fetched with positional reads of the underlying <tt>FileChannel</tt>,
+ * the file pointer of source is never moved, so many streams over one source
+ * can be read by different threads at the same time. Interrupting the reading thread
+ * does not close the shared channel, see {@link IOUtils#read(FileChannel, long, ByteBuffer)}.</p>
  */
 public class RAFInputStream extends InputStream {
-    private final RandomAccessFile source;
+    private final FileChannel source;
     private final long endPos;    // value: curPos + size
     private long curPos;
+    private long markPos;
 
     public RAFInputStream(RandomAccessFile source, long size) throws IOException {
         this(source, source.getFilePointer(), size);
@@ -36,15 +43,29 @@ public class RAFInputStream extends InputStream {
 
     // size < 0 to use all content of source
     public RAFInputStream(RandomAccessFile source, long offset, long size) throws IOException {
+        this(source.getChannel(), offset, size);
+    }
+
+    /**
+     * Constructs stream for block of specified channel.
+     *
+     * @param source the source channel
+     * @param offset begin position of the block
+     * @param size   size of the block, <tt>-1</tt> to use all content of source
+     * @throws IOException if occurs I/O errors
+     * @since 2.4
+     */
+    public RAFInputStream(FileChannel source, long offset, long size) throws IOException {
         if (source == null) {
             throw new NullPointerException("source");
         }
 
         this.source = source;
-        long length = source.length();
+        long length = IOUtils.size(source);
 
         curPos = (offset < 0) ? 0 : offset;
         endPos = (size < 0) ? length : curPos + size;
+        markPos = curPos;
 
         if (curPos >= length) {
             throw new IllegalArgumentException("offset >= length of source");
@@ -56,12 +77,8 @@ public class RAFInputStream extends InputStream {
 
     @Override
     public int read() throws IOException {
-        if (curPos < endPos) {
-            ++curPos;
-            return source.read();
-        } else {
-            return -1;
-        }
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
     }
 
     @Override
@@ -78,8 +95,10 @@ public class RAFInputStream extends InputStream {
             return -1;
         }
         count = count < len ? count : len;
-        len = source.read(b, off, (int) count);
-        curPos += count;
+        len = IOUtils.read(source, curPos, ByteBuffer.wrap(b, off, (int) count));
+        if (len > 0) {
+            curPos += len;
+        }
         return len;
     }
 
@@ -88,8 +107,8 @@ public class RAFInputStream extends InputStream {
         if (n < 0) {
             return 0;
         }
-        n = source.skipBytes((int) Math.min(n, endPos - curPos));
-        curPos = Math.min(curPos + n, endPos);
+        n = Math.min(n, endPos - curPos);
+        curPos += n;
         return n;
     }
 
@@ -97,4 +116,19 @@ public class RAFInputStream extends InputStream {
     public int available() throws IOException {
         return (int) (endPos - curPos);
     }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        markPos = curPos;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        curPos = markPos;
+    }
 }
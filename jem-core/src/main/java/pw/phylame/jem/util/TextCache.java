@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache for decoded text content.
+ * <p>The capacity is measured in characters, when total length of cached text
+ * exceeds the capacity, the least recently used entries are evicted.</p>
+ * <p>Text objects opt into the cache by {@link TextFactory#forCached(TextObject, TextCache)}.</p>
+ * <p>This class is thread-safe.</p>
+ *
+ * @since 2.4
+ */
+public class TextCache {
+    /**
+     * System property for capacity of the default cache, in characters.
+     */
+    public static final String CAPACITY_KEY = "jem.text.cache.capacity";
+
+    /**
+     * Default capacity of the default cache, about 8MB heap.
+     */
+    public static final long DEFAULT_CAPACITY = 4L << 20;
+
+    private static TextCache defaultCache;
+
+    /**
+     * Returns the cache shared by all text objects in this JVM.
+     *
+     * @return the default cache
+     */
+    public static synchronized TextCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new TextCache(Long.getLong(CAPACITY_KEY, DEFAULT_CAPACITY));
+        }
+        return defaultCache;
+    }
+
+    private final LinkedHashMap<Object, String> entries = new LinkedHashMap<>(16, 0.75F, true);
+
+    private long capacity;
+
+    private long size = 0;
+
+    private long hitCount = 0, missCount = 0;
+
+    /**
+     * Constructs cache with specified capacity.
+     *
+     * @param capacity max number of cached characters, <tt>0</tt> to disable the cache
+     * @throws IllegalArgumentException if the <tt>capacity</tt> is negative
+     */
+    public TextCache(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns cached text for specified key.
+     *
+     * @param key the key
+     * @return the text or <tt>null</tt> if not cached
+     */
+    public synchronized String get(Object key) {
+        String text = entries.get(key);
+        if (text != null) {
+            ++hitCount;
+        } else {
+            ++missCount;
+        }
+        return text;
+    }
+
+    /**
+     * Puts text with specified key to the cache.
+     * <p>Text longer than capacity of the cache is not cached.</p>
+     *
+     * @param key  the key
+     * @param text the text
+     * @throws NullPointerException if the <tt>key</tt> or <tt>text</tt> is <tt>null</tt>
+     */
+    public synchronized void put(Object key, String text) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        if (text == null) {
+            throw new NullPointerException("text");
+        }
+        String old = entries.remove(key);
+        if (old != null) {
+            size -= old.length();
+        }
+        if (text.length() > capacity) {
+            return;
+        }
+        entries.put(key, text);
+        size += text.length();
+        trimTo(capacity);
+    }
+
+    /**
+     * Removes cached text for specified key.
+     *
+     * @param key the key
+     * @return the removed text or <tt>null</tt> if not cached
+     */
+    public synchronized String remove(Object key) {
+        String text = entries.remove(key);
+        if (text != null) {
+            size -= text.length();
+        }
+        return text;
+    }
+
+    /**
+     * Removes all cached text.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes capacity of the cache, evicts entries if need.
+     *
+     * @param capacity max number of cached characters, <tt>0</tt> to disable the cache
+     * @throws IllegalArgumentException if the <tt>capacity</tt> is negative
+     */
+    public synchronized void setCapacity(long capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        }
+        this.capacity = capacity;
+        trimTo(capacity);
+    }
+
+    /**
+     * Returns total number of cached characters.
+     *
+     * @return the size
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public synchronized void resetCounters() {
+        hitCount = missCount = 0;
+    }
+
+    private void trimTo(long limit) {
+        Iterator<Map.Entry<Object, String>> it = entries.entrySet().iterator();
+        while (size > limit && it.hasNext()) {
+            size -= it.next().getValue().length();
+            it.remove();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TextCache{capacity=" + capacity + ", size=" + size + ", entries=" + entries.size()
+                + ", hits=" + hitCount + ", misses=" + missCount + "}";
+    }
+}
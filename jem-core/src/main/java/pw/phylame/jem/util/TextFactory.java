@@ -19,6 +19,8 @@
 package pw.phylame.jem.util;
 
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.BufferedReader;
 import java.io.Writer;
 import java.io.IOException;
 import java.io.InputStream;
@@ -43,21 +45,60 @@ public class TextFactory {
         if (cs == null) {
             throw new NullPointerException("cs");
         }
-        List<String> lines = new LinkedList<>();
-        int ix, begin = 0, length = cs.length();
+        final List<String> lines = new LinkedList<>();
+        try {
+            visitLines(cs, new TextObject.LineVisitor() {
+                @Override
+                public boolean visitLine(String line) {
+                    lines.add(line);
+                    return true;
+                }
+            }, skipEmpty);
+        } catch (Exception e) {
+            throw new AssertionError("BUG: collecting lines should not throw: " + e);
+        }
+        return lines;
+    }
+
+    /**
+     * Passes lines split from specified string to visitor one by one.
+     *
+     * @param cs        the input string
+     * @param visitor   the line visitor
+     * @param skipEmpty <tt>true</tt> to skip empty line
+     * @return number of visited lines
+     * @throws NullPointerException if the <tt>cs</tt> or <tt>visitor</tt> is <tt>null</tt>
+     * @throws Exception            if the visitor throws
+     * @since 2.4
+     */
+    public static int visitLines(CharSequence cs, TextObject.LineVisitor visitor, boolean skipEmpty)
+            throws Exception {
+        if (cs == null) {
+            throw new NullPointerException("cs");
+        }
+        if (visitor == null) {
+            throw new NullPointerException("visitor");
+        }
+        int ix, begin = 0, length = cs.length(), count = 0;
         CharSequence sub;
         for (ix = 0; ix < length; ) {
             char ch = cs.charAt(ix);
             if ('\n' == ch) {   // \n
                 sub = cs.subSequence(begin, ix);
                 if (sub.length() > 0 || !skipEmpty) {
-                    lines.add(sub.toString());
+                    ++count;
+                    if (!visitor.visitLine(sub.toString())) {
+                        return count;
+                    }
                 }
                 begin = ++ix;
             } else if ('\r' == ch) {
                 sub = cs.subSequence(begin, ix);
                 if (sub.length() > 0 || !skipEmpty) {
-                    lines.add(sub.toString());
+                    ++count;
+                    if (!visitor.visitLine(sub.toString())) {
+                        return count;
+                    }
                 }
                 if (ix + 1 < length && '\n' == cs.charAt(ix + 1)) {   // \r\n
                     begin = ix += 2;
@@ -71,10 +112,50 @@ public class TextFactory {
         if (ix >= begin) {
             sub = cs.subSequence(begin, cs.length());
             if (sub.length() > 0 || !skipEmpty) {
-                lines.add(sub.toString());
+                ++count;
+                visitor.visitLine(sub.toString());
             }
         }
-        return lines;
+        return count;
+    }
+
+    /**
+     * Passes lines read from specified reader to visitor one by one.
+     * <p>The reader is not closed by this method.</p>
+     *
+     * @param reader    the input reader
+     * @param visitor   the line visitor
+     * @param skipEmpty <tt>true</tt> to skip empty line
+     * @return number of visited lines
+     * @throws NullPointerException if the <tt>reader</tt> or <tt>visitor</tt> is <tt>null</tt>
+     * @throws Exception            if occur I/O error or the visitor throws
+     * @since 2.4
+     */
+    public static int visitLines(Reader reader, TextObject.LineVisitor visitor, boolean skipEmpty)
+            throws Exception {
+        if (reader == null) {
+            throw new NullPointerException("reader");
+        }
+        if (visitor == null) {
+            throw new NullPointerException("visitor");
+        }
+        BufferedReader br;
+        if (reader instanceof BufferedReader) {
+            br = (BufferedReader) reader;
+        } else {
+            br = new BufferedReader(reader);
+        }
+        int count = 0;
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (!line.isEmpty() || !skipEmpty) {
+                ++count;
+                if (!visitor.visitLine(line)) {
+                    break;
+                }
+            }
+        }
+        return count;
     }
 
     private static class RawText extends AbstractText {
@@ -96,6 +177,22 @@ public class TextFactory {
         public String getText() throws Exception {
             return text.toString();
         }
+
+        @Override
+        public Reader openReader() throws Exception {
+            return new StringReader(text.toString());
+        }
+
+        @Override
+        public int visitLines(LineVisitor visitor, boolean skipEmpty) throws Exception {
+            return TextFactory.visitLines(text, visitor, skipEmpty);
+        }
+
+        @Override
+        protected Object contentVersion() {
+            // other char sequences, like StringBuilder, may be changed
+            return text instanceof String ? Boolean.TRUE : null;
+        }
     }
 
     private static class FileText extends AbstractText {
@@ -130,12 +227,71 @@ public class TextFactory {
             }
         }
 
+        @Override
+        public Reader openReader() throws Exception {
+            return IOUtils.openReader(file.openStream(), encoding);
+        }
+
+        @Override
+        public int visitLines(LineVisitor visitor, boolean skipEmpty) throws Exception {
+            try (Reader reader = openReader()) {
+                return TextFactory.visitLines(reader, visitor, skipEmpty);
+            }
+        }
+
         @Override
         public int writeTo(Writer writer) throws IOException {
             try (Reader reader = IOUtils.openReader(file.openStream(), encoding)) {
                 return IOUtils.copy(reader, writer, -1);
             }
         }
+
+        @Override
+        protected Object contentVersion() {
+            return file instanceof AbstractFile ? ((AbstractFile) file).contentVersion() : null;
+        }
+    }
+
+    private static class CachedText extends AbstractText {
+        static {
+            Jem.mapVariantType(CachedText.class, Jem.TEXT);
+        }
+
+        private final TextObject text;
+        private final TextCache cache;
+
+        private CachedText(TextObject text, TextCache cache) {
+            super(text.getType());
+            this.text = text;
+            this.cache = cache;
+        }
+
+        @Override
+        public String getText() throws Exception {
+            String str = cache.get(this);
+            if (str == null) {
+                str = text.getText();
+                cache.put(this, str);
+            }
+            return str;
+        }
+
+        @Override
+        public Reader openReader() throws Exception {
+            String str = cache.get(this);
+            return str != null ? new StringReader(str) : text.openReader();
+        }
+
+        @Override
+        public int visitLines(LineVisitor visitor, boolean skipEmpty) throws Exception {
+            String str = cache.get(this);
+            return str != null ? TextFactory.visitLines(str, visitor, skipEmpty) : text.visitLines(visitor, skipEmpty);
+        }
+
+        @Override
+        public long fingerprint() throws Exception {
+            return text.fingerprint();
+        }
     }
 
     private static TextObject EMPTY_TEXT;
@@ -166,4 +322,70 @@ public class TextFactory {
     public static TextObject forFile(FileObject file, String encoding, String type) {
         return new FileText(file, encoding, type);
     }
+
+    /**
+     * Creates text object that caches content of specified text in the default cache.
+     *
+     * @param text the source text
+     * @return the cached text object
+     * @throws NullPointerException if the <tt>text</tt> is <tt>null</tt>
+     * @see TextCache#getDefault()
+     * @since 2.4
+     */
+    public static TextObject forCached(TextObject text) {
+        return forCached(text, TextCache.getDefault());
+    }
+
+    /**
+     * Creates text object that caches content of specified text in specified cache.
+     * <p>The content of <tt>text</tt> is fetched only when it is not in the cache.</p>
+     *
+     * @param text  the source text
+     * @param cache the text cache
+     * @return the cached text object
+     * @throws NullPointerException if the <tt>text</tt> or <tt>cache</tt> is <tt>null</tt>
+     * @since 2.4
+     */
+    public static TextObject forCached(TextObject text, TextCache cache) {
+        if (text == null) {
+            throw new NullPointerException("text");
+        }
+        if (cache == null) {
+            throw new NullPointerException("cache");
+        }
+        return new CachedText(text, cache);
+    }
+
+    /**
+     * Creates text object storing specified text in the default store.
+     *
+     * @param str  the text
+     * @param type type of the text
+     * @return the stored text object
+     * @throws NullPointerException if the <tt>str</tt> or <tt>type</tt> is <tt>null</tt>
+     * @see TextStore#getDefault()
+     * @since 2.4
+     */
+    public static TextObject forStored(CharSequence str, String type) {
+        return forStored(str, type, TextStore.getDefault());
+    }
+
+    /**
+     * Creates text object storing specified text in specified store.
+     * <p>Unlike {@link #forString(CharSequence, String)}, the text is kept encoded and
+     * decoded when fetched.</p>
+     *
+     * @param str   the text
+     * @param type  type of the text
+     * @param store the text store
+     * @return the stored text object
+     * @throws NullPointerException if the <tt>str</tt>, <tt>type</tt> or <tt>store</tt> is <tt>null</tt>
+     * @since 2.4
+     */
+    public static TextObject forStored(CharSequence str, String type, TextStore store) {
+        if (store == null) {
+            throw new NullPointerException("store");
+        }
+        return store.store(str, type);
+    }
 }
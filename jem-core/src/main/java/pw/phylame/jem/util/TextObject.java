@@ -19,6 +19,7 @@
 package pw.phylame.jem.util;
 
 import java.util.List;
+import java.io.Reader;
 import java.io.Writer;
 
 /**
@@ -59,6 +60,28 @@ public interface TextObject {
      */
     List<String> getLines(boolean skipEmpty) throws Exception;
 
+    /**
+     * Opens a reader for reading text content in this object.
+     * <p>The content is read on demand, the caller is responsible for closing the reader.</p>
+     *
+     * @return the reader
+     * @throws Exception if occur error when opening the content
+     * @since 2.4
+     */
+    Reader openReader() throws Exception;
+
+    /**
+     * Passes lines of text content in this object to specified visitor one by one.
+     * <p>Unlike {@link #getLines(boolean)}, the lines are not collected.</p>
+     *
+     * @param visitor   the line visitor
+     * @param skipEmpty <tt>true</tt> to skip empty line
+     * @return number of visited lines
+     * @throws Exception if occur error when fetching text or visiting lines
+     * @since 2.4
+     */
+    int visitLines(LineVisitor visitor, boolean skipEmpty) throws Exception;
+
     /**
      * Writes text content in this object to output writer.
      *
@@ -67,4 +90,34 @@ public interface TextObject {
      * @throws Exception if occur error when fetching text or writing content
      */
     int writeTo(Writer writer) throws Exception;
+
+    /**
+     * Returns fingerprint of text content in this object.
+     * <p>The fingerprint is a 64-bit hash of the text. Implementations may cache it while
+     * the text is unchanged, text of mutable sources, like files or <tt>StringBuilder</tt>,
+     * is hashed again when it may be changed. Text objects with same text have same
+     * fingerprint, so content of a chapter can be compared with that at last saving
+     * without keeping the text.</p>
+     *
+     * @return the fingerprint
+     * @throws Exception if occur error when fetching text
+     * @since 2.4
+     */
+    long fingerprint() throws Exception;
+
+    /**
+     * Receives lines of text content.
+     *
+     * @since 2.4
+     */
+    interface LineVisitor {
+        /**
+         * Visits one line.
+         *
+         * @param line the line, without line separator
+         * @return <tt>true</tt> to continue, <tt>false</tt> to stop visiting
+         * @throws Exception if occur error when handling the line
+         */
+        boolean visitLine(String line) throws Exception;
+    }
 }
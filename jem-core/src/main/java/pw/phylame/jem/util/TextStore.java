@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.util;
+
+import java.io.Reader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CharacterCodingException;
+
+import pw.phylame.jem.core.Jem;
+
+/**
+ * Compact storage for text content held in memory.
+ * <p>Text is encoded to bytes and appended to shared chunks of the store, the returned
+ * text objects keep slices of the chunks and decode the content on access.
+ * Text is encoded with UTF-8 by default.</p>
+ * <p>The store does not save heap for CJK text: CJK chars take three bytes in UTF-8 and
+ * two in GB18030, no less than <tt>String</tt>. ASCII chars take one byte instead of two,
+ * but JVMs with compact strings store Latin-1 text in one byte too. So the store is
+ * mainly useful for moving text out of the Java heap with direct buffers.</p>
+ * <p>Chunks are not released by the store, a chunk is collected after all text in it
+ * are unreachable, so one small reachable text keeps its whole chunk.</p>
+ * <p>Text objects are created by {@link TextFactory#forStored(CharSequence, String, TextStore)}.
+ * This class is thread-safe.</p>
+ *
+ * @since 2.4
+ */
+public class TextStore {
+    /**
+     * System property for using direct buffers in the default store.
+     */
+    public static final String DIRECT_KEY = "jem.text.store.direct";
+
+    /**
+     * System property for encoding of the default store, {@link #DEFAULT_ENCODING} if not set.
+     */
+    public static final String ENCODING_KEY = "jem.text.store.encoding";
+
+    /**
+     * Default size of chunks, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Default encoding of stored text.
+     */
+    public static final String DEFAULT_ENCODING = "UTF-8";
+
+    private static TextStore defaultStore;
+
+    /**
+     * Returns the store shared by all text objects in this JVM.
+     * <p>Encoding of the store is specified by system property {@link #ENCODING_KEY}.</p>
+     *
+     * @return the default store
+     */
+    public static synchronized TextStore getDefault() {
+        if (defaultStore == null) {
+            defaultStore = new TextStore(System.getProperty(ENCODING_KEY), DEFAULT_CHUNK_SIZE,
+                    Boolean.getBoolean(DIRECT_KEY));
+        }
+        return defaultStore;
+    }
+
+    private final Charset charset;
+
+    private final int chunkSize;
+
+    private final boolean direct;
+
+    // current chunk, position is end of stored bytes
+    private ByteBuffer chunk;
+
+    private long size = 0;
+
+    private int chunkCount = 0;
+
+    /**
+     * Constructs store with specified encoding.
+     *
+     * @param encoding  encoding of stored text, <tt>null</tt> to use {@link #DEFAULT_ENCODING}
+     * @param chunkSize size of chunks in bytes, text larger than 1/4 of chunk is stored separately
+     * @param direct    <tt>true</tt> to allocate chunks out of the Java heap
+     * @throws IllegalArgumentException if the <tt>chunkSize</tt> is not positive or
+     *                                  the <tt>encoding</tt> is unsupported
+     */
+    public TextStore(String encoding, int chunkSize, boolean direct) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize <= 0: " + chunkSize);
+        }
+        charset = Charset.forName(encoding != null ? encoding : DEFAULT_ENCODING);
+        this.chunkSize = chunkSize;
+        this.direct = direct;
+    }
+
+    /**
+     * Returns encoding of stored text.
+     *
+     * @return the encoding
+     */
+    public String getEncoding() {
+        return charset.name();
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Stores specified text.
+     * <p>If the text cannot be encoded with encoding of the store, it is held as string.</p>
+     *
+     * @param text the text
+     * @param type type of the text
+     * @return the text object
+     * @throws NullPointerException if the <tt>text</tt> or <tt>type</tt> is <tt>null</tt>
+     */
+    public TextObject store(CharSequence text, String type) {
+        if (text == null) {
+            throw new NullPointerException("text");
+        }
+        if (type == null) {
+            throw new NullPointerException("type");
+        }
+        ByteBuffer bytes = encode(text, charset);
+        return bytes != null ? new StoredText(append(bytes), charset, type) : TextFactory.forString(text, type);
+    }
+
+    // returns null if the text cannot be encoded
+    private ByteBuffer encode(CharSequence text, Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try {
+            return encoder.encode(CharBuffer.wrap(text));
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    private synchronized ByteBuffer append(ByteBuffer bytes) {
+        int length = bytes.remaining();
+        ByteBuffer target;
+        if (length > chunkSize >> 2) {
+            target = allocate(length);
+        } else {
+            if (chunk == null || chunk.remaining() < length) {
+                chunk = allocate(chunkSize);
+            }
+            target = chunk;
+        }
+        int start = target.position();
+        target.put(bytes);
+        size += length;
+        ByteBuffer slice = target.duplicate();
+        slice.position(start);
+        slice.limit(start + length);
+        return slice.slice();
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        ++chunkCount;
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Returns total number of stored bytes.
+     *
+     * @return the size
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Returns number of allocated chunks, including chunks of large text.
+     *
+     * @return number of chunks
+     */
+    public synchronized int getChunkCount() {
+        return chunkCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TextStore{encoding=" + getEncoding() + ", direct=" + direct + ", size=" + size
+                + ", chunks=" + chunkCount + "}";
+    }
+
+    private static class StoredText extends AbstractText {
+        static {
+            Jem.mapVariantType(StoredText.class, Jem.TEXT);
+        }
+
+        // slice of chunk, never changed after stored
+        private final ByteBuffer bytes;
+        private final Charset charset;
+
+        private StoredText(ByteBuffer bytes, Charset charset, String type) {
+            super(type);
+            this.bytes = bytes;
+            this.charset = charset;
+        }
+
+        @Override
+        public String getText() throws Exception {
+            if (bytes.hasArray()) {
+                return new String(bytes.array(), bytes.arrayOffset(), bytes.limit(), charset);
+            }
+            return charset.decode(bytes.duplicate()).toString();
+        }
+
+        @Override
+        public Reader openReader() throws Exception {
+            return new InputStreamReader(new ByteBufferInputStream(bytes), charset);
+        }
+
+        @Override
+        public int visitLines(LineVisitor visitor, boolean skipEmpty) throws Exception {
+            try (Reader reader = openReader()) {
+                return TextFactory.visitLines(reader, visitor, skipEmpty);
+            }
+        }
+    }
+}
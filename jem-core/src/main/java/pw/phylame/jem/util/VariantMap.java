@@ -21,12 +21,72 @@ package pw.phylame.jem.util;
 import java.util.Set;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.AbstractSet;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
 
+import pw.phylame.jem.core.Attributes;
+
+/**
+ * String-keyed map of variant values.
+ * <p>Most chapters have only a few attributes, so entries are stored in small
+ * parallel arrays and found by linear scan. When the number of entries exceeds
+ * {@link #ARRAY_LIMIT}, the entries are moved to a hash map.</p>
+ * <p>Keys equal to the names declared in {@link Attributes} are replaced
+ * by the constants, so keys from parsed books share the same strings.</p>
+ */
 public class VariantMap implements Cloneable {
-    private HashMap<String, Object> map;
+    /**
+     * Max number of entries stored in arrays.
+     *
+     * @since 2.4
+     */
+    public static final int ARRAY_LIMIT = 8;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private static final HashMap<String, String> names = new HashMap<>();
+
+    static {
+        for (String name : new String[]{Attributes.AUTHOR, Attributes.COVER, Attributes.DATE, Attributes.GENRE,
+                Attributes.INTRO, Attributes.LANGUAGE, Attributes.PUBLISHER, Attributes.RIGHTS, Attributes.STATE,
+                Attributes.SUBJECT, Attributes.TITLE, Attributes.VENDOR, Attributes.WORDS}) {
+            names.put(name, name);
+        }
+    }
+
+    /**
+     * Returns the shared instance of specified key if it is a known attribute name.
+     *
+     * @param key the key
+     * @return the shared key or <tt>key</tt> itself
+     * @since 2.4
+     */
+    public static String internKey(String key) {
+        String name = names.get(key);
+        return name != null ? name : key;
+    }
+
+    // array mode, keys and values are null before first put
+    private String[] keys;
+    private Object[] values;
+    private int size = 0;
+
+    // hash mode, not null after the number of entries exceeds ARRAY_LIMIT
+    private LinkedHashMap<String, Object> map;
 
     public VariantMap() {
-        map = new HashMap<>();
+    }
+
+    private int indexOf(String key) {
+        for (int ix = 0; ix < size; ++ix) {
+            String k = keys[ix];
+            if (k == key || k.equals(key)) {
+                return ix;
+            }
+        }
+        return -1;
     }
 
     public void put(String key, Object value) {
@@ -36,61 +96,141 @@ public class VariantMap implements Cloneable {
         if (value == null) {
             throw new NullPointerException("value");
         }
-        map.put(key, value);
+        key = internKey(key);
+        if (map != null) {
+            map.put(key, value);
+            return;
+        }
+        int index = indexOf(key);
+        if (index != -1) {
+            values[index] = value;
+            return;
+        }
+        if (size == ARRAY_LIMIT) {
+            map = new LinkedHashMap<>();
+            for (int ix = 0; ix < size; ++ix) {
+                map.put(keys[ix], values[ix]);
+            }
+            map.put(key, value);
+            keys = null;
+            values = null;
+            size = 0;
+            return;
+        }
+        if (keys == null) {
+            keys = new String[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+        } else if (size == keys.length) {
+            int capacity = Math.min(size << 1, ARRAY_LIMIT);
+            String[] newKeys = new String[capacity];
+            Object[] newValues = new Object[capacity];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            keys = newKeys;
+            values = newValues;
+        }
+        keys[size] = key;
+        values[size++] = value;
     }
 
     public void update(Map<String, Object> map) {
         if (map == null) {
             throw new NullPointerException();
         }
-        this.map.putAll(map);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
     }
 
     public void update(VariantMap rhs) {
         if (rhs == null) {
             throw new NullPointerException();
         }
-        map.putAll(rhs.map);
+        if (rhs.map != null) {
+            update(rhs.map);
+        } else {
+            for (int ix = 0; ix < rhs.size; ++ix) {
+                put(rhs.keys[ix], rhs.values[ix]);
+            }
+        }
     }
 
     public boolean contains(String key) {
-        return map.containsKey(key);
+        return map != null ? map.containsKey(key) : indexOf(key) != -1;
+    }
+
+    private Object getValue(String key) {
+        if (map != null) {
+            return map.get(key);
+        }
+        int index = indexOf(key);
+        return index != -1 ? values[index] : null;
     }
 
     @SuppressWarnings("unchecked")
     public <T> T get(String key, T def, Class<T> type) {
-        Object v = map.get(key);
+        Object v = getValue(key);
         return v != null && type.isInstance(v) ? (T) v : def;
     }
 
     public Object get(String key, Object def) {
-        Object v = map.get(key);
+        Object v = getValue(key);
         return v != null ? v : def;
     }
 
     public String get(String key, String def) {
-        Object v = map.get(key);
+        Object v = getValue(key);
         return (v != null) ? v.toString() : def;
     }
 
     public Object remove(String key) {
-        return map.remove(key);
+        if (map != null) {
+            return map.remove(key);
+        }
+        int index = indexOf(key);
+        if (index == -1) {
+            return null;
+        }
+        Object old = values[index];
+        removeAt(index);
+        return old;
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+        }
+        --size;
+        keys[size] = null;
+        values[size] = null;
     }
 
     public void clear() {
-        map.clear();
+        map = null;
+        keys = null;
+        values = null;
+        size = 0;
     }
 
     public int size() {
-        return map.size();
+        return map != null ? map.size() : size;
     }
 
     public String[] keys() {
-        return map.keySet().toArray(new String[map.size()]);
+        if (map != null) {
+            return map.keySet().toArray(new String[map.size()]);
+        }
+        String[] result = new String[size];
+        if (size > 0) {
+            System.arraycopy(keys, 0, result, 0, size);
+        }
+        return result;
     }
 
     public Set<Map.Entry<String, Object>> entries() {
-        return map.entrySet();
+        return map != null ? map.entrySet() : new EntrySet();
     }
 
     /**
@@ -108,12 +248,118 @@ public class VariantMap implements Cloneable {
         } catch (CloneNotSupportedException e) {
             throw new InternalError(e);
         }
-        obj.map = (HashMap<String, Object>) map.clone();
+        if (map != null) {
+            obj.map = (LinkedHashMap<String, Object>) map.clone();
+        } else if (keys != null) {
+            obj.keys = keys.clone();
+            obj.values = values.clone();
+        }
         return obj;
     }
 
     @Override
     public String toString() {
-        return map.toString();
+        if (map != null) {
+            return map.toString();
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (int ix = 0; ix < size; ++ix) {
+            if (ix != 0) {
+                sb.append(", ");
+            }
+            sb.append(keys[ix]).append('=').append(values[ix]);
+        }
+        return sb.append('}').toString();
+    }
+
+    private class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return VariantMap.this.size();
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+        private int next = 0;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new Entry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    private class Entry implements Map.Entry<String, Object> {
+        private final String key;
+        private Object value;
+
+        private Entry(int index) {
+            key = keys[index];
+            value = values[index];
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            if (value == null) {
+                throw new NullPointerException("value");
+            }
+            Object old = this.value;
+            put(key, value);
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && value.equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
     }
 }
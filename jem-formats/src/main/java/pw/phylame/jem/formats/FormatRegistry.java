@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.formats;
+
+import pw.phylame.jem.core.BookHelper;
+
+/**
+ * Static registry of formats in this module, loaded by {@link BookHelper} at startup.
+ * <p>Classes are registered by name, they are not loaded until first used.</p>
+ *
+ * @since 2.4
+ */
+public class FormatRegistry implements BookHelper.Registry {
+    @Override
+    public void register() {
+        parser("pmab", "pw.phylame.jem.formats.pmab.PmabParser");
+        parser("txt", "pw.phylame.jem.formats.txt.TxtParser");
+        parser("umd", "pw.phylame.jem.formats.umd.UmdParser");
+        parser("jar", "pw.phylame.jem.formats.jar.JarParser");
+        parser("ucnovel", "pw.phylame.jem.formats.ucnovel.UCNovelParser", "UCMobile_catalog");
+        parser("ebk2", "pw.phylame.jem.formats.ebk.Ebk2Parser");
+
+        maker("pmab", "pw.phylame.jem.formats.pmab.PmabMaker");
+        maker("txt", "pw.phylame.jem.formats.txt.TxtMaker");
+        maker("umd", "pw.phylame.jem.formats.umd.UmdMaker");
+        maker("jar", "pw.phylame.jem.formats.jar.JarMaker");
+        maker("epub", "pw.phylame.jem.formats.epub.EpubMaker");
+        maker("ebk2", "pw.phylame.jem.formats.ebk.Ebk2Maker");
+    }
+
+    // extensions are lower case, the name is used if no extension specified
+    private static void parser(String name, String path, String... extensions) {
+        BookHelper.registerParser(name, path);
+        mapExtensions(name, extensions);
+    }
+
+    private static void maker(String name, String path, String... extensions) {
+        BookHelper.registerMaker(name, path);
+        mapExtensions(name, extensions);
+    }
+
+    private static void mapExtensions(String name, String[] extensions) {
+        if (extensions.length == 0) {
+            BookHelper.mapExtensions(name, null);
+            return;
+        }
+        for (int ix = 0; ix < extensions.length; ++ix) {
+            extensions[ix] = extensions[ix].toLowerCase();
+        }
+        BookHelper.mapExtensions(name, extensions);
+    }
+}
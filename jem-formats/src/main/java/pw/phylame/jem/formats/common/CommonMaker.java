@@ -22,15 +22,18 @@ import java.io.*;
 import java.util.Map;
 
 import pw.phylame.jem.core.Book;
-import pw.phylame.jem.core.Maker;
+import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.StreamingMaker;
+import pw.phylame.jem.util.TextObject;
 import pw.phylame.jem.util.JemException;
+import pw.phylame.jem.util.Instrumentation;
 import pw.phylame.jem.formats.util.MakerException;
 import pw.phylame.jem.formats.util.config.CommonConfig;
 
 /**
  * Common Jem maker.
  */
-public abstract class CommonMaker<CF extends CommonConfig> extends BookWorker<CF> implements Maker {
+public abstract class CommonMaker<CF extends CommonConfig> extends BookWorker<CF> implements StreamingMaker {
     protected CommonMaker(String name, String configKey, Class<CF> configClass) {
         super(name, configKey, configClass);
     }
@@ -39,9 +42,202 @@ public abstract class CommonMaker<CF extends CommonConfig> extends BookWorker<CF
 
     @Override
     public final void make(Book book, File file, Map<String, Object> arguments) throws IOException, JemException {
+        Object token = Instrumentation.enter(getName());
+        long begin = Instrumentation.start();
+        try {
+            CF config = fetchConfig(arguments);
+            try (OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+                make(book, output, config);
+            }
+            if (Instrumentation.isEnabled()) {
+                Instrumentation.count(Instrumentation.Counter.BYTES_WRITTEN, file.length());
+                Instrumentation.count(Instrumentation.Counter.CHAPTERS_WRITTEN, book.descendantCount());
+            }
+        } finally {
+            Instrumentation.stop(Instrumentation.Stage.MAKE, begin);
+            Instrumentation.exit(token);
+        }
+    }
+
+    /**
+     * Returns sink writing book to specified output, the output is closed when the sink is closed.
+     * <p>The default implementation collects reported chapters and writes the book by
+     * {@link #make(Book, OutputStream, CommonConfig)} when the book ends.</p>
+     *
+     * @param output the output
+     * @param config the maker config
+     * @return the sink
+     * @throws IOException    if occurs I/O errors
+     * @throws MakerException if occurs errors when making book
+     * @since 2.4
+     */
+    protected Sink open(OutputStream output, CF config) throws IOException, MakerException {
+        return new CollectingSink(output, config);
+    }
+
+    @Override
+    public final Sink open(File file, Map<String, Object> arguments) throws IOException, JemException {
         CF config = fetchConfig(arguments);
-        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(file))) {
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            if (Instrumentation.isEnabled()) {
+                return new InstrumentedSink(file, output, config);
+            }
+            return open(output, config);
+        } catch (IOException | JemException | RuntimeException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    // reports events of the sink in format of this maker, time of all events is reported once when closed
+    private class InstrumentedSink implements Sink {
+        private final File file;
+        private final Sink sink;
+
+        // time spent by the sink before closed
+        private long nanos = 0L;
+
+        private InstrumentedSink(File file, OutputStream output, CF config) throws IOException, MakerException {
+            this.file = file;
+            Object token = Instrumentation.enter(getName());
+            long begin = System.nanoTime();
+            try {
+                sink = open(output, config);
+            } finally {
+                nanos += System.nanoTime() - begin;
+                Instrumentation.exit(token);
+            }
+        }
+
+        @Override
+        public void onAttributes(Book book) throws IOException, JemException {
+            Object token = Instrumentation.enter(getName());
+            long begin = System.nanoTime();
+            try {
+                sink.onAttributes(book);
+            } finally {
+                nanos += System.nanoTime() - begin;
+                Instrumentation.exit(token);
+            }
+        }
+
+        @Override
+        public void startChapter(Chapter chapter) throws IOException, JemException {
+            Object token = Instrumentation.enter(getName());
+            long begin = System.nanoTime();
+            try {
+                sink.startChapter(chapter);
+                Instrumentation.count(Instrumentation.Counter.CHAPTERS_WRITTEN, 1L);
+            } finally {
+                nanos += System.nanoTime() - begin;
+                Instrumentation.exit(token);
+            }
+        }
+
+        @Override
+        public void content(Chapter chapter, TextObject content) throws IOException, JemException {
+            Object token = Instrumentation.enter(getName());
+            long begin = System.nanoTime();
+            try {
+                sink.content(chapter, content);
+            } finally {
+                nanos += System.nanoTime() - begin;
+                Instrumentation.exit(token);
+            }
+        }
+
+        @Override
+        public void endChapter(Chapter chapter) throws IOException, JemException {
+            Object token = Instrumentation.enter(getName());
+            long begin = System.nanoTime();
+            try {
+                sink.endChapter(chapter);
+            } finally {
+                nanos += System.nanoTime() - begin;
+                Instrumentation.exit(token);
+            }
+        }
+
+        @Override
+        public void endBook(Book book) throws IOException, JemException {
+            Object token = Instrumentation.enter(getName());
+            long begin = System.nanoTime();
+            try {
+                sink.endBook(book);
+            } finally {
+                nanos += System.nanoTime() - begin;
+                Instrumentation.exit(token);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            Object token = Instrumentation.enter(getName());
+            long begin = Instrumentation.start();
+            try {
+                sink.close();
+                Instrumentation.count(Instrumentation.Counter.BYTES_WRITTEN, file.length());
+            } finally {
+                if (begin != 0L) {
+                    Instrumentation.stop(Instrumentation.Stage.MAKE, begin - nanos);
+                }
+                Instrumentation.exit(token);
+            }
+        }
+    }
+
+    private class CollectingSink implements Sink {
+        private final OutputStream output;
+        private final CF config;
+
+        private final Book book = new Book();
+        private Chapter current;
+
+        private CollectingSink(OutputStream output, CF config) {
+            this.output = output;
+            this.config = config;
+        }
+
+        @Override
+        public void onAttributes(Book source) {
+            book.updateAttributes(source);
+            for (Map.Entry<String, Object> entry : source.extensionEntries()) {
+                book.setExtension(entry.getKey(), entry.getValue());
+            }
+            TextObject content = source.getContent();
+            if (content != null) {
+                book.setContent(content);
+            }
+            current = book;
+        }
+
+        @Override
+        public void startChapter(Chapter chapter) {
+            Chapter copy = new Chapter();
+            copy.updateAttributes(chapter);
+            current.append(copy);
+            current = copy;
+        }
+
+        @Override
+        public void content(Chapter chapter, TextObject content) {
+            current.setContent(content);
+        }
+
+        @Override
+        public void endChapter(Chapter chapter) {
+            current = current.getParent();
+        }
+
+        @Override
+        public void endBook(Book source) throws IOException, MakerException {
             make(book, output, config);
         }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
     }
 }
@@ -24,9 +24,14 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 
+import pw.phylame.jem.core.Jem;
 import pw.phylame.jem.core.Book;
-import pw.phylame.jem.core.Parser;
+import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.BookVisitor;
+import pw.phylame.jem.core.VisitingParser;
+import pw.phylame.jem.util.TextObject;
 import pw.phylame.jem.util.JemException;
+import pw.phylame.jem.util.Instrumentation;
 import pw.phylame.jem.formats.util.SourceCleaner;
 import pw.phylame.jem.formats.util.ParserException;
 import pw.phylame.jem.formats.util.config.CommonConfig;
@@ -35,17 +40,26 @@ import pw.phylame.jem.formats.util.config.CommonConfig;
  * Common parser for e-book file.
  */
 public abstract class CommonParser<IN extends Closeable, CF extends CommonConfig>
-        extends BookWorker<CF> implements Parser {
-    /**
-     * The input file to parse.
-     * <p>This value will be accessible after {@link #validateFile(Closeable, CommonConfig)}
-     */
-    protected File source;
+        extends BookWorker<CF> implements VisitingParser {
+    // input file of parsing in current thread
+    private final ThreadLocal<File> source = new ThreadLocal<>();
 
     protected CommonParser(String name, String configKey, Class<CF> configClass) {
         super(name, configKey, configClass);
     }
 
+    /**
+     * Returns the input file being parsed in current thread.
+     * <p>This value will be accessible after {@link #validateFile(Closeable, CommonConfig)}
+     * and during {@link #parse(Closeable, CommonConfig)} or {@link #visit(Closeable, CommonConfig, BookVisitor)}.
+     *
+     * @return the file, or <tt>null</tt> if not parsing from file
+     * @since 2.4
+     */
+    protected File getSource() {
+        return source.get();
+    }
+
     // 2
     protected abstract IN openFile(File file, CF config) throws IOException, ParserException;
 
@@ -70,6 +84,22 @@ public abstract class CommonParser<IN extends Closeable, CF extends CommonConfig
 
     @Override
     public final Book parse(File file, Map<String, Object> arguments) throws IOException, JemException {
+        Object token = Instrumentation.enter(getName());
+        long begin = Instrumentation.start();
+        try {
+            Book book = parseFile(file, arguments);
+            if (Instrumentation.isEnabled()) {
+                Instrumentation.count(Instrumentation.Counter.BYTES_READ, file.length());
+                Instrumentation.count(Instrumentation.Counter.CHAPTERS_READ, book.descendantCount());
+            }
+            return book;
+        } finally {
+            Instrumentation.stop(Instrumentation.Stage.PARSE, begin);
+            Instrumentation.exit(token);
+        }
+    }
+
+    private Book parseFile(File file, Map<String, Object> arguments) throws IOException, JemException {
         if (!file.exists()) {
             throw new FileNotFoundException(file.getPath());
         }
@@ -81,8 +111,8 @@ public abstract class CommonParser<IN extends Closeable, CF extends CommonConfig
         }
         Book book;
         try {
-            validateFile(input, config);
-            source = file;
+            validate(input, config);
+            source.set(file);
             book = parse(input, config);
             if (book == null) {
                 throw new AssertionError("Implementation of \"Book parse(IN input, CF config)\"" +
@@ -91,8 +121,149 @@ public abstract class CommonParser<IN extends Closeable, CF extends CommonConfig
         } catch (IOException | JemException | RuntimeException | AssertionError ex) {
             input.close();
             throw ex;
+        } finally {
+            source.remove();
         }
         book.registerCleanup(new SourceCleaner(input));
         return book;
     }
+
+    /**
+     * Parses the input and reports contents to specified visitor.
+     * <p>The default implementation parses the whole book by {@link #parse(Closeable, CommonConfig)},
+     * walks it then cleans it up. Sub-classes may override this to report the contents
+     * while reading the input.</p>
+     * <p>The input is closed by caller after this method returns.</p>
+     *
+     * @param input   the input file
+     * @param config  the parser config
+     * @param visitor the visitor
+     * @throws IOException  if occurs I/O error
+     * @throws JemException if occurs errors when parsing or visiting
+     * @since 2.4
+     */
+    protected void visit(IN input, CF config, BookVisitor visitor) throws IOException, JemException {
+        Book book = parse(input, config);
+        try {
+            Jem.walkBook(book, visitor);
+        } finally {
+            book.cleanup();
+        }
+    }
+
+    @Override
+    public final void parse(File file, Map<String, Object> arguments, BookVisitor visitor)
+            throws IOException, JemException {
+        if (visitor == null) {
+            throw new NullPointerException("visitor");
+        }
+        if (!Instrumentation.isEnabled()) {
+            visitFile(file, arguments, visitor);
+            return;
+        }
+        Object token = Instrumentation.enter(getName());
+        long begin = Instrumentation.start();
+        CountingVisitor counter = new CountingVisitor(visitor);
+        try {
+            visitFile(file, arguments, counter);
+            Instrumentation.count(Instrumentation.Counter.BYTES_READ, file.length());
+            Instrumentation.count(Instrumentation.Counter.CHAPTERS_READ, counter.chapters);
+        } finally {
+            // time spent by the visitor is excluded
+            Instrumentation.stop(Instrumentation.Stage.PARSE, begin + counter.nanos);
+            Instrumentation.exit(token);
+        }
+    }
+
+    private void visitFile(File file, Map<String, Object> arguments, BookVisitor visitor)
+            throws IOException, JemException {
+        if (!file.exists()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        CF config = fetchConfig(arguments);
+        IN input = openFile(file, config);
+        if (input == null) {
+            throw new AssertionError("Implementation of \"IN openFile(File file, CF config)\" " +
+                    "must return valid input");
+        }
+        try {
+            validate(input, config);
+            source.set(file);
+            visit(input, config, visitor);
+        } finally {
+            source.remove();
+            input.close();
+        }
+    }
+
+    private void validate(IN input, CF config) throws IOException, ParserException {
+        long begin = Instrumentation.start();
+        try {
+            validateFile(input, config);
+        } finally {
+            Instrumentation.stop(Instrumentation.Stage.VALIDATE, begin);
+        }
+    }
+
+    // counts reported chapters and time spent by the visitor
+    private static class CountingVisitor implements BookVisitor {
+        private final BookVisitor visitor;
+
+        private long chapters = 0, nanos = 0;
+
+        private CountingVisitor(BookVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void onAttributes(Book book) throws IOException, JemException {
+            long begin = System.nanoTime();
+            try {
+                visitor.onAttributes(book);
+            } finally {
+                nanos += System.nanoTime() - begin;
+            }
+        }
+
+        @Override
+        public void startChapter(Chapter chapter) throws IOException, JemException {
+            ++chapters;
+            long begin = System.nanoTime();
+            try {
+                visitor.startChapter(chapter);
+            } finally {
+                nanos += System.nanoTime() - begin;
+            }
+        }
+
+        @Override
+        public void content(Chapter chapter, TextObject content) throws IOException, JemException {
+            long begin = System.nanoTime();
+            try {
+                visitor.content(chapter, content);
+            } finally {
+                nanos += System.nanoTime() - begin;
+            }
+        }
+
+        @Override
+        public void endChapter(Chapter chapter) throws IOException, JemException {
+            long begin = System.nanoTime();
+            try {
+                visitor.endChapter(chapter);
+            } finally {
+                nanos += System.nanoTime() - begin;
+            }
+        }
+
+        @Override
+        public void endBook(Book book) throws IOException, JemException {
+            long begin = System.nanoTime();
+            try {
+                visitor.endBook(book);
+            } finally {
+                nanos += System.nanoTime() - begin;
+            }
+        }
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.formats.common;
+
+import java.io.IOException;
+
+import pw.phylame.jem.core.Jem;
+import pw.phylame.jem.core.Book;
+import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.BookTask;
+import pw.phylame.jem.core.StreamingMaker;
+import pw.phylame.jem.util.TextObject;
+import pw.phylame.jem.util.JemException;
+import pw.phylame.jem.formats.util.MakerException;
+
+/**
+ * Base of sink writing chapter once its attributes and content are reported.
+ *
+ * @since 2.4
+ */
+public abstract class StreamingSink implements StreamingMaker.Sink {
+    // chapter reported by startChapter and not written
+    private Chapter pending;
+
+    private boolean hasChapters = false;
+
+    /**
+     * Writes specified book to this sink, the sink is not closed.
+     *
+     * @param book the book
+     * @throws IOException    if occurs I/O errors
+     * @throws MakerException if occurs errors when making book
+     */
+    public void write(Book book) throws IOException, MakerException {
+        try {
+            Jem.walkBook(book, this);
+        } catch (MakerException e) {
+            throw e;
+        } catch (JemException e) {
+            throw new MakerException(e);
+        }
+    }
+
+    /**
+     * Writes attributes and content of chapter, sub-chapters of it are written after this.
+     *
+     * @param chapter the chapter
+     * @param content content of the chapter, may be <tt>null</tt>
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when making book
+     */
+    protected abstract void writeChapter(Chapter chapter, TextObject content) throws IOException, JemException;
+
+    /**
+     * Invoked after the chapter and its sub-chapters are written.
+     *
+     * @param chapter the chapter
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when making book
+     */
+    protected abstract void finishChapter(Chapter chapter) throws IOException, JemException;
+
+    /**
+     * Tests whether any chapter is reported to this sink.
+     *
+     * @return <tt>true</tt> if chapters reported
+     */
+    protected boolean hasChapters() {
+        return hasChapters;
+    }
+
+    @Override
+    public final void startChapter(Chapter chapter) throws IOException, JemException {
+        flush(null);
+        pending = chapter;
+        hasChapters = true;
+    }
+
+    @Override
+    public final void content(Chapter chapter, TextObject content) throws IOException, JemException {
+        flush(content);
+    }
+
+    @Override
+    public final void endChapter(Chapter chapter) throws IOException, JemException {
+        flush(null);
+        finishChapter(chapter);
+        BookTask.advance(1);
+    }
+
+    private void flush(TextObject content) throws IOException, JemException {
+        if (pending != null) {
+            Chapter chapter = pending;
+            pending = null;
+            writeChapter(chapter, content);
+        }
+    }
+}
@@ -37,12 +37,25 @@ public abstract class ZipMaker<CF extends ZipMakeConfig> extends CommonMaker<CF>
 
     @Override
     public final void make(Book book, OutputStream output, CF config) throws IOException, MakerException {
-        try (ZipOutputStream zipout = new ZipOutputStream(output)) {
-            zipout.setMethod(config.zipMethod);
-            zipout.setLevel(config.zipLevel);
-            zipout.setComment(config.zipComment);
+        try (ZipOutputStream zipout = openZip(output, config)) {
             make(book, zipout, config);
             zipout.flush();
         }
     }
+
+    /**
+     * Creates ZIP output with specified config.
+     *
+     * @param output the underlying output
+     * @param config the maker config
+     * @return the ZIP output
+     * @since 2.4
+     */
+    protected ZipOutputStream openZip(OutputStream output, CF config) {
+        ZipOutputStream zipout = new ZipOutputStream(output);
+        zipout.setMethod(config.zipMethod);
+        zipout.setLevel(config.zipLevel);
+        zipout.setComment(config.zipComment);
+        return zipout;
+    }
 }
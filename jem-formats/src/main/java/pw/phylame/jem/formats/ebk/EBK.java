@@ -25,4 +25,7 @@ public class EBK {
     static final String TEXT_ENCODING = "UTF-16LE";
 
     static final int BLOCK_SIZE = 0x10000;
+
+    // size of EBK2 header
+    static final int HEADER_SIZE = 104;
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.formats.ebk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+
+import pw.phylame.jem.core.Book;
+import pw.phylame.jem.formats.common.CommonMaker;
+import pw.phylame.jem.formats.util.ZLibUtils;
+import pw.phylame.jem.formats.util.NumberUtils;
+import pw.phylame.jem.formats.util.MakerException;
+import pw.phylame.jem.formats.util.ExceptionFactory;
+import pw.phylame.jem.formats.util.ParallelDeflater;
+import pw.phylame.jem.formats.util.text.TextWriter;
+import pw.phylame.jem.formats.util.text.TextRender;
+
+import static pw.phylame.jem.formats.util.ByteUtils.littleRender;
+
+/**
+ * <tt>Maker</tt> implement for EBK2 book.
+ * <p>Text of chapters is split into blocks of 64 KB, which are compressed in parallel
+ * and kept in memory. After all text is rendered, the header, compressed indexes
+ * and blocks are written in order.</p>
+ *
+ * @since 2.4
+ */
+public class Ebk2Maker extends CommonMaker<EbkMakeConfig> {
+    public Ebk2Maker() {
+        super("ebk", EbkMakeConfig.CONFIG_SELF, EbkMakeConfig.class);
+    }
+
+    @Override
+    public void make(Book book, OutputStream output, EbkMakeConfig config) throws IOException, MakerException {
+        if (config == null) {
+            config = new EbkMakeConfig();
+        }
+        final InternalData data = new InternalData();
+        // blocks are independent, compressed in parallel and kept in order
+        try (ParallelDeflater deflater = new ParallelDeflater(config.compressThreads, Deflater.DEFAULT_COMPRESSION,
+                getName(), new ParallelDeflater.Consumer() {
+                    @Override
+                    public void consume(int index, byte[] bytes) {
+                        data.blocks.add(bytes);
+                    }
+                })) {
+            EbkRender render = new EbkRender(data, deflater);
+            try {
+                TextRender.renderBook(book, render, config.textConfig);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            render.flush();
+            deflater.finish();
+        }
+        if (data.chapters.size() > 0xFFFF) {
+            throw ExceptionFactory.makerException("ebk.make.tooManyChapters", data.chapters.size());
+        }
+        if (data.blocks.size() > 0xFFFF || data.textSize > 0xFFFFFFFFL) {
+            throw ExceptionFactory.makerException("ebk.make.tooLargeText", data.textSize);
+        }
+        byte[] indexes = ZLibUtils.compress(makeIndexes(data));
+        writeHeader(book, output, data, indexes.length);
+        output.write(indexes);
+        for (byte[] block : data.blocks) {
+            output.write(block);
+        }
+    }
+
+    private byte[] makeIndexes(InternalData data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.chapters.size() * (64 + 4 + 4)
+                + data.blocks.size() * (4 + 4));
+        for (ChapterRecord chapter : data.chapters) {
+            out.write(fixedString(chapter.title, 64));
+            out.write(littleRender.putUInt32(chapter.offset));
+            out.write(littleRender.putUInt32(chapter.length));
+        }
+        long offset = 0L;
+        for (byte[] block : data.blocks) {
+            out.write(littleRender.putUInt32(offset));
+            out.write(littleRender.putUInt32(block.length));
+            offset += block.length;
+        }
+        return out.toByteArray();
+    }
+
+    private void writeHeader(Book book, OutputStream output, InternalData data, int indexesSize)
+            throws IOException {
+        long fileSize = EBK.HEADER_SIZE + indexesSize;
+        for (byte[] block : data.blocks) {
+            fileSize += block.length;
+        }
+        long bookId;
+        Object id = book.getAttribute("book_id", null);
+        if (id instanceof Number) {
+            bookId = ((Number) id).longValue();
+        } else {
+            bookId = NumberUtils.randInteger(0, 1000) + 0x10000000;
+        }
+        output.write(littleRender.putUInt32(bookId));
+        output.write(littleRender.putUInt16(EBK.HEADER_SIZE));
+        output.write(littleRender.putUInt16(2));    // version
+        output.write(littleRender.putUInt32(fileSize));
+        output.write(fixedString(book.getTitle(), 64));
+        output.write(littleRender.putUInt32(fileSize));
+        output.write(littleRender.putUInt32(indexesSize));
+        output.write(littleRender.putUInt32(EBK.HEADER_SIZE + indexesSize));  // first block
+        output.write(littleRender.putUInt16(data.chapters.size()));
+        output.write(littleRender.putUInt16(data.blocks.size()));
+        output.write(littleRender.putUInt32(0));    // media count
+        output.write(littleRender.putUInt32(0));    // media size
+        output.write(littleRender.putUInt32(data.textSize));
+    }
+
+    // encoded string padded with zero, truncated if longer than the size
+    private byte[] fixedString(String str, int size) throws IOException {
+        byte[] b = str.getBytes(EBK.TEXT_ENCODING);
+        int n = b.length;
+        if (n > size) {
+            n = size;
+            // not split surrogate pair
+            if (Character.isHighSurrogate((char) ((b[n - 1] & 0xFF) << 8 | b[n - 2] & 0xFF))) {
+                n -= 2;
+            }
+        }
+        return Arrays.copyOf(Arrays.copyOf(b, n), size);
+    }
+
+    private class ChapterRecord {
+        private final String title;
+        private final long offset;
+        private long length;
+
+        private ChapterRecord(String title, long offset) {
+            this.title = title;
+            this.offset = offset;
+        }
+    }
+
+    private class InternalData {
+        private final ArrayList<ChapterRecord> chapters = new ArrayList<>();
+        private final ArrayList<byte[]> blocks = new ArrayList<>();
+
+        // size of encoded text
+        private long textSize = 0L;
+    }
+
+    /**
+     * Encodes rendered text and submits full blocks to the deflater.
+     */
+    private class EbkRender implements TextWriter {
+        private final InternalData data;
+        private final ParallelDeflater deflater;
+
+        private byte[] block = new byte[EBK.BLOCK_SIZE];
+        private int count = 0;
+
+        private EbkRender(InternalData data, ParallelDeflater deflater) {
+            this.data = data;
+            this.deflater = deflater;
+        }
+
+        @Override
+        public void startChapter(String title) {
+            data.chapters.add(new ChapterRecord(title, data.textSize));
+        }
+
+        @Override
+        public void writeText(String text) throws IOException {
+            byte[] b = text.getBytes(EBK.TEXT_ENCODING);
+            int off = 0;
+            while (off < b.length) {
+                int n = Math.min(b.length - off, block.length - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                if (count == block.length) {
+                    flush();
+                }
+            }
+            data.textSize += b.length;
+        }
+
+        @Override
+        public void endChapter() {
+            ChapterRecord chapter = data.chapters.get(data.chapters.size() - 1);
+            chapter.length = data.textSize - chapter.offset;
+        }
+
+        private void flush() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            // submitted block is not changed
+            deflater.submit(block, 0, count);
+            block = new byte[EBK.BLOCK_SIZE];
+            count = 0;
+        }
+    }
+}
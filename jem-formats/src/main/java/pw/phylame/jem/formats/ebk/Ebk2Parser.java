@@ -19,11 +19,18 @@
 package pw.phylame.jem.formats.ebk;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.ArrayList;
 
 import pw.phylame.jem.core.Book;
 import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.BookVisitor;
+import pw.phylame.jem.util.IOUtils;
+import pw.phylame.jem.util.JemException;
+import pw.phylame.jem.util.TextObject;
 import pw.phylame.jem.util.AbstractText;
+import pw.phylame.jem.util.TextFactory;
+import pw.phylame.jem.util.Instrumentation;
 import pw.phylame.jem.formats.common.NonConfig;
 import pw.phylame.jem.formats.common.BinaryParser;
 import pw.phylame.jem.formats.util.ZLibUtils;
@@ -31,8 +38,12 @@ import pw.phylame.jem.formats.util.ByteUtils;
 import pw.phylame.jem.formats.util.ParserException;
 import pw.phylame.jem.formats.util.ExceptionFactory;
 import pw.phylame.jem.formats.util.text.TextUtils;
+import pw.phylame.jem.formats.util.text.BlockTextReader;
 
 public class Ebk2Parser extends BinaryParser<NonConfig> {
+    // title, offset and length of chapter in indexes
+    private static final int CHAPTER_RECORD_SIZE = 64 + 4 + 4;
+
     public Ebk2Parser() {
         super("ebk", null, null);
     }
@@ -46,6 +57,47 @@ public class Ebk2Parser extends BinaryParser<NonConfig> {
         return data.book;
     }
 
+    /**
+     * Reports chapters while reading indexes, chapters are not added to the book.
+     * <p>Contents are read in one pass, text blocks are read and inflated in order,
+     * each one only once, and text of chapter is reported after its last block is inflated.
+     * Chapter stored before the current block is read from its blocks again.</p>
+     */
+    @Override
+    protected void visit(RandomAccessFile input, NonConfig config, BookVisitor visitor) throws IOException,
+            JemException {
+        InternalData data = new InternalData(input);
+        readHeader(data);
+        data.book.setExtension(EbkInfo.FILE_INFO, new EbkInfo(2));
+        visitor.onAttributes(data.book);
+        byte[] indexes = decompressIndexes(data);
+        // blocks are after chapters, they are required for reading content of chapters
+        ByteArrayInputStream stream = new ByteArrayInputStream(indexes);
+        long skipped = (long) data.chapterCount * CHAPTER_RECORD_SIZE;
+        if (stream.skip(skipped) != skipped) {
+            onReadingError();
+        }
+        readBlocks(data, stream);
+        stream = new ByteArrayInputStream(indexes);
+        SequentialReader reader = new SequentialReader(data);
+        for (int i = 0; i < data.chapterCount; ++i) {
+            String title = readString(stream, 64);
+            long offset = readUInt32(stream);
+            long length = readUInt32(stream);
+            TextObject content;
+            if (reader.isAhead(offset)) {
+                content = TextFactory.forString(reader.read(offset, length));
+            } else {
+                content = TextFactory.forCached(newText(data, offset, length));
+            }
+            Chapter chapter = new Chapter(title, content);
+            visitor.startChapter(chapter);
+            visitor.content(chapter, chapter.getContent());
+            visitor.endChapter(chapter);
+        }
+        visitor.endBook(data.book);
+    }
+
     private void readHeader(InternalData data) throws IOException, ParserException {
         RandomAccessFile file = data.file;
         Book book = data.book;
@@ -68,28 +120,36 @@ public class Ebk2Parser extends BinaryParser<NonConfig> {
         file.skipBytes(8);     // media size and txt size
     }
 
+    private byte[] decompressIndexes(InternalData data) throws IOException, ParserException {
+        return ZLibUtils.decompress(readBytes(data.file, (int) data.indexesSize));
+    }
+
     private void readIndexes(InternalData data) throws IOException, ParserException {
-        byte[] bytes = readBytes(data.file, (int) data.indexesSize);
-        ByteArrayInputStream stream = new ByteArrayInputStream(ZLibUtils.decompress(bytes));
+        ByteArrayInputStream stream = new ByteArrayInputStream(decompressIndexes(data));
         readChapters(data, stream);
         readBlocks(data, stream);
     }
 
     private void readChapters(InternalData data, InputStream stream) throws IOException, ParserException {
-        String title;
-        long offset, length;
-
         for (int i = 0; i < data.chapterCount; ++i) {
-            title = readString(stream, 64);
-            offset = readUInt32(stream);
-            length = readUInt32(stream);
-            EbkText content = new EbkText(data.file, data.blocks, offset, length);
-            content.headSize = data.headerSize;
-            content.indexSize = data.indexesSize;
-            data.book.append(new Chapter(title, content));
+            data.book.append(readChapter(data, stream));
         }
     }
 
+    private Chapter readChapter(InternalData data, InputStream stream) throws IOException, ParserException {
+        String title = readString(stream, 64);
+        long offset = readUInt32(stream);
+        long length = readUInt32(stream);
+        return new Chapter(title, TextFactory.forCached(newText(data, offset, length)));
+    }
+
+    private EbkText newText(InternalData data, long offset, long length) {
+        EbkText text = new EbkText(data.file, data.blocks, offset, length);
+        text.headSize = data.headerSize;
+        text.indexSize = data.indexesSize;
+        return text;
+    }
+
     private void readBlocks(InternalData data, InputStream stream) throws IOException, ParserException {
         long offset, length;
         for (int i = 0; i < data.blockCount; ++i) {
@@ -101,7 +161,7 @@ public class Ebk2Parser extends BinaryParser<NonConfig> {
 
     @Override
     protected void onReadingError() throws ParserException {
-        throw ExceptionFactory.parserException("ebk.parse.invalidFile", source);
+        throw ExceptionFactory.parserException("ebk.parse.invalidFile", getSource());
     }
 
     private byte[] readBytes(InputStream in, long size) throws IOException, ParserException {
@@ -152,6 +212,70 @@ public class Ebk2Parser extends BinaryParser<NonConfig> {
         }
     }
 
+    /**
+     * Reads text of chapters from text blocks in order.
+     * <p>The inflated block is kept in a reused buffer until the next block is required.</p>
+     */
+    private class SequentialReader {
+        private final InternalData data;
+
+        private final byte[] block = new byte[EBK.BLOCK_SIZE];
+        private byte[] packed = new byte[0];
+        private byte[] text = new byte[0];
+
+        // index of block in the buffer
+        private int index = -1;
+        // size of inflated block
+        private int count = 0;
+
+        private SequentialReader(InternalData data) {
+            this.data = data;
+        }
+
+        private boolean isAhead(long offset) {
+            return (offset >> 16) >= index;
+        }
+
+        private String read(long offset, long size) throws IOException {
+            if (text.length < size) {
+                text = new byte[(int) size];
+            }
+            int ix = (int) (offset >> 16);   // div 0x10000
+            int start = (int) (offset & 0xFFFF);  // mod 0x10000
+            int length = 0;
+            while (length < size && ix < data.blocks.size()) {
+                fill(ix++);
+                int n = (int) Math.min(count - start, size - length);
+                if (n <= 0) {
+                    break;
+                }
+                System.arraycopy(block, start, text, length, n);
+                length += n;
+                start = 0;
+            }
+            return new String(text, 0, length, EBK.TEXT_ENCODING);
+        }
+
+        private void fill(int ix) throws IOException {
+            if (ix == index) {
+                return;
+            }
+            long begin = Instrumentation.start();
+            try {
+                TextBlock tb = data.blocks.get(ix);
+                if (packed.length < tb.size) {
+                    packed = Arrays.copyOf(packed, (int) tb.size);
+                }
+                int n = IOUtils.read(data.file.getChannel(), data.headerSize + data.indexesSize + tb.offset,
+                        packed, 0, (int) tb.size);
+                count = ZLibUtils.decompress(packed, 0, n, block);
+                index = ix;
+            } finally {
+                Instrumentation.stop(Instrumentation.Stage.DECODE, begin);
+            }
+        }
+    }
+
     private class EbkText extends AbstractText {
         private final RandomAccessFile file;
         private final ArrayList<TextBlock> blocks;
@@ -169,21 +293,31 @@ public class Ebk2Parser extends BinaryParser<NonConfig> {
             this.size = size;
         }
 
+        private byte[] readBlock(TextBlock block) throws IOException {
+            Object token = Instrumentation.enter(getName());
+            long begin = Instrumentation.start();
+            try {
+                byte[] bytes = new byte[(int) block.size];
+                int n = IOUtils.read(file.getChannel(), headSize + indexSize + block.offset, bytes, 0, bytes.length);
+                return ZLibUtils.decompress(bytes, 0, n);
+            } finally {
+                Instrumentation.stop(Instrumentation.Stage.DECODE, begin);
+                Instrumentation.exit(token);
+            }
+        }
+
         private String rawText() throws IOException {
             int index = (int) (offset >> 16);   // div 0x10000
-            final int start = (int) (offset & 0x9999);  // mod 0x10000
+            final int start = (int) (offset & 0xFFFF);  // mod 0x10000
             int length = -start;
-            StringBuilder sb = new StringBuilder();
+            // decoded at once, surrogate pairs may be split by blocks
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) size + start);
             do {
-                TextBlock block = blocks.get(index++);
-                file.seek(headSize + indexSize + block.offset);
-                byte[] bytes = new byte[(int) block.size];
-                int n = file.read(bytes);
-                bytes = ZLibUtils.decompress(bytes, 0, n);
-                length += bytes.length;
-                sb.append(new String(bytes, EBK.TEXT_ENCODING));
+                byte[] block = readBlock(blocks.get(index++));
+                length += block.length;
+                bytes.write(block);
                 if (size <= length) {
-                    return sb.substring(start >> 1, (int) (start + size) >> 1);
+                    return new String(bytes.toByteArray(), start, (int) size, EBK.TEXT_ENCODING);
                 }
             } while (true);
         }
@@ -192,5 +326,45 @@ public class Ebk2Parser extends BinaryParser<NonConfig> {
         public String getText() throws IOException {
             return rawText();
         }
+
+        @Override
+        public Reader openReader() throws IOException {
+            final int start = (int) (offset & 0xFFFF);  // mod 0x10000
+            return new BlockTextReader(start >> 1, ((start + size) >> 1) - (start >> 1)) {
+                private int index = (int) (offset >> 16);   // div 0x10000
+
+                // high surrogate at end of last block, decoded with next block
+                private byte[] rest = null;
+
+                @Override
+                protected String nextBlock() throws IOException {
+                    if (index >= blocks.size()) {
+                        return null;
+                    }
+                    byte[] bytes = readBlock(blocks.get(index++));
+                    if (rest != null) {
+                        byte[] b = new byte[rest.length + bytes.length];
+                        System.arraycopy(rest, 0, b, 0, rest.length);
+                        System.arraycopy(bytes, 0, b, rest.length, bytes.length);
+                        bytes = b;
+                        rest = null;
+                    }
+                    int n = bytes.length;
+                    if (n >= 2 && Character.isHighSurrogate((char) ((bytes[n - 1] & 0xFF) << 8
+                            | bytes[n - 2] & 0xFF))) {
+                        rest = Arrays.copyOfRange(bytes, n - 2, n);
+                        n -= 2;
+                    }
+                    return new String(bytes, 0, n, EBK.TEXT_ENCODING);
+                }
+            };
+        }
+
+        @Override
+        public int visitLines(LineVisitor visitor, boolean skipEmpty) throws Exception {
+            try (Reader reader = openReader()) {
+                return TextFactory.visitLines(reader, visitor, skipEmpty);
+            }
+        }
     }
 }
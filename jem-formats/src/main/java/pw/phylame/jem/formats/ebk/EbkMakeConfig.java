@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.formats.ebk;
+
+import pw.phylame.jem.formats.util.text.TextConfig;
+import pw.phylame.jem.formats.util.config.ConfigKey;
+import pw.phylame.jem.formats.util.config.AbstractConfig;
+
+/**
+ * Config for making EBK book.
+ *
+ * @since 2.4
+ */
+public class EbkMakeConfig extends AbstractConfig {
+    public static final String CONFIG_SELF = "ebk.make.config";
+    public static final String TEXT_CONFIG = "ebk.make.textConfig";
+    public static final String COMPRESS_THREADS = "ebk.make.compressThreads";
+
+    /**
+     * Config for rendering book text.
+     *
+     * @see TextConfig
+     */
+    @ConfigKey(TEXT_CONFIG)
+    public TextConfig textConfig = new TextConfig();
+
+    /**
+     * Number of threads for compressing text blocks, <tt>0</tt> for number of processors,
+     * <tt>1</tt> to compress in current thread.
+     */
+    @ConfigKey(COMPRESS_THREADS)
+    public int compressThreads = 0;
+
+    @Override
+    public void adjust() {
+        textConfig.writeTitle = false;
+    }
+}
@@ -20,6 +20,7 @@ package pw.phylame.jem.formats.epub;
 
 import pw.phylame.jem.core.Book;
 import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.BookTask;
 import pw.phylame.jem.formats.epub.writer.EpubWriter;
 import pw.phylame.jem.formats.util.MakerException;
 import pw.phylame.jem.formats.util.MessageBundle;
@@ -220,6 +221,7 @@ public class ContentsRender {
             }
             links.add(link);
             ++count;
+            BookTask.advance(1);
         }
         return links;
     }
@@ -26,9 +26,11 @@ import java.util.zip.ZipOutputStream;
 
 import pw.phylame.jem.core.Jem;
 import pw.phylame.jem.core.Book;
+import pw.phylame.jem.core.Chapter;
 import pw.phylame.jem.util.IOUtils;
 import pw.phylame.jem.util.TextObject;
 import pw.phylame.jem.formats.common.ZipMaker;
+import pw.phylame.jem.formats.common.StreamingSink;
 import pw.phylame.jem.formats.util.ZipUtils;
 import pw.phylame.jem.formats.util.MakerException;
 import pw.phylame.jem.formats.util.ExceptionFactory;
@@ -49,27 +51,15 @@ public class JarMaker extends ZipMaker<JarMakeConfig> {
         if (config == null) {
             config = new JarMakeConfig();
         }
-        // JAR template
-        copyTemplate(zipout);
-
-        // MANIFEST
-        String title = book.getTitle();
-        String mf = String.format(JAR.MANIFEST_TEMPLATE, "Jem", Jem.VERSION, title, config.vendor, title);
-        ZipUtils.writeString(mf, JAR.MANIFEST_FILE, JAR.METADATA_ENCODING, zipout);
-
-        JarRender jarRender = new JarRender(zipout);
-        try {
-            TextRender.renderBook(book, jarRender, config.textConfig);
-        } catch (Exception e) {
-            throw new IOException(e);
-        }
+        new JarSink(zipout, config).write(book);
+    }
 
-        // navigation
-        try {
-            writeMeta(book, zipout, jarRender.items, config.textConfig);
-        } catch (Exception e) {
-            throw new MakerException(e);
+    @Override
+    protected Sink open(OutputStream output, JarMakeConfig config) throws IOException, MakerException {
+        if (config == null) {
+            config = new JarMakeConfig();
         }
+        return new JarSink(openZip(output, config), config);
     }
 
     private void copyTemplate(ZipOutputStream zipout) throws IOException {
@@ -124,6 +114,64 @@ public class JarMaker extends ZipMaker<JarMakeConfig> {
         zipout.closeEntry();
     }
 
+    private class JarSink extends StreamingSink {
+        private final ZipOutputStream zipout;
+        private final JarMakeConfig config;
+
+        private final JarRender jarRender;
+        private final TextRender.RenderHelper renderHelper;
+
+        private JarSink(ZipOutputStream zipout, JarMakeConfig config) {
+            this.zipout = zipout;
+            this.config = config;
+            jarRender = new JarRender(zipout);
+            renderHelper = new TextRender.RenderHelper(jarRender, config.textConfig);
+        }
+
+        @Override
+        public void onAttributes(Book book) throws IOException {
+            // JAR template
+            copyTemplate(zipout);
+
+            // MANIFEST
+            String title = book.getTitle();
+            String mf = String.format(JAR.MANIFEST_TEMPLATE, "Jem", Jem.VERSION, title, config.vendor, title);
+            ZipUtils.writeString(mf, JAR.MANIFEST_FILE, JAR.METADATA_ENCODING, zipout);
+        }
+
+        @Override
+        protected void writeChapter(Chapter chapter, TextObject content) throws IOException {
+            renderHelper.beginItem(chapter);
+            try {
+                renderHelper.writeText(chapter, content);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        protected void finishChapter(Chapter chapter) {
+            renderHelper.endItem();
+        }
+
+        @Override
+        public void endBook(Book book) throws MakerException {
+            // navigation
+            try {
+                writeMeta(book, zipout, jarRender.items, config.textConfig);
+            } catch (Exception e) {
+                throw new MakerException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            zipout.close();
+        }
+    }
+
     static class NavItem {
         final String name;
         final int size;
@@ -19,8 +19,10 @@
 package pw.phylame.jem.formats.pmab;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.util.Map;
+import java.util.LinkedList;
 import java.util.Date;
 import java.util.Locale;
 import java.util.zip.ZipOutputStream;
@@ -28,6 +30,7 @@ import java.util.zip.ZipOutputStream;
 import pw.phylame.jem.core.Jem;
 import pw.phylame.jem.core.Book;
 import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.BookTask;
 import pw.phylame.jem.util.FileObject;
 import pw.phylame.jem.util.IOUtils;
 import pw.phylame.jem.util.TextObject;
@@ -37,6 +40,7 @@ import pw.phylame.jem.formats.util.MakerException;
 import pw.phylame.jem.formats.util.ExceptionFactory;
 import pw.phylame.jem.formats.util.xml.XmlRender;
 import pw.phylame.jem.formats.common.ZipMaker;
+import pw.phylame.jem.formats.common.StreamingSink;
 
 import static pw.phylame.jem.formats.util.text.TextUtils.*;
 
@@ -44,10 +48,6 @@ import static pw.phylame.jem.formats.util.text.TextUtils.*;
  * PMAB e-book maker.
  */
 public class PmabMaker extends ZipMaker<PmabMakeConfig> {
-    private PmabMakeConfig mycfg;
-
-    private int version;
-
     public PmabMaker() {
         super("pmab", PmabMakeConfig.CONFIG_SELF, PmabMakeConfig.class);
     }
@@ -55,63 +55,84 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
     @Override
     public void make(Book book, ZipOutputStream zipout, PmabMakeConfig config) throws IOException,
             MakerException {
-        mycfg = config;
-        if (mycfg == null) {
-            mycfg = new PmabMakeConfig();
+        InternalData data = newData(config);
+        if (data.version == 3) {
+            new PmabSink(data, zipout).write(book);
+            return;
+        }
+        XmlRender xmlRender = new XmlRender(data.mycfg.xmlConfig);
+        writePBM(data, book, zipout, xmlRender);
+        writePBC(data, book, zipout, xmlRender);
+        writeMIME(zipout);
+    }
+
+    /**
+     * Returns sink writing chapters of PMAB 3 while they are reported, text of chapters
+     * is written to the archive immediately, only the PBC is kept until the book ends.
+     * <p>PBC 2 requires number of sub-chapters and depth of the tree first, so the
+     * book is collected before being written.</p>
+     */
+    @Override
+    protected Sink open(OutputStream output, PmabMakeConfig config) throws IOException, MakerException {
+        InternalData data = newData(config);
+        if (data.version != 3) {
+            return super.open(output, config);
         }
-        if (isValid(mycfg.version)) {
-            char ch = mycfg.version.charAt(0);
+        return new PmabSink(data, openZip(output, config));
+    }
+
+    private InternalData newData(PmabMakeConfig config) throws MakerException {
+        if (config == null) {
+            config = new PmabMakeConfig();
+        }
+        InternalData data = new InternalData(config);
+        if (isValid(data.mycfg.version)) {
+            char ch = data.mycfg.version.charAt(0);
             if (ch == '3') {
-                version = 3;
+                data.version = 3;
             } else if (ch == '2') {
-                version = 2;
+                data.version = 2;
             } else {
-                throw ExceptionFactory.makerException("pmab.make.unsupportedVersion", mycfg.version);
+                throw ExceptionFactory.makerException("pmab.make.unsupportedVersion", data.mycfg.version);
             }
         }
-        XmlRender xmlRender = new XmlRender(mycfg.xmlConfig);
-        writePBM(book, zipout, xmlRender);
-        writePBC(book, zipout, xmlRender);
-        writeMIME(zipout);
+        return data;
     }
 
     private void writeMIME(ZipOutputStream zipout) throws IOException {
         ZipUtils.writeString(PMAB.MT_PMAB, PMAB.MIME_FILE, "ASCII", zipout);
     }
 
-    private void writePBM(Book book, ZipOutputStream zipout, XmlRender xmlRender) throws IOException,
-            MakerException {
-        StringWriter writer = prepareXml(xmlRender, "pbm", mycfg.version,
+    private void writePBM(InternalData data, Book book, ZipOutputStream zipout, XmlRender xmlRender)
+            throws IOException, MakerException {
+        StringWriter writer = prepareXml(xmlRender, "pbm", data.mycfg.version,
                 PMAB.PBM_XML_NS);
-        switch (version) {
+        switch (data.version) {
             case 3:
-                writePBMHead("value", true, xmlRender);
-                writePBMv3(book, zipout, xmlRender);
+                writePBMHead(data, "value", true, xmlRender);
+                writePBMv3(data, book, zipout, xmlRender);
                 break;
             case 2:
-                writePBMHead("content", false, xmlRender);
-                writePBMv2(book, zipout, xmlRender);
+                writePBMHead(data, "content", false, xmlRender);
+                writePBMv2(data, book, zipout, xmlRender);
                 break;
         }
-        writeXml(xmlRender, writer, PMAB.PBM_FILE, zipout);
+        writeXml(data, xmlRender, writer, PMAB.PBM_FILE, zipout);
     }
 
-    private void writePBC(Book book, ZipOutputStream zipout, XmlRender xmlRender) throws IOException {
-        StringWriter writer = prepareXml(xmlRender, "pbc", mycfg.version,
+    private void writePBC(InternalData data, Book book, ZipOutputStream zipout, XmlRender xmlRender)
+            throws IOException {
+        StringWriter writer = prepareXml(xmlRender, "pbc", data.mycfg.version,
                 PMAB.PBC_XML_NS);
-        switch (version) {
-            case 3:
-                writePBCv3(book, zipout, xmlRender);
-                break;
-            case 2:
-                writePBCv2(book, zipout, xmlRender);
-                break;
+        if (data.version == 2) {    // PBC 3 is written by PmabSink
+            writePBCv2(data, book, zipout, xmlRender);
         }
-        writeXml(xmlRender, writer, PMAB.PBC_FILE, zipout);
+        writeXml(data, xmlRender, writer, PMAB.PBC_FILE, zipout);
     }
 
-    private void writePBMHead(String valueName, boolean ignoreEmpty, XmlRender xmlRender) throws IOException {
-        Map<Object, Object> metaInfo = mycfg.metaInfo;
+    private void writePBMHead(InternalData data, String valueName, boolean ignoreEmpty, XmlRender xmlRender)
+            throws IOException {
+        Map<Object, Object> metaInfo = data.mycfg.metaInfo;
         if (metaInfo == null || metaInfo.isEmpty()) {
             if (!ignoreEmpty) {
                 xmlRender.startTag("head").endTag();
@@ -126,29 +147,30 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
         xmlRender.endTag();
     }
 
-    private void writePBMv3(Book book, ZipOutputStream zipout, XmlRender xmlRender) throws IOException {
-        writeV3Attributes(book, "", zipout, xmlRender);
+    private void writePBMv3(InternalData data, Book book, ZipOutputStream zipout, XmlRender xmlRender)
+            throws IOException {
+        writeV3Attributes(data, book, "", zipout, xmlRender);
         xmlRender.startTag("extensions");
         for (Map.Entry<String, Object> entry : book.extensionEntries()) {
             String key = entry.getKey();
             if (key.equals(FileInfo.FILE_INFO)) {
                 continue;
             }
-            writeV3Item(key, entry.getValue(), "", zipout, xmlRender);
+            writeV3Item(data, key, entry.getValue(), "", zipout, xmlRender);
         }
         xmlRender.endTag();
     }
 
-    private void writeV3Attributes(Chapter chapter, String prefix, ZipOutputStream zipout,
+    private void writeV3Attributes(InternalData data, Chapter chapter, String prefix, ZipOutputStream zipout,
                                    XmlRender xmlRender) throws IOException {
         xmlRender.startTag("attributes");
         for (Map.Entry<String, Object> entry : chapter.attributeEntries()) {
-            writeV3Item(entry.getKey(), entry.getValue(), prefix, zipout, xmlRender);
+            writeV3Item(data, entry.getKey(), entry.getValue(), prefix, zipout, xmlRender);
         }
         xmlRender.endTag();
     }
 
-    private void writeV3Item(String key, Object value, String prefix, ZipOutputStream zipout,
+    private void writeV3Item(InternalData data, String key, Object value, String prefix, ZipOutputStream zipout,
                              XmlRender xmlRender) throws IOException {
         xmlRender.startTag("item").attribute("name", key);
         String text;
@@ -158,20 +180,20 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
                 case Jem.TEXT:
                     String dir;
                     if (key.equals(Chapter.INTRO)) {    // only intro stored to text dir
-                        dir = mycfg.textDir;
+                        dir = data.mycfg.textDir;
                     } else {
-                        dir = mycfg.extraDir;
+                        dir = data.mycfg.extraDir;
                     }
-                    text = writeV3Text((TextObject) value, dir, prefix + key, zipout, xmlRender);
+                    text = writeV3Text(data, (TextObject) value, dir, prefix + key, zipout, xmlRender);
                     type = null;
                     break;
                 case Jem.FILE:
-                    text = writeFile((FileObject) value, prefix + key, "type", zipout, xmlRender);
+                    text = writeFile(data, (FileObject) value, prefix + key, "type", zipout, xmlRender);
                     type = null;
                     break;
                 case Jem.DATETIME:
-                    text = formatDate((Date) value, mycfg.dateFormat);
-                    type = type + ";format=" + mycfg.dateFormat;
+                    text = formatDate((Date) value, data.mycfg.dateFormat);
+                    type = type + ";format=" + data.mycfg.dateFormat;
                     break;
                 case Jem.LOCALE:
                     text = formatLocale((Locale) value);
@@ -189,19 +211,19 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
         xmlRender.text(text).endTag();
     }
 
-    private String writeV3Text(TextObject text, String dir, String baseName, ZipOutputStream zipout,
+    private String writeV3Text(InternalData data, TextObject text, String dir, String baseName, ZipOutputStream zipout,
                                XmlRender xmlRender) throws IOException {
-        String[] objects = writeText(text, dir, baseName, zipout);
+        String[] objects = writeText(data, text, dir, baseName, zipout);
         xmlRender.attribute("type", "text/" + text.getType() + ";encoding=" + objects[1]);
         return objects[0];
     }
 
-    private void writePBMv2(Book book, ZipOutputStream zipout, XmlRender xmlRender) throws IOException,
-            MakerException {
+    private void writePBMv2(InternalData data, Book book, ZipOutputStream zipout, XmlRender xmlRender)
+            throws IOException, MakerException {
         xmlRender.startTag("metadata");
         xmlRender.attribute("count", Integer.toString(book.attributeCount()));
         for (Map.Entry<String, Object> entry : book.attributeEntries()) {
-            writePBMv2Attr(entry.getKey(), entry.getValue(), zipout, xmlRender);
+            writePBMv2Attr(data, entry.getKey(), entry.getValue(), zipout, xmlRender);
         }
         xmlRender.endTag();
 
@@ -217,22 +239,22 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
             if (key.equals(FileInfo.FILE_INFO)) {
                 continue;
             }
-            writePBMv2Item(xmlRender, key, entry.getValue(), zipout);
+            writePBMv2Item(data, xmlRender, key, entry.getValue(), zipout);
         }
         xmlRender.endTag();
     }
 
-    private void writePBMv2Attr(String key, Object value, ZipOutputStream zipout, XmlRender xmlRender)
-            throws IOException, MakerException {
+    private void writePBMv2Attr(InternalData data, String key, Object value, ZipOutputStream zipout,
+                                XmlRender xmlRender) throws IOException, MakerException {
         xmlRender.startTag("attr").attribute("name", key);
         String text;
         String type = Jem.typeOfVariant(value);
         if (type.equals(Jem.TEXT)) {
             text = fetchText((TextObject) value, "");
         } else if (key.equals(Chapter.COVER)) {
-            text = writeV2Cover((FileObject) value, "", zipout, xmlRender);
+            text = writeV2Cover(data, (FileObject) value, "", zipout, xmlRender);
         } else if (type.equals(Jem.DATETIME)) {
-            text = formatDate((Date) value, mycfg.dateFormat);
+            text = formatDate((Date) value, data.mycfg.dateFormat);
         } else if (type.equals(Jem.LOCALE)) {
             text = formatLocale((Locale) value);
         } else {
@@ -241,26 +263,26 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
         xmlRender.text(text).endTag();
     }
 
-    private String writeV2Cover(FileObject cover, String prefix, ZipOutputStream zipout,
+    private String writeV2Cover(InternalData data, FileObject cover, String prefix, ZipOutputStream zipout,
                                 XmlRender xmlRender) throws IOException {
         String name = prefix + "cover." + IOUtils.getExtension(cover.getName());
-        return writeFile(cover, mycfg.imageDir, name, "media-type", zipout, xmlRender);
+        return writeFile(data, cover, data.mycfg.imageDir, name, "media-type", zipout, xmlRender);
     }
 
-    private void writePBMv2Item(XmlRender xmlRender, String key, Object value, ZipOutputStream zipout)
-            throws IOException {
+    private void writePBMv2Item(InternalData data, XmlRender xmlRender, String key, Object value,
+                                ZipOutputStream zipout) throws IOException {
         xmlRender.startTag("item").attribute("name", key);
         String text = null;
         if (value instanceof FileObject) {
             xmlRender.attribute("type", "file");
             xmlRender.startTag("object");
-            String href = writeFile((FileObject) value, key, "media-type", zipout, xmlRender);
+            String href = writeFile(data, (FileObject) value, key, "media-type", zipout, xmlRender);
             xmlRender.attribute("href", href).endTag();
         } else if (value instanceof TextObject) {
             xmlRender.attribute("type", "file");
             xmlRender.startTag("object");
             TextObject tb = (TextObject) value;
-            String href = writeV2Text(tb, mycfg.extraDir, key, zipout, xmlRender);
+            String href = writeV2Text(data, tb, data.mycfg.extraDir, key, zipout, xmlRender);
             xmlRender.attribute("media-type", "text/" + tb.getType());
             xmlRender.attribute("href", href).endTag();
         } else if (value instanceof Number) {
@@ -276,66 +298,33 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
         xmlRender.endTag();
     }
 
-    private String writeV2Text(TextObject text, String dir, String baseName, ZipOutputStream zipout,
+    private String writeV2Text(InternalData data, TextObject text, String dir, String baseName, ZipOutputStream zipout,
                                XmlRender xmlRender) throws IOException {
-        String[] objects = writeText(text, dir, baseName, zipout);
+        String[] objects = writeText(data, text, dir, baseName, zipout);
         xmlRender.attribute("encoding", objects[1]);
         return objects[0];
     }
 
-    private void writePBCv3(Book book, ZipOutputStream zipout, XmlRender xmlRender) throws IOException {
-        xmlRender.startTag("toc");
-        int count = 1;
-        for (Chapter chapter : book) {
-            writeV3Chapter(chapter, Integer.toString(count), zipout, xmlRender);
-            ++count;
-        }
-        xmlRender.endTag();
-    }
-
-    private void writeV3Chapter(Chapter chapter, String suffix, ZipOutputStream zipout, XmlRender xmlRender)
+    private void writePBCv2(InternalData data, Book book, ZipOutputStream zipout, XmlRender xmlRender)
             throws IOException {
-        xmlRender.startTag("chapter");
-        String base = "chapter-" + suffix;
-
-        // attributes
-        writeV3Attributes(chapter, base + "-", zipout, xmlRender);
-
-        // content
-        TextObject content = chapter.getContent();
-        if (content != null) {
-            xmlRender.startTag("content");
-            String href = writeV3Text(content, mycfg.textDir, base, zipout, xmlRender);
-            xmlRender.text(href).endTag();
-        }
-
-        int count = 1;
-        for (Chapter sub : chapter) {
-            writeV3Chapter(sub, suffix + "-" + count, zipout, xmlRender);
-            ++count;
-        }
-        xmlRender.endTag();
-    }
-
-    private void writePBCv2(Book book, ZipOutputStream zipout, XmlRender xmlRender) throws IOException {
         xmlRender.startTag("contents");
         xmlRender.attribute("depth", Integer.toString(Jem.depthOf(book)));
         int count = 1;
         for (Chapter chapter : book) {
-            writeV2Chapter(chapter, Integer.toString(count), zipout, xmlRender);
+            writeV2Chapter(data, chapter, Integer.toString(count), zipout, xmlRender);
             ++count;
         }
         xmlRender.endTag();
     }
 
-    private void writeV2Chapter(Chapter chapter, String suffix, ZipOutputStream zipout, XmlRender xmlRender)
-            throws IOException {
+    private void writeV2Chapter(InternalData data, Chapter chapter, String suffix, ZipOutputStream zipout,
+                                XmlRender xmlRender) throws IOException {
         xmlRender.startTag("chapter");
         String base = "chapter-" + suffix;
 
         // content
         TextObject content = chapter.getContent();
-        String href = writeV2Text(content, mycfg.textDir, base, zipout, xmlRender);
+        String href = writeV2Text(data, content, data.mycfg.textDir, base, zipout, xmlRender);
         xmlRender.attribute("href", href);
 
         // size of sub chapters
@@ -351,29 +340,30 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
         FileObject cover = chapter.getCover();
         if (cover != null) {
             xmlRender.startTag("cover");
-            href = writeV2Cover(cover, base + "-", zipout, xmlRender);
+            href = writeV2Cover(data, cover, base + "-", zipout, xmlRender);
             xmlRender.attribute("href", href).endTag();
         }
         // intro
         TextObject intro = chapter.getIntro();
         if (intro != null) {
             xmlRender.startTag("intro");
-            href = writeV2Text(intro, mycfg.textDir, base + "-intro", zipout, xmlRender);
+            href = writeV2Text(data, intro, data.mycfg.textDir, base + "-intro", zipout, xmlRender);
             xmlRender.attribute("href", href).endTag();
         }
 
         int count = 1;
         for (Chapter sub : chapter) {
-            writeV2Chapter(sub, suffix + "-" + count, zipout, xmlRender);
+            writeV2Chapter(data, sub, suffix + "-" + count, zipout, xmlRender);
             ++count;
         }
         xmlRender.endTag();
+        BookTask.advance(1);
     }
 
     // return href and encoding
-    private String[] writeText(TextObject text, String dir, String baseName, ZipOutputStream zipout)
+    private String[] writeText(InternalData data, TextObject text, String dir, String baseName, ZipOutputStream zipout)
             throws IOException {
-        String encoding = mycfg.textEncoding != null ? mycfg.textEncoding : PMAB.defaultEncoding;
+        String encoding = data.mycfg.textEncoding != null ? data.mycfg.textEncoding : PMAB.defaultEncoding;
         String href;
         String type = text.getType();
         if (type.equals(TextObject.PLAIN)) {
@@ -386,20 +376,20 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
         return new String[]{href, encoding};
     }
 
-    private String writeFile(FileObject file, String baseName, String mimeKey, ZipOutputStream zipout,
-                             XmlRender xmlRender) throws IOException {
+    private String writeFile(InternalData data, FileObject file, String baseName, String mimeKey,
+                             ZipOutputStream zipout, XmlRender xmlRender) throws IOException {
         String name = baseName + "." + IOUtils.getExtension(file.getName());
         String dir;
         if (file.getMime().startsWith("image/")) {  // image file stored to image dir
-            dir = mycfg.imageDir;
+            dir = data.mycfg.imageDir;
         } else {
-            dir = mycfg.extraDir;
+            dir = data.mycfg.extraDir;
         }
-        return writeFile(file, dir, name, mimeKey, zipout, xmlRender);
+        return writeFile(data, file, dir, name, mimeKey, zipout, xmlRender);
     }
 
-    private String writeFile(FileObject file, String dir, String name, String mimeKey, ZipOutputStream zipout,
-                             XmlRender xmlRender) throws IOException {
+    private String writeFile(InternalData data, FileObject file, String dir, String name, String mimeKey,
+                             ZipOutputStream zipout, XmlRender xmlRender) throws IOException {
         String href = dir + "/" + name;
         ZipUtils.writeFile(file, href, zipout);
         xmlRender.attribute(mimeKey, file.getMime());
@@ -417,10 +407,87 @@ public class PmabMaker extends ZipMaker<PmabMakeConfig> {
         return writer;
     }
 
-    private void writeXml(XmlRender xmlRender, StringWriter writer, String name, ZipOutputStream zipout)
-            throws IOException {
+    private void writeXml(InternalData data, XmlRender xmlRender, StringWriter writer, String name,
+                          ZipOutputStream zipout) throws IOException {
         xmlRender.endTag();
         xmlRender.endXml();
-        ZipUtils.writeString(writer.toString(), name, mycfg.xmlConfig.encoding, zipout);
+        ZipUtils.writeString(writer.toString(), name, data.mycfg.xmlConfig.encoding, zipout);
+    }
+
+    private class PmabSink extends StreamingSink {
+        private final InternalData data;
+        private final ZipOutputStream zipout;
+        private final XmlRender xmlRender;
+
+        private StringWriter pbcWriter;
+
+        // suffix of chapters being written and number of their written sub-chapters
+        private final LinkedList<String> suffixes = new LinkedList<>();
+        private final LinkedList<Integer> counts = new LinkedList<>();
+
+        private PmabSink(InternalData data, ZipOutputStream zipout) throws MakerException {
+            this.data = data;
+            this.zipout = zipout;
+            xmlRender = new XmlRender(data.mycfg.xmlConfig);
+            counts.addLast(0);
+        }
+
+        @Override
+        public void onAttributes(Book book) throws IOException, MakerException {
+            writePBM(data, book, zipout, xmlRender);
+            pbcWriter = prepareXml(xmlRender, "pbc", data.mycfg.version, PMAB.PBC_XML_NS);
+            xmlRender.startTag("toc");
+        }
+
+        @Override
+        protected void writeChapter(Chapter chapter, TextObject content) throws IOException {
+            int count = counts.removeLast() + 1;
+            counts.addLast(count);
+            String suffix = suffixes.isEmpty() ? Integer.toString(count) : suffixes.getLast() + "-" + count;
+            suffixes.addLast(suffix);
+            counts.addLast(0);
+
+            xmlRender.startTag("chapter");
+            String base = "chapter-" + suffix;
+
+            // attributes
+            writeV3Attributes(data, chapter, base + "-", zipout, xmlRender);
+
+            // content
+            if (content != null) {
+                xmlRender.startTag("content");
+                String href = writeV3Text(data, content, data.mycfg.textDir, base, zipout, xmlRender);
+                xmlRender.text(href).endTag();
+            }
+        }
+
+        @Override
+        protected void finishChapter(Chapter chapter) throws IOException {
+            xmlRender.endTag();
+            suffixes.removeLast();
+            counts.removeLast();
+        }
+
+        @Override
+        public void endBook(Book book) throws IOException {
+            xmlRender.endTag();
+            writeXml(data, xmlRender, pbcWriter, PMAB.PBC_FILE, zipout);
+            writeMIME(zipout);
+        }
+
+        @Override
+        public void close() throws IOException {
+            zipout.close();
+        }
+    }
+
+    private class InternalData {
+        private final PmabMakeConfig mycfg;
+
+        private int version;
+
+        private InternalData(PmabMakeConfig config) {
+            mycfg = config;
+        }
     }
 }
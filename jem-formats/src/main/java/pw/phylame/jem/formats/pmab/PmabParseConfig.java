@@ -29,6 +29,7 @@ public class PmabParseConfig extends ZipParseConfig {
     public static final String TEXT_ENCODING = "pmab.parse.textEncoding";
     public static final String USE_CHAPTER_ENCODING = "pmab.parse.useChapterEncoding";
     public static final String DATE_FORMAT = "pmab.parse.dateFormat";
+    public static final String STORE_TEXT = "pmab.parse.storeText";
 
     /**
      * default encoding for chapter and intro text
@@ -47,4 +48,15 @@ public class PmabParseConfig extends ZipParseConfig {
      **/
     @ConfigKey(DATE_FORMAT)
     public String dateFormat = "yyyy-M-d H:m:S";
+
+    /**
+     * keep text embedded in PMAB (intro and content) encoded in the default text store,
+     * which moves the text out of the Java heap with direct buffers, it does not save
+     * heap for CJK text
+     *
+     * @see pw.phylame.jem.util.TextStore
+     * @since 2.4
+     */
+    @ConfigKey(STORE_TEXT)
+    public boolean storeText = false;
 }
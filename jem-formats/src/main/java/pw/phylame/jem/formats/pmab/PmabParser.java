@@ -28,6 +28,8 @@ import org.xmlpull.v1.XmlPullParserException;
 import pw.phylame.jem.core.Jem;
 import pw.phylame.jem.core.Book;
 import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.BookVisitor;
+import pw.phylame.jem.util.JemException;
 import pw.phylame.jem.util.FileFactory;
 import pw.phylame.jem.util.FileObject;
 import pw.phylame.jem.util.TextFactory;
@@ -45,23 +47,6 @@ import static pw.phylame.jem.formats.util.text.TextUtils.*;
  * PMAB e-book parser.
  */
 public class PmabParser extends ZipParser<PmabParseConfig> {
-    private PmabParseConfig mycfg;
-    // temporary book
-    private Book book;
-    // PBM 3 data
-    private String itemName, itemType;      // item attribute
-    private boolean inAttributes = false;   // item is contained in <attributes>
-    // PMAB 2 counter
-    private int count, order;
-    // PBM 2 data
-    private String attrName, mediaType;
-    // pbc data
-    private Chapter currentChapter;
-    // used for encoding of intro in chapter
-    private String chapterEncoding;
-
-    private HashMap<String, Object> metaInfo;
-
     public PmabParser() {
         super("pmab", PmabParseConfig.CONFIG_SELF, PmabParseConfig.class);
     }
@@ -76,16 +61,40 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
 
     @Override
     public Book parse(ZipFile input, PmabParseConfig config) throws IOException, ParserException {
-        mycfg = config;
-        if (mycfg == null) {
-            mycfg = new PmabParseConfig();
+        if (config == null) {
+            config = new PmabParseConfig();
+        }
+        InternalData data = new InternalData(config, null);
+        XmlPullParser xpp = newPullParser();
+        int version = readPBM(data, input, xpp);
+        try {
+            readPBC(data, input, xpp);
+        } catch (ParserException e) {
+            throw e;
+        } catch (JemException e) { // only thrown by visitor
+            throw new AssertionError(e);
+        }
+        data.book.setExtension(PmabInfo.FILE_INFO, new PmabInfo(version, data.metaInfo));
+        return data.book;
+    }
+
+    /**
+     * Reports chapters while reading PBC, each chapter is detached from its parent
+     * after being reported.
+     */
+    @Override
+    protected void visit(ZipFile input, PmabParseConfig config, BookVisitor visitor) throws IOException,
+            JemException {
+        if (config == null) {
+            config = new PmabParseConfig();
         }
-        book = new Book();
+        InternalData data = new InternalData(config, visitor);
         XmlPullParser xpp = newPullParser();
-        int version = readPBM(input, xpp);
-        readPBC(input, xpp);
-        book.setExtension(PmabInfo.FILE_INFO, new PmabInfo(version, metaInfo));
-        return book;
+        int version = readPBM(data, input, xpp);
+        data.book.setExtension(PmabInfo.FILE_INFO, new PmabInfo(version, data.metaInfo));
+        visitor.onAttributes(data.book);
+        readPBC(data, input, xpp);
+        visitor.endBook(data.book);
     }
 
     private int getVersion(XmlPullParser xpp, String error) throws ParserException {
@@ -100,10 +109,10 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
         }
     }
 
-    private int readPBM(ZipFile zipFile, XmlPullParser xpp) throws IOException, ParserException {
+    private int readPBM(InternalData data, ZipFile zipFile, XmlPullParser xpp) throws IOException, ParserException {
         int pbmVersion = 0;
         boolean hasText = false;
-        inAttributes = false;
+        data.inAttributes = false;
         StringBuilder textBuffer = new StringBuilder();
         try (InputStream stream = ZipUtils.openStream(zipFile, PMAB.PBM_FILE)) {
             xpp.setInput(stream, null);
@@ -113,9 +122,9 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
                     case XmlPullParser.START_TAG: {
                         String tag = xpp.getName();
                         if (pbmVersion == 3) {
-                            hasText = startPBMv3(tag, xpp);
+                            hasText = startPBMv3(data, tag, xpp);
                         } else if (pbmVersion == 2) {
-                            hasText = startPBMv2(tag, xpp, zipFile);
+                            hasText = startPBMv2(data, tag, xpp, zipFile);
                         } else if (tag.equals("pbm")) {
                             pbmVersion = getVersion(xpp, "pmab.parse.unsupportedPBM");
                         } else {
@@ -132,9 +141,9 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
                     case XmlPullParser.END_TAG: {
                         String tag = xpp.getName();
                         if (pbmVersion == 3) {
-                            endPBMv3(tag, textBuffer, zipFile);
+                            endPBMv3(data, tag, textBuffer, zipFile);
                         } else if (pbmVersion == 2) {
-                            endPBMv2(tag, textBuffer, zipFile);
+                            endPBMv2(data, tag, textBuffer, zipFile);
                         }
                         textBuffer.setLength(0);
                     }
@@ -159,26 +168,32 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
         return defaultValue;
     }
 
-    private Object parseV3Item(String text, ZipFile zipFile) throws IOException, ParserException {
+    private TextObject inlineText(InternalData data, String text) {
+        return data.mycfg.storeText
+                ? TextFactory.forStored(text, TextObject.PLAIN)
+                : TextFactory.forString(text);
+    }
+
+    private Object parseV3Item(InternalData data, String text, ZipFile zipFile) throws IOException, ParserException {
         Object value;
-        if (isEmpty(itemType)) {
+        if (isEmpty(data.itemType)) {
             value = text;
         } else {
-            String[] parts = itemType.split(";");
+            String[] parts = data.itemType.split(";");
             String type = parts[0];
             if (type.equals(Jem.STRING)) {
-                if (itemName.equals(Chapter.LANGUAGE)) {
+                if (data.itemName.equals(Chapter.LANGUAGE)) {
                     value = parseLocale(text);
                 } else {
                     value = text;
                 }
             } else if (type.equals(Jem.DATETIME) || type.equals("date") || type.equals("time")) {
-                String format = findV3Config("format", parts, mycfg.dateFormat);
+                String format = findV3Config("format", parts, data.mycfg.dateFormat);
                 value = parseDate(text, format);
             } else if (type.startsWith("text/")) {  // text object
                 String t = type.substring(5);
                 FileObject fb = FileFactory.forZip(zipFile, text, "text/" + t);
-                String encoding = findV3Config("encoding", parts, mycfg.textEncoding);
+                String encoding = findV3Config("encoding", parts, data.mycfg.textEncoding);
                 value = TextFactory.forFile(fb, encoding, t);
             } else if (type.equals(Jem.LOCALE)) {
                 value = parseLocale(text);
@@ -200,77 +215,77 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
         return value;
     }
 
-    private boolean startPBMv3(String tag, XmlPullParser xpp) throws ParserException {
+    private boolean startPBMv3(InternalData data, String tag, XmlPullParser xpp) throws ParserException {
         boolean hasText = false;
         switch (tag) {
             case "item":
-                itemName = getAttribute(xpp, "name");
-                itemType = xpp.getAttributeValue(null, "type");
+                data.itemName = getAttribute(xpp, "name");
+                data.itemType = xpp.getAttributeValue(null, "type");
                 hasText = true;
                 break;
             case "attributes":
-                inAttributes = true;
+                data.inAttributes = true;
                 break;
             case "meta":
-                metaInfo.put(getAttribute(xpp, "name"), getAttribute(xpp, "value"));
+                data.metaInfo.put(getAttribute(xpp, "name"), getAttribute(xpp, "value"));
                 break;
             case "head":
-                metaInfo = new HashMap<>();
+                data.metaInfo = new HashMap<>();
                 break;
         }
         return hasText;
     }
 
-    private void endPBMv3(String tag, StringBuilder textBuffer, ZipFile zipFile) throws IOException,
+    private void endPBMv3(InternalData data, String tag, StringBuilder textBuffer, ZipFile zipFile) throws IOException,
             ParserException {
         if (tag.equals("item")) {
-            Object value = parseV3Item(textBuffer.toString().trim(), zipFile);
-            if (inAttributes) {
-                book.setAttribute(itemName, value);
+            Object value = parseV3Item(data, textBuffer.toString().trim(), zipFile);
+            if (data.inAttributes) {
+                data.book.setAttribute(data.itemName, value);
             } else {
-                book.setExtension(itemName, value);
+                data.book.setExtension(data.itemName, value);
             }
         } else if (tag.equals("attributes")) {
-            inAttributes = false;
+            data.inAttributes = false;
         }
     }
 
-    private boolean checkCount() {
-        return count < 0 || order < count;
+    private boolean checkCount(InternalData data) {
+        return data.count < 0 || data.order < data.count;
     }
 
-    private boolean startPBMv2(String tag, XmlPullParser xpp, ZipFile zipFile) throws IOException,
+    private boolean startPBMv2(InternalData data, String tag, XmlPullParser xpp, ZipFile zipFile) throws IOException,
             ParserException {
         boolean hasText = false;
         switch (tag) {
             case "attr":
-                if (checkCount()) {
-                    attrName = getAttribute(xpp, "name");
-                    if (attrName.equals(Book.COVER)) {
-                        mediaType = xpp.getAttributeValue(null, "media-type");
+                if (checkCount(data)) {
+                    data.attrName = getAttribute(xpp, "name");
+                    if (data.attrName.equals(Book.COVER)) {
+                        data.mediaType = xpp.getAttributeValue(null, "media-type");
                     } else {
-                        mediaType = null;
+                        data.mediaType = null;
                     }
                     hasText = true;
                 }
                 break;
             case "item":
-                if (checkCount()) {
+                if (checkCount(data)) {
                     String name = getAttribute(xpp, "name");
                     String type = xpp.getAttributeValue(null, "type");
                     if (isEmpty(type) || type.equals("text")) {
-                        book.setExtension(name, getAttribute(xpp, "value"));
+                        data.book.setExtension(name, getAttribute(xpp, "value"));
                     } else if (type.equals("number")) {
-                        book.setExtension(name, NumberUtils.parseNumber(getAttribute(xpp, "value")));
+                        data.book.setExtension(name, NumberUtils.parseNumber(getAttribute(xpp, "value")));
                     } else if (type.equals("file")) {    // file will be processed in <object>
-                        attrName = name;
+                        data.attrName = name;
                     } else {
                         throw ExceptionFactory.parserException("pmab.parse.2.unknownItemType", name);
                     }
                 }
                 break;
             case "object":
-                if (checkCount()) {
+                if (checkCount(data)) {
                     String href = getAttribute(xpp, "href");
                     String mime = getAttribute(xpp, "media-type");
                     FileObject fb = FileFactory.forZip(zipFile, href, mime);
@@ -278,70 +293,70 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
                     if (mime.startsWith("text/plain")) {
                         String encoding = xpp.getAttributeValue(null, "encoding");
                         if (isEmpty(encoding)) {
-                            value = TextFactory.forFile(fb, mycfg.textEncoding);
+                            value = TextFactory.forFile(fb, data.mycfg.textEncoding);
                         } else {
                             value = TextFactory.forFile(fb, encoding);
                         }
                     }
-                    book.setExtension(attrName, value);
+                    data.book.setExtension(data.attrName, value);
                 }
                 break;
             case "metadata": {
                 String str = xpp.getAttributeValue(null, "count");
                 if (isValid(str)) {
-                    count = NumberUtils.parseInt(str);
+                    data.count = NumberUtils.parseInt(str);
                 } else {
-                    count = -1;
+                    data.count = -1;
                 }
-                order = 0;
+                data.order = 0;
                 break;
             }
             case "extension": {
                 String str = xpp.getAttributeValue(null, "count");
                 if (isValid(str)) {
-                    count = NumberUtils.parseInt(str);
+                    data.count = NumberUtils.parseInt(str);
                 } else {
-                    count = -1;
+                    data.count = -1;
                 }
-                order = 0;
+                data.order = 0;
                 break;
             }
             case "meta":
-                metaInfo.put(getAttribute(xpp, "name"), getAttribute(xpp, "content"));
+                data.metaInfo.put(getAttribute(xpp, "name"), getAttribute(xpp, "content"));
                 break;
             case "head":
-                metaInfo = new HashMap<>();
+                data.metaInfo = new HashMap<>();
                 break;
         }
         return hasText;
     }
 
-    private void endPBMv2(String tag, StringBuilder textBuffer, ZipFile zipFile) throws IOException,
+    private void endPBMv2(InternalData data, String tag, StringBuilder textBuffer, ZipFile zipFile) throws IOException,
             ParserException {
         if (tag.equals("attr")) {
-            if (checkCount()) {
+            if (checkCount(data)) {
                 String text = textBuffer.toString().trim();
                 Object value;
-                if (attrName.equals(Chapter.DATE)) {
-                    value = parseDate(text, mycfg.dateFormat);
-                } else if (attrName.equals(Chapter.INTRO)) {
-                    value = TextFactory.forString(text);
-                } else if (attrName.equals(Chapter.LANGUAGE)) {
+                if (data.attrName.equals(Chapter.DATE)) {
+                    value = parseDate(text, data.mycfg.dateFormat);
+                } else if (data.attrName.equals(Chapter.INTRO)) {
+                    value = inlineText(data, text);
+                } else if (data.attrName.equals(Chapter.LANGUAGE)) {
                     value = parseLocale(text);
-                } else if (isValid(mediaType)) {
-                    value = FileFactory.forZip(zipFile, text, mediaType);
+                } else if (isValid(data.mediaType)) {
+                    value = FileFactory.forZip(zipFile, text, data.mediaType);
                 } else {
                     value = text;
                 }
-                book.setAttribute(attrName, value);
+                data.book.setAttribute(data.attrName, value);
             }
-            ++order;
+            ++data.order;
         } else if (tag.equals("item")) {
-            ++order;
+            ++data.order;
         }
     }
 
-    private void readPBC(ZipFile zipFile, XmlPullParser xpp) throws IOException, ParserException {
+    private void readPBC(InternalData data, ZipFile zipFile, XmlPullParser xpp) throws IOException, JemException {
         int pbcVersion = 0;
         boolean hasText = false;
         StringBuilder textBuffer = new StringBuilder();
@@ -353,9 +368,9 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
                     case XmlPullParser.START_TAG: {
                         String tag = xpp.getName();
                         if (pbcVersion == 3) {
-                            hasText = startPBCv3(tag, xpp);
+                            hasText = startPBCv3(data, tag, xpp);
                         } else if (pbcVersion == 2) {
-                            hasText = startPBCv2(tag, xpp, zipFile);
+                            hasText = startPBCv2(data, tag, xpp, zipFile);
                         } else if (tag.equals("pbc")) {
                             pbcVersion = getVersion(xpp, "pmab.parse.unsupportedPBC");
                         } else {
@@ -372,15 +387,15 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
                     case XmlPullParser.END_TAG: {
                         String tag = xpp.getName();
                         if (pbcVersion == 3) {
-                            endPBCv3(tag, textBuffer, zipFile);
+                            endPBCv3(data, tag, textBuffer, zipFile);
                         } else if (pbcVersion == 2) {
-                            endPBCv2(tag, textBuffer);
+                            endPBCv2(data, tag, textBuffer);
                         }
                         textBuffer.setLength(0);
                     }
                     break;
                     case XmlPullParser.START_DOCUMENT: {
-                        currentChapter = book;
+                        data.currentChapter = data.book;
                     }
                     break;
                 }
@@ -391,77 +406,103 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
         }
     }
 
-    private void appendChapter() {
+    private void appendChapter(InternalData data) throws IOException, JemException {
+        startChapter(data);
         Chapter chapter = new Chapter();
-        currentChapter.append(chapter);
-        currentChapter = chapter;
+        data.currentChapter.append(chapter);
+        data.currentChapter = chapter;
+        data.pending = data.visitor != null;
+    }
+
+    // reports current chapter when its attributes and content are parsed
+    private void startChapter(InternalData data) throws IOException, JemException {
+        if (!data.pending) {
+            return;
+        }
+        data.pending = false;
+        Chapter chapter = data.currentChapter;
+        data.visitor.startChapter(chapter);
+        TextObject content = chapter.getContent();
+        if (content != null) {
+            data.visitor.content(chapter, content);
+        }
+    }
+
+    private void endChapter(InternalData data) throws IOException, JemException {
+        Chapter chapter = data.currentChapter, parent = chapter.getParent();
+        if (data.visitor != null) {
+            startChapter(data);
+            data.visitor.endChapter(chapter);
+            parent.removeAt(parent.size() - 1);
+        }
+        data.currentChapter = parent;
     }
 
-    private boolean startPBCv3(String tag, XmlPullParser xpp) throws ParserException {
+    private boolean startPBCv3(InternalData data, String tag, XmlPullParser xpp) throws IOException, JemException {
         boolean hasText = false;
         switch (tag) {
             case "chapter":
-                appendChapter();
+                appendChapter(data);
                 break;
             case "item":
-                itemName = getAttribute(xpp, "name");
-                itemType = xpp.getAttributeValue(null, "type");
+                data.itemName = getAttribute(xpp, "name");
+                data.itemType = xpp.getAttributeValue(null, "type");
                 hasText = true;
                 break;
             case "content":
-                itemType = xpp.getAttributeValue(null, "type");
+                data.itemType = xpp.getAttributeValue(null, "type");
                 hasText = true;
                 break;
         }
         return hasText;
     }
 
-    private void endPBCv3(String tag, StringBuilder textBuffer, ZipFile zipFile) throws IOException,
-            ParserException {
+    private void endPBCv3(InternalData data, String tag, StringBuilder textBuffer, ZipFile zipFile) throws IOException,
+            JemException {
         switch (tag) {
             case "chapter":
-                currentChapter = currentChapter.getParent();
+                endChapter(data);
                 break;
             case "item": {
                 String text = textBuffer.toString().trim();
-                currentChapter.setAttribute(itemName, parseV3Item(text, zipFile));
+                data.currentChapter.setAttribute(data.itemName, parseV3Item(data, text, zipFile));
                 break;
             }
             case "content": {
                 TextObject content;
                 String text = textBuffer.toString().trim();
-                if (isEmpty(itemType)) {
-                    content = TextFactory.forString(text);
-                } else if (itemType.startsWith("text/")) {
-                    String[] parts = itemType.split(";");
+                if (isEmpty(data.itemType)) {
+                    content = inlineText(data, text);
+                } else if (data.itemType.startsWith("text/")) {
+                    String[] parts = data.itemType.split(";");
                     FileObject fb = FileFactory.forZip(zipFile, text, parts[0]);
-                    String encoding = findV3Config("encoding", parts, mycfg.textEncoding);
+                    String encoding = findV3Config("encoding", parts, data.mycfg.textEncoding);
                     content = TextFactory.forFile(fb, encoding);
                 } else {
-                    content = TextFactory.forString(text);
+                    content = inlineText(data, text);
                 }
-                currentChapter.setContent(content);
+                data.currentChapter.setContent(content);
                 break;
             }
         }
     }
 
-    private boolean startPBCv2(String tag, XmlPullParser xpp, ZipFile zipFile) throws IOException,
-            ParserException {
+    private boolean startPBCv2(InternalData data, String tag, XmlPullParser xpp, ZipFile zipFile) throws IOException,
+            JemException {
         boolean hasText = false;
         switch (tag) {
             case "chapter": {
                 String href = xpp.getAttributeValue(null, "href");
                 if (isEmpty(href)) {
-                    appendChapter();
+                    appendChapter(data);
                 } else {
                     FileObject fb = FileFactory.forZip(zipFile, href, "text/plain");
-                    chapterEncoding = xpp.getAttributeValue(null, "encoding");
-                    if (isEmpty(chapterEncoding)) {
-                        chapterEncoding = mycfg.textEncoding;
+                    data.chapterEncoding = xpp.getAttributeValue(null, "encoding");
+                    if (isEmpty(data.chapterEncoding)) {
+                        data.chapterEncoding = data.mycfg.textEncoding;
                     }
-                    appendChapter();
-                    currentChapter.setContent(TextFactory.forFile(fb, chapterEncoding));
+                    appendChapter(data);
+                    data.currentChapter.setContent(TextFactory.forFile(fb, data.chapterEncoding));
                 }
                 break;
             }
@@ -471,7 +512,7 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
             case "cover": {
                 String href = getAttribute(xpp, "href");
                 String mime = getAttribute(xpp, "media-type");
-                currentChapter.setCover(FileFactory.forZip(zipFile, href, mime));
+                data.currentChapter.setCover(FileFactory.forZip(zipFile, href, mime));
                 break;
             }
             case "intro": {
@@ -479,24 +520,52 @@ public class PmabParser extends ZipParser<PmabParseConfig> {
                 FileObject fb = FileFactory.forZip(zipFile, href, "text/plain");
                 String encoding = xpp.getAttributeValue(null, "encoding");
                 if (isEmpty(encoding)) {
-                    if (mycfg.useChapterEncoding) {
-                        encoding = chapterEncoding;
+                    if (data.mycfg.useChapterEncoding) {
+                        encoding = data.chapterEncoding;
                     } else {
-                        encoding = mycfg.textEncoding;
+                        encoding = data.mycfg.textEncoding;
                     }
                 }
-                currentChapter.setIntro(TextFactory.forFile(fb, encoding));
+                data.currentChapter.setIntro(TextFactory.forFile(fb, encoding));
                 break;
             }
         }
         return hasText;
     }
 
-    private void endPBCv2(String tag, StringBuilder textBuffer) {
+    private void endPBCv2(InternalData data, String tag, StringBuilder textBuffer) throws IOException, JemException {
         if (tag.equals("chapter")) {
-            currentChapter = currentChapter.getParent();
+            endChapter(data);
         } else if (tag.equals("title")) {
-            currentChapter.setTitle(textBuffer.toString().trim());
+            data.currentChapter.setTitle(textBuffer.toString().trim());
+        }
+    }
+
+    private class InternalData {
+        private final PmabParseConfig mycfg;
+        // temporary book
+        private final Book book = new Book();
+        // PBM 3 data
+        private String itemName, itemType;      // item attribute
+        private boolean inAttributes = false;   // item is contained in <attributes>
+        // PMAB 2 counter
+        private int count, order;
+        // PBM 2 data
+        private String attrName, mediaType;
+        // pbc data
+        private Chapter currentChapter;
+        // used for encoding of intro in chapter
+        private String chapterEncoding;
+
+        private HashMap<String, Object> metaInfo;
+        // visitor for streaming parse, may be null
+        private final BookVisitor visitor;
+        // current chapter is not reported to visitor
+        private boolean pending = false;
+
+        private InternalData(PmabParseConfig config, BookVisitor visitor) {
+            mycfg = config;
+            this.visitor = visitor;
         }
     }
 }
@@ -21,8 +21,10 @@ package pw.phylame.jem.formats.txt;
 import java.io.*;
 
 import pw.phylame.jem.core.Book;
+import pw.phylame.jem.core.Chapter;
 import pw.phylame.jem.util.TextObject;
 import pw.phylame.jem.formats.common.CommonMaker;
+import pw.phylame.jem.formats.common.StreamingSink;
 import pw.phylame.jem.formats.util.MakerException;
 import pw.phylame.jem.formats.util.text.TextUtils;
 import pw.phylame.jem.formats.util.text.TextRender;
@@ -53,38 +55,102 @@ public class TxtMaker extends CommonMaker<TxtMakeConfig> {
         if (config == null) {
             config = new TxtMakeConfig();
         }
-        if (!(writer instanceof BufferedWriter)) {
-            writer = new BufferedWriter(writer);
+        try {
+            new TxtSink(writer, config).write(book);
+        } catch (MakerException e) {
+            throw new IOException(e);
         }
-        String lineSeparator = config.textConfig.lineSeparator;
-        if (TextUtils.isValid(config.header)) {
-            writer.write(config.header + lineSeparator);
+    }
+
+    @Override
+    protected Sink open(OutputStream output, TxtMakeConfig config) throws IOException, MakerException {
+        if (config == null) {
+            config = new TxtMakeConfig();
         }
-        writer.write(book.getTitle() + lineSeparator);
-        String author = book.getAuthor();
-        if (!author.isEmpty()) {
-            writer.write(author + lineSeparator);
+        return new TxtSink(new OutputStreamWriter(output, config.encoding), config);
+    }
+
+    private class TxtSink extends StreamingSink {
+        private final Writer writer;
+        private final TxtMakeConfig config;
+        private final String lineSeparator;
+
+        private final TxtRender txtRender;
+        private final TextRender.RenderHelper renderHelper;
+
+        private TxtSink(Writer writer, TxtMakeConfig config) {
+            if (!(writer instanceof BufferedWriter)) {
+                writer = new BufferedWriter(writer);
+            }
+            this.writer = writer;
+            this.config = config;
+            lineSeparator = config.textConfig.lineSeparator;
+            txtRender = new TxtRender(writer, config.additionLine, lineSeparator);
+            renderHelper = new TextRender.RenderHelper(txtRender, config.textConfig);
         }
-        TxtRender txtRender = new TxtRender(writer, config.additionLine, lineSeparator);
-        try {
-            TextObject intro = book.getIntro();
-            if (intro != null) {
-                if (TextRender.renderText(intro, txtRender, config.textConfig)) {
-                    writer.write(lineSeparator);
+
+        @Override
+        public void onAttributes(Book book) throws IOException {
+            if (TextUtils.isValid(config.header)) {
+                writer.write(config.header + lineSeparator);
+            }
+            writer.write(book.getTitle() + lineSeparator);
+            String author = book.getAuthor();
+            if (!author.isEmpty()) {
+                writer.write(author + lineSeparator);
+            }
+            try {
+                TextObject intro = book.getIntro();
+                if (intro != null) {
+                    if (TextRender.renderText(intro, txtRender, config.textConfig)) {
+                        writer.write(lineSeparator);
+                    }
                 }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
             }
             writer.write(lineSeparator);
-            if (book.isSection()) {
-                TextRender.renderBook(book, txtRender, config.textConfig);
-            } else {        // book has not sub-parts, then save its content
-                TextRender.renderText(book.getContent(), txtRender, config.textConfig);
+        }
+
+        @Override
+        protected void writeChapter(Chapter chapter, TextObject content) throws IOException {
+            renderHelper.beginItem(chapter);
+            try {
+                renderHelper.writeText(chapter, content);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
             }
-        } catch (Exception e) {
-            throw new IOException(e);
         }
-        if (TextUtils.isValid(config.footer)) {
-            writer.write(config.footer);
+
+        @Override
+        protected void finishChapter(Chapter chapter) {
+            renderHelper.endItem();
+        }
+
+        @Override
+        public void endBook(Book book) throws IOException {
+            if (!hasChapters()) {        // book has not sub-parts, then save its content
+                try {
+                    TextRender.renderText(book.getContent(), txtRender, config.textConfig);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            if (TextUtils.isValid(config.footer)) {
+                writer.write(config.footer);
+            }
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
         }
-        writer.flush();
     }
 }
@@ -33,6 +33,7 @@ public class TxtParseConfig extends AbstractConfig {
     public static final String PATTERN = "txt.parse.pattern";
     public static final String PATTERN_FLAGS = "txt.parse.patternFlags";
     public static final String TRIM_CHAPTER_TITLE = "txt.parse.trimChapterTitle";
+    public static final String MAP_SOURCE = "txt.parse.mapSource";
 
     /**
      * Text encoding of input file
@@ -57,4 +58,14 @@ public class TxtParseConfig extends AbstractConfig {
      */
     @ConfigKey(TRIM_CHAPTER_TITLE)
     public boolean trimChapterTitle = true;
+
+    /**
+     * Maps the input file into memory, text of chapters is read from the mapping.
+     * <p>Available when chapters are slices of the input file. On some platforms,
+     * the file cannot be deleted until the mapping is garbage collected.</p>
+     *
+     * @since 2.4
+     */
+    @ConfigKey(MAP_SOURCE)
+    public boolean mapSource = false;
 }
@@ -19,27 +19,38 @@
 package pw.phylame.jem.formats.txt;
 
 import java.io.*;
-import java.util.regex.Matcher;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import pw.phylame.jem.core.Book;
 import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.BookTask;
+import pw.phylame.jem.core.BookVisitor;
 import pw.phylame.jem.util.IOUtils;
+import pw.phylame.jem.util.JemException;
 import pw.phylame.jem.util.TextFactory;
 import pw.phylame.jem.util.FileFactory;
+import pw.phylame.jem.util.FileObject;
+import pw.phylame.jem.util.TextObject;
 import pw.phylame.jem.formats.common.CommonParser;
 import pw.phylame.jem.formats.util.CacheCleaner;
+import pw.phylame.jem.formats.util.SourceCleaner;
 import pw.phylame.jem.formats.util.ParserException;
 import pw.phylame.jem.formats.util.ExceptionFactory;
 import pw.phylame.jem.formats.util.text.TextUtils;
-import pw.phylame.jem.formats.util.BufferedRandomAccessFile;
 
 /**
  * <tt>Parser</tt> implement for TXT book.
+ * <p>When parsing file encoded without shift state, such as UTF-8 and GBK, text of
+ * chapters is read from slices of the file. Otherwise the text is decoded and cached
+ * in a temporary file.</p>
  */
 public class TxtParser extends CommonParser<Reader, TxtParseConfig> {
-    private static final String CACHE_ENCODING = "UTF-16";
+    // no BOM written, offsets of chars in cache are fixed
+    private static final String CACHE_ENCODING = "UTF-16BE";
 
     public TxtParser() {
         super("txt", TxtParseConfig.CONFIG_SELF, TxtParseConfig.class);
@@ -61,112 +72,206 @@ public class TxtParser extends CommonParser<Reader, TxtParseConfig> {
         if (config == null) {
             config = new TxtParseConfig();
         }
+        File source = getSource();
         String title = (source != null) ? IOUtils.getBaseName(source.getPath()) : "";
-        Book book = parse(input, title, config);
+        Book book = parse(input, source, title, config);
         book.setExtension(TxtInfo.FILE_INFO, new TxtInfo(config.encoding));
         return book;
     }
 
     public Book parse(Reader reader, String title, TxtParseConfig config) throws IOException, ParserException {
+        return parse(reader, null, title, config);
+    }
+
+    private Book parse(Reader reader, File source, String title, TxtParseConfig config) throws IOException,
+            ParserException {
+        if (config == null) {
+            config = new TxtParseConfig();
+        }
+        Book book = new Book(title, "");
+        try {
+            parse(reader, source, book, config, null);
+        } catch (ParserException e) {
+            throw e;
+        } catch (JemException e) { // only thrown by visitor
+            throw new AssertionError(e);
+        }
+        return book;
+    }
+
+    /**
+     * Reports each chapter once the title of next chapter is found, chapters are
+     * not added to the book.
+     */
+    @Override
+    protected void visit(Reader input, TxtParseConfig config, BookVisitor visitor) throws IOException, JemException {
         if (config == null) {
             config = new TxtParseConfig();
         }
+        File source = getSource();
+        Book book = new Book((source != null) ? IOUtils.getBaseName(source.getPath()) : "", "");
+        book.setExtension(TxtInfo.FILE_INFO, new TxtInfo(config.encoding));
+        parse(input, source, book, config, visitor);
+    }
+
+    private void parse(Reader reader, File source, Book book, TxtParseConfig config, BookVisitor visitor)
+            throws IOException, JemException {
         Pattern pattern;
         try {
             pattern = Pattern.compile(config.pattern, config.patternFlags);
         } catch (PatternSyntaxException e) {
             throw ExceptionFactory.parserException(e, "txt.parse.invalidPattern", config.pattern);
         }
+        if (source != null && TxtSplitter.isSplittable(Charset.forName(config.encoding))) {
+            reader.close();     // bytes of the file are read instead
+            splitSource(source, pattern, book, config, visitor);
+        } else {
+            splitCached(reader, pattern, book, config, visitor);
+        }
+    }
 
-        // cached file content
-        StringBuilder sb = new StringBuilder();
-        Object[] objects = cacheContent(reader, sb);
-        reader.close();
-
-        RandomAccessFile source = (RandomAccessFile) objects[0];
-        File cache = (File) objects[1];
-
-        Book book = new Book(title, "");
-        String raw = sb.toString();
+    private void splitSource(File file, Pattern pattern, Book book, TxtParseConfig config, BookVisitor visitor)
+            throws IOException, JemException {
+        RandomAccessFile source = new RandomAccessFile(file, "r");
+        boolean keepSource = false;
         try {
-            Matcher matcher = pattern.matcher(raw);
-
-            int prevOffset, firstOffset;
-            FileFactory.BlockFile fb;
-            if (matcher.find()) {
-                firstOffset = prevOffset = matcher.start();
-                title = matcher.group();
-                if (config.trimChapterTitle) {
-                    prevOffset += title.length();
-                }
-                fb = FileFactory.forBlock("0.txt", source, prevOffset << 1, 0, TXT.MIME_PLAIN_TEXT);
-                book.append(new Chapter(TextUtils.trimmed(title), TextFactory.forFile(fb, CACHE_ENCODING)));
+            ByteBuffer buffer = null;
+            if (config.mapSource && source.length() <= Integer.MAX_VALUE) {
+                buffer = source.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, source.length());
+            }
+            ChapterSplitter splitter = new ChapterSplitter(pattern, book, config, visitor, source, buffer, 0, null);
+            long length;
+            try (InputStream in = new FileInputStream(file)) {
+                length = splitter.split(in, Charset.forName(config.encoding));
+            }
+            splitter.finish(length);
+            // mapping is valid after the file closed
+            keepSource = visitor == null && buffer == null && splitter.title != null;
+        } finally {
+            if (keepSource) {
+                book.registerCleanup(new SourceCleaner(source));
             } else {
                 source.close();
+            }
+        }
+    }
+
+    private void splitCached(Reader reader, Pattern pattern, Book book, TxtParseConfig config, BookVisitor visitor)
+            throws IOException, JemException {
+        File cache = File.createTempFile("jem_txt_", ".tmp");
+        RandomAccessFile source = null;
+        boolean keepCache = false;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cache), CACHE_ENCODING))) {
+            source = new RandomAccessFile(cache, "r");
+            ChapterSplitter splitter = new ChapterSplitter(pattern, book, config, visitor, source, null, 1, writer);
+            long length = splitter.split(reader);
+            writer.flush();
+            splitter.finish(length);
+            keepCache = visitor == null && splitter.title != null;
+        } finally {
+            reader.close();
+            if (keepCache) {
+                book.registerCleanup(new CacheCleaner(source, cache));
+            } else {
+                IOUtils.closeQuietly(source);
                 if (!cache.delete()) {
                     throw new IOException("Failed to delete TXT cache: " + cache);
                 }
-                return book;
             }
-            while (matcher.find()) {
-                int offset = matcher.start();
-                fb.size = (offset - prevOffset) << 1;
+        }
+    }
 
-                title = matcher.group();
-                if (config.trimChapterTitle) {
-                    offset += title.length();
-                }
+    /**
+     * Makes chapters with text in slices of the source.
+     * <p>With writer, text is cached with {@link #CACHE_ENCODING} and offset of char in the
+     * cache is double of the char index, otherwise offsets are of bytes in the source.</p>
+     */
+    private class ChapterSplitter extends TxtSplitter {
+        private final Book book;
+        private final boolean trimTitle;
+        private final BookVisitor visitor;
+        private final String encoding;
+        private final RandomAccessFile source;
+        private final ByteBuffer buffer;
+        private final int shift;
+        private final Writer writer;
 
-                fb = FileFactory.forBlock(book.size() + ".txt", source, offset << 1, 0, TXT.MIME_PLAIN_TEXT);
-                prevOffset = offset;
-                book.append(new Chapter(TextUtils.trimmed(title), TextFactory.forFile(fb, CACHE_ENCODING)));
+        // title and offset of text of last found chapter
+        private String title = null;
+        private long prevOffset = 0L;
+        private int count = 0;
+
+        private ChapterSplitter(Pattern pattern, Book book, TxtParseConfig config, BookVisitor visitor,
+                                RandomAccessFile source, ByteBuffer buffer, int shift, Writer writer) {
+            super(pattern);
+            this.book = book;
+            this.trimTitle = config.trimChapterTitle;
+            this.visitor = visitor;
+            this.encoding = writer != null ? CACHE_ENCODING : config.encoding;
+            this.source = source;
+            this.buffer = buffer;
+            this.shift = shift;
+            this.writer = writer;
+        }
+
+        @Override
+        protected void onText(char[] b, int off, int len) throws IOException {
+            if (writer != null) {
+                writer.write(b, off, len);
             }
-            fb.size = (raw.length() - prevOffset) << 1;
+        }
 
-            if (firstOffset > 0) {    // no formatted head store as intro
-                fb = FileFactory.forBlock("head.txt", source, 0, firstOffset << 1, TXT.MIME_PLAIN_TEXT);
-                book.setIntro(TextFactory.forFile(fb, CACHE_ENCODING));
+        @Override
+        protected void onTitle(String title, long offset, long end) throws IOException, JemException {
+            if (writer != null) {   // text before the title is required by the block and visitor
+                writer.flush();
             }
-        } catch (IOException e) {
-            source.close();
-            if (!cache.delete()) {
-                throw new IOException("Failed to delete TXT cache: " + cache);
+            if (this.title == null) {
+                if (offset > 0) {    // no formatted head store as intro
+                    book.setIntro(newText("head.txt", 0, offset));
+                }
+                if (visitor != null) {
+                    visitor.onAttributes(book);
+                }
+            } else {
+                endChapter(offset);
             }
-            throw e;
+            this.title = TextUtils.trimmed(title);
+            prevOffset = trimTitle ? end : offset;
         }
-        book.registerCleanup(new CacheCleaner(source, cache));
 
-        System.gc();
+        private void endChapter(long offset) throws IOException, JemException {
+            Chapter chapter = new Chapter(title, newText((count++) + ".txt", prevOffset, offset - prevOffset));
+            if (visitor != null) {
+                visitor.startChapter(chapter);
+                visitor.content(chapter, chapter.getContent());
+                visitor.endChapter(chapter);
+            } else {
+                book.append(chapter);
+            }
+            BookTask.advance(1);
+        }
 
-        return book;
-    }
+        private TextObject newText(String name, long offset, long size) throws IOException {
+            size = Math.max(size, 0L);
+            FileObject file;
+            if (buffer != null) {
+                file = FileFactory.forMapped(name, buffer, (int) offset, (int) size, TXT.MIME_PLAIN_TEXT);
+            } else {
+                file = FileFactory.forBlock(name, source, offset << shift, size << shift, TXT.MIME_PLAIN_TEXT);
+            }
+            return TextFactory.forFile(file, encoding);
+        }
 
-    private Object[] cacheContent(Reader reader, StringBuilder sb) throws IOException {
-        File cache = File.createTempFile("jem_txt_", ".tmp");
-        Closeable closeable = null;
-        try {
-            OutputStream stream = new FileOutputStream(cache);
-            closeable = stream;
-            Writer writer = new OutputStreamWriter(stream, CACHE_ENCODING);
-            closeable = stream;
-            writer = new BufferedWriter(writer);
-            closeable = writer;
-
-            char[] buf = new char[4096];
-            int n;
-            while ((n = reader.read(buf)) != -1) {
-                writer.write(buf, 0, n);
-                sb.append(buf, 0, n);
+        private void finish(long length) throws IOException, JemException {
+            if (title != null) {
+                endChapter(length);
+            } else if (visitor != null) {
+                visitor.onAttributes(book);
             }
-            writer.close();
-            closeable = null;
-            return new Object[]{new BufferedRandomAccessFile(cache, "r"), cache};
-        } catch (IOException e) {
-            IOUtils.closeQuietly(closeable);
-            if (!cache.delete()) {
-                throw new IOException("Failed to delete TXT cache: " + cache);
+            if (visitor != null) {
+                visitor.endBook(book);
             }
-            throw e;
         }
     }
 }
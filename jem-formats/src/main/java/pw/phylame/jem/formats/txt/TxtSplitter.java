@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.formats.txt;
+
+import java.io.Reader;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import pw.phylame.jem.util.JemException;
+
+/**
+ * Finds chapter titles in text line by line.
+ * <p>Text is read in chunks and only the current line is kept in memory, so
+ * titles crossing lines are not found. Lines longer than {@link #MAX_LINE}
+ * chars are matched in pieces.</p>
+ * <p>Text encoded with charset accepted by {@link #isSplittable(Charset)} can be
+ * split by bytes, then offsets of titles are offsets of bytes in the input.</p>
+ *
+ * @since 2.4
+ */
+abstract class TxtSplitter {
+    /**
+     * Size of chunk for reading text.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Max number of chars matched at once.
+     */
+    static final int MAX_LINE = 0x10000;
+
+    // no shift state, '\n' is one byte and never a part of other chars
+    private static final Set<String> SPLITTABLE_CHARSETS = new HashSet<>(Arrays.asList(
+            "UTF-8", "US-ASCII", "GBK", "GB2312", "GB18030", "Big5", "Big5-HKSCS", "Shift_JIS",
+            "windows-31j", "EUC-JP", "EUC-KR", "x-windows-949", "KOI8-R", "KOI8-U"));
+
+    private final Matcher matcher;
+
+    TxtSplitter(Pattern pattern) {
+        matcher = pattern.matcher("");
+    }
+
+    /**
+     * Tests whether lines of text encoded by specified charset can be found by bytes
+     * and decoded independently.
+     *
+     * @param charset the charset
+     * @return <tt>true</tt> if the text can be split by bytes
+     */
+    static boolean isSplittable(Charset charset) {
+        String name = charset.name();
+        return SPLITTABLE_CHARSETS.contains(name) || name.startsWith("ISO-8859-") || name.startsWith("windows-125");
+    }
+
+    /**
+     * Invoked with each chunk of text before titles in it are reported.
+     * <p>Only called when splitting text from <tt>Reader</tt>.</p>
+     *
+     * @param b   the chars
+     * @param off start index of the chunk
+     * @param len length of the chunk
+     * @throws IOException if occurs I/O errors
+     */
+    protected void onText(char[] b, int off, int len) throws IOException {
+    }
+
+    /**
+     * Invoked when a chapter title is found.
+     *
+     * @param title the title
+     * @param start offset of the title in chars or bytes
+     * @param end   offset after the title in chars or bytes
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when processing the title
+     */
+    protected abstract void onTitle(String title, long start, long end) throws IOException, JemException;
+
+    /**
+     * Reads all text from specified reader and reports found titles with offsets in chars.
+     *
+     * @param reader the reader, not closed by this method
+     * @return length of the text in chars
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when processing titles
+     */
+    long split(Reader reader) throws IOException, JemException {
+        StringBuilder line = new StringBuilder();
+        long lineStart = 0L;
+        char[] buf = new char[BUFFER_SIZE];
+        int n;
+        while ((n = reader.read(buf)) != -1) {
+            onText(buf, 0, n);
+            int from = 0;
+            for (int i = 0; i < n; ++i) {
+                if (buf[i] == '\n') {
+                    line.append(buf, from, i + 1 - from);
+                    from = i + 1;
+                    lineStart = matchLine(line, lineStart);
+                }
+            }
+            line.append(buf, from, n - from);
+            if (line.length() >= MAX_LINE) {
+                lineStart = matchLine(line, lineStart);
+            }
+        }
+        return matchLine(line, lineStart);
+    }
+
+    private long matchLine(StringBuilder line, long lineStart) throws IOException, JemException {
+        if (line.length() == 0) {
+            return lineStart;
+        }
+        matcher.reset(line);
+        while (matcher.find()) {
+            onTitle(matcher.group(), lineStart + matcher.start(), lineStart + matcher.end());
+        }
+        lineStart += line.length();
+        line.setLength(0);
+        return lineStart;
+    }
+
+    /**
+     * Reads all bytes from specified stream and reports found titles with offsets in bytes.
+     * <p>Only first {@link #MAX_LINE} bytes of each line are matched.</p>
+     *
+     * @param in      the input stream, not closed by this method
+     * @param charset charset of the text, must be accepted by {@link #isSplittable(Charset)}
+     * @return length of the text in bytes
+     * @throws IOException  if occurs I/O errors
+     * @throws JemException if occurs errors when processing titles
+     */
+    long split(InputStream in, Charset charset) throws IOException, JemException {
+        // malformed bytes are replaced as by String, so chars are counted in the same way
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] line = new byte[BUFFER_SIZE];
+        int count = 0;
+        long lineStart = 0L, position = 0L;
+        byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            int from = 0;
+            for (int i = 0; i < n; ++i) {
+                if (buf[i] == '\n') {
+                    line = append(line, count, buf, from, i + 1 - from);
+                    count = Math.min(count + i + 1 - from, MAX_LINE);
+                    matchLine(line, count, lineStart, decoder);
+                    lineStart = position + i + 1;
+                    count = 0;
+                    from = i + 1;
+                }
+            }
+            line = append(line, count, buf, from, n - from);
+            count = Math.min(count + n - from, MAX_LINE);
+            position += n;
+        }
+        matchLine(line, count, lineStart, decoder);
+        return position;
+    }
+
+    // appends bytes to the line, bytes after MAX_LINE are dropped
+    private byte[] append(byte[] line, int count, byte[] b, int off, int len) {
+        len = Math.min(len, MAX_LINE - count);
+        if (len <= 0) {
+            return line;
+        }
+        if (count + len > line.length) {
+            line = Arrays.copyOf(line, Math.min(Math.max(line.length << 1, count + len), MAX_LINE));
+        }
+        System.arraycopy(b, off, line, count, len);
+        return line;
+    }
+
+    private void matchLine(byte[] line, int count, long lineStart, CharsetDecoder decoder)
+            throws IOException, JemException {
+        if (count == 0) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(line, 0, count);
+        String str = decoder.reset().decode(in).toString();
+        matcher.reset(str);
+        if (!matcher.find()) {
+            return;
+        }
+        // decodes the line again to find bytes of titles, titles are in order
+        in.rewind();
+        decoder.reset();
+        CharBuffer out = CharBuffer.allocate(str.length());
+        do {
+            long start = lineStart + bytesOf(in, out, matcher.start(), decoder);
+            onTitle(matcher.group(), start, lineStart + bytesOf(in, out, matcher.end(), decoder));
+        } while (matcher.find());
+    }
+
+    // number of bytes decoded to the first chars, decoding is continued from last call
+    private int bytesOf(ByteBuffer in, CharBuffer out, int chars, CharsetDecoder decoder) {
+        if (chars > out.position()) {
+            out.limit(chars);
+            decoder.decode(in, out, true);
+        }
+        return in.position();
+    }
+}
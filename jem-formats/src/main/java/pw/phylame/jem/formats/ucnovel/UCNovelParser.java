@@ -34,15 +34,11 @@ import java.net.URL;
 import java.util.Enumeration;
 import java.util.HashMap;
 
-public class UCNovelParser extends CommonParser<NovelDbReader, NovelConfig> implements ChapterWatcher {
+public class UCNovelParser extends CommonParser<NovelDbReader, NovelConfig> {
     public static final String DEFAULT_CONFIG_FILE = "META-INF/pw-jem/ucnovel-reader";
     public static final String CATALOG_FILE_NAME = "com.UCMobile_catalog";
     public static final String TEXT_ENCODING = "UTF-8";
 
-    private NovelConfig mycfg;
-    private Book book;
-    private HashMap<String, RandomAccessFile> sourceCaches = new HashMap<>();
-
     public UCNovelParser() {
         super("ucnovel", NovelConfig.CONFIG_SELF, NovelConfig.class);
     }
@@ -94,29 +90,32 @@ public class UCNovelParser extends CommonParser<NovelDbReader, NovelConfig> impl
         return fetchBook(reader, config);
     }
 
-    private Book fetchBook(NovelDbReader reader, NovelConfig config) throws ParserException {
-        mycfg = config;
-        book = new Book();
-        sourceCaches.clear();
-        reader.fetchChapters(this, fetchInfo(reader, config.novelId));
-        book.registerCleanup(new Chapter.Cleanable() {
+    private Book fetchBook(NovelDbReader reader, final NovelConfig config) throws ParserException {
+        final InternalData data = new InternalData(config);
+        reader.fetchChapters(data, fetchInfo(data.book, reader, config.novelId));
+        data.book.registerCleanup(new Chapter.Cleanable() {
+            private final LeakTracker.Handle leak = LeakTracker.track(this, "UCNovel sources of " + config.novelId);
+
             @Override
             public void clean(Chapter chapter) {
-                for (RandomAccessFile raf : sourceCaches.values()) {
+                if (leak != null) {
+                    leak.release();
+                }
+                for (RandomAccessFile raf : data.sourceCaches.values()) {
                     try {
                         raf.close();
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
                 }
-                sourceCaches.clear();
+                data.sourceCaches.clear();
             }
         });
-        return book;
+        return data.book;
     }
 
     // return the table name for the fetched novel
-    private String fetchInfo(NovelDbReader reader, String novelId) throws ParserException {
+    private String fetchInfo(Book book, NovelDbReader reader, String novelId) throws ParserException {
         NovelInfo info = reader.fetchInfo(novelId);
         if (info == null) {
             throw ExceptionFactory.parserException("ucnovel.parse.noSuchNovel", novelId);
@@ -128,34 +127,44 @@ public class UCNovelParser extends CommonParser<NovelDbReader, NovelConfig> impl
         return info.table;
     }
 
-    @Override
-    public void watch(ChapterItem item) throws ParserException {
-        Chapter chapter = new Chapter(item.title);
-        chapter.setAttribute("update_time", item.updateTime);
-        if (!item.offlinePath.isEmpty()) {
-            try {
-                chapter.setContent(TextFactory.forFile(openSource(item), TEXT_ENCODING));
-            } catch (IOException e) {
-                throw ExceptionFactory.parserException(e, "ucnovel.parse.badChapterItem", item.id);
+    private class InternalData implements ChapterWatcher {
+        private final NovelConfig mycfg;
+        private final Book book = new Book();
+        private final HashMap<String, RandomAccessFile> sourceCaches = new HashMap<>();
+
+        private InternalData(NovelConfig config) {
+            mycfg = config;
+        }
+
+        @Override
+        public void watch(ChapterItem item) throws ParserException {
+            Chapter chapter = new Chapter(item.title);
+            chapter.setAttribute("update_time", item.updateTime);
+            if (!item.offlinePath.isEmpty()) {
+                try {
+                    chapter.setContent(TextFactory.forFile(openSource(item), TEXT_ENCODING));
+                } catch (IOException e) {
+                    throw ExceptionFactory.parserException(e, "ucnovel.parse.badChapterItem", item.id);
+                }
             }
+            book.append(chapter);
         }
-        book.append(chapter);
-    }
 
-    private FileObject openSource(ChapterItem item) throws IOException {
-        RandomAccessFile source = sourceCaches.get(item.offlinePath);
-        if (source == null) {
-            String path;
-            if (mycfg.novelFolder != null) {
-                path = mycfg.novelFolder + File.separatorChar + mycfg.novelId
-                        + File.separatorChar + IOUtils.getFullName(item.offlinePath);
-            } else {
-                path = item.offlinePath;
+        private FileObject openSource(ChapterItem item) throws IOException {
+            RandomAccessFile source = sourceCaches.get(item.offlinePath);
+            if (source == null) {
+                String path;
+                if (mycfg.novelFolder != null) {
+                    path = mycfg.novelFolder + File.separatorChar + mycfg.novelId
+                            + File.separatorChar + IOUtils.getFullName(item.offlinePath);
+                } else {
+                    path = item.offlinePath;
+                }
+                source = new BufferedRandomAccessFile(path, "r");
+                sourceCaches.put(item.offlinePath, source);
             }
-            source = new BufferedRandomAccessFile(path, "r");
-            sourceCaches.put(item.offlinePath, source);
+            return FileFactory.forBlock("chapter-" + item.id + ".txt", source, item.startIndex,
+                    item.endIndex - item.startIndex, "text/plain");
         }
-        return FileFactory.forBlock("chapter-" + item.id + ".txt", source, item.startIndex,
-                item.endIndex - item.startIndex, "text/plain");
     }
 }
@@ -34,6 +34,7 @@ public class UmdMakeConfig extends AbstractConfig {
     public static final String UMD_TYPE = "umd.make.type";
     public static final String CARTOON_IMAGES = "umd.make.cartoonImages";
     public static final String IMAGE_FORMAT = "umd.make.imageFormat";
+    public static final String COMPRESS_THREADS = "umd.make.compressThreads";
 
     /**
      * Config for rendering book text.
@@ -65,6 +66,15 @@ public class UmdMakeConfig extends AbstractConfig {
     @ConfigKey(IMAGE_FORMAT)
     public String imageFormat = "jpg";
 
+    /**
+     * Number of threads for compressing text blocks, <tt>0</tt> for number of processors,
+     * <tt>1</tt> to compress in current thread.
+     *
+     * @since 2.4
+     */
+    @ConfigKey(COMPRESS_THREADS)
+    public int compressThreads = 0;
+
     @Override
     public void adjust() {
         textConfig.writeTitle = false;
@@ -22,6 +22,7 @@ import java.io.*;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Calendar;
+import java.util.zip.Deflater;
 
 import pw.phylame.jem.core.Book;
 import pw.phylame.jem.core.Chapter;
@@ -39,10 +40,6 @@ import static pw.phylame.jem.formats.util.ByteUtils.littleRender;
  * <tt>Maker</tt> implement for UMD book.
  */
 public class UmdMaker extends CommonMaker<UmdMakeConfig> {
-    private Book book;
-    private OutputStream output;
-    private long writtenBytes = 0L;
-
     public UmdMaker() {
         super("umd", UmdMakeConfig.CONFIG_SELF, UmdMakeConfig.class);
     }
@@ -53,17 +50,14 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
         if (config == null) {
             config = new UmdMakeConfig();
         }
-        this.output = output;
-        this.book = book;
-
-        writtenBytes = 0L;
+        InternalData state = new InternalData(book, output);
         output.write(littleRender.putUInt32(UMD.MAGIC_NUMBER));
         switch (config.umdType) {
             case UMD.TEXT:
-                makeText(config.textConfig);
+                makeText(state, config.textConfig, config.compressThreads);
                 break;
             case UMD.CARTOON:
-                makeCartoon(config);
+                makeCartoon(state, config);
                 break;
             case UMD.COMIC:
                 makeComic();
@@ -73,9 +67,9 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
         }
     }
 
-    private void makeText(TextConfig config) throws IOException {
-        writeUmdHead(UMD.TEXT);
-        writeAttributes();
+    private void makeText(InternalData state, TextConfig config, int threads) throws IOException {
+        writeUmdHead(state, UMD.TEXT);
+        writeAttributes(state);
 
         // prepare text
         File cache = File.createTempFile("umd_", ".tmp");
@@ -83,7 +77,9 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
             UmdRender umdRender = new UmdRender(this, source);
             config.lineSeparator = UMD.UMD_LINE_FEED;
             try {
-                TextRender.renderBook(book, umdRender, config);
+                TextRender.renderBook(state.book, umdRender, config);
+            } catch (IOException e) {
+                throw e;
             } catch (Exception e) {
                 throw new IOException(e);
             }
@@ -91,17 +87,17 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
             long contentLength = source.getFilePointer();
             source.seek(0L);
 
-            writeContentLength(contentLength);
-            writeChapterOffsets(umdRender.offsets);
-            writeChapterTitles(umdRender.titles);
+            writeContentLength(state, contentLength);
+            writeChapterOffsets(state, umdRender.offsets);
+            writeChapterTitles(state, umdRender.titles);
 
             LinkedList<Long> blockChecks = new LinkedList<>();
-            writeText(source, contentLength, blockChecks);
-            writeContentEnd(blockChecks);
+            writeText(state, source, contentLength, blockChecks, threads);
+            writeContentEnd(state, blockChecks);
 
-            writeCoverImage();
-            writeSimplePageOffsets(contentLength);
-            writeUmdEnd();
+            writeCoverImage(state);
+            writeSimplePageOffsets(state, contentLength);
+            writeUmdEnd(state);
         } finally {
             if (!cache.delete()) {
                 System.err.println("Failed delete UMD cached file: " + cache);
@@ -109,9 +105,9 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
         }
     }
 
-    private void makeCartoon(UmdMakeConfig config) throws IOException {
-        writeUmdHead(UMD.CARTOON);
-        writeAttributes();
+    private void makeCartoon(InternalData state, UmdMakeConfig config) throws IOException {
+        writeUmdHead(state, UMD.CARTOON);
+        writeAttributes(state);
         // ignored chapter offsets and titles
         List<FileObject> images;
         String imageFormat = "jpg";
@@ -123,91 +119,91 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
         } else {
             images = new LinkedList<>();
             // prepare images
-            for (Chapter sub : book) {
+            for (Chapter sub : state.book) {
                 findImages(sub, images);
             }
         }
 
-        writeChapterOffsets(null);
-        writeChapterTitles(null);
-        writeImageFormat(imageFormat);
+        writeChapterOffsets(state, null);
+        writeChapterTitles(state, null);
+        writeImageFormat(state, imageFormat);
 
         LinkedList<Long> blockChecks = new LinkedList<>();
-        writeImages(images, blockChecks);
-        writeContentEnd(blockChecks);
+        writeImages(state, images, blockChecks);
+        writeContentEnd(state, blockChecks);
 
-        writeCoverImage();
-        writeLicenseKey();
-        writeUmdEnd();
+        writeCoverImage(state);
+        writeLicenseKey(state);
+        writeUmdEnd(state);
     }
 
     private void makeComic() throws MakerException {
         throw ExceptionFactory.makerException("umd.make.unsupportedType", UMD.COMIC);
     }
 
-    private void writeChunk(int id, boolean hasAddition, byte[] data) throws IOException {
-        writeChunk(id, hasAddition ? UMD.CONTENT_APPENDED : UMD.CONTENT_SINGLE, data);
+    private void writeChunk(InternalData state, int id, boolean hasAddition, byte[] data) throws IOException {
+        writeChunk(state, id, hasAddition ? UMD.CONTENT_APPENDED : UMD.CONTENT_SINGLE, data);
     }
 
-    private void writeChunk(int id, int type, byte[] data) throws IOException {
-        output.write(UMD.CHUNK_SEPARATOR);
-        output.write(littleRender.putUInt16(id));
-        output.write(type);
-        output.write(5 + data.length);
-        output.write(data);
-        writtenBytes += 5 + data.length;
+    private void writeChunk(InternalData state, int id, int type, byte[] data) throws IOException {
+        state.output.write(UMD.CHUNK_SEPARATOR);
+        state.output.write(littleRender.putUInt16(id));
+        state.output.write(type);
+        state.output.write(5 + data.length);
+        state.output.write(data);
+        state.writtenBytes += 5 + data.length;
     }
 
-    private void writeAddition(long checkVal, byte[] data) throws IOException {
-        output.write(UMD.ADDITION_SEPARATOR);
-        output.write(littleRender.putUInt32(checkVal));
-        output.write(littleRender.putUInt32(9 + data.length));
-        output.write(data);
-        writtenBytes += 9 + data.length;
+    private void writeAddition(InternalData state, long checkVal, byte[] data) throws IOException {
+        state.output.write(UMD.ADDITION_SEPARATOR);
+        state.output.write(littleRender.putUInt32(checkVal));
+        state.output.write(littleRender.putUInt32(9 + data.length));
+        state.output.write(data);
+        state.writtenBytes += 9 + data.length;
     }
 
     // 1
-    private void writeUmdHead(int umdType) throws IOException {
+    private void writeUmdHead(InternalData state, int umdType) throws IOException {
         byte[] data = new byte[3];
         data[0] = (byte) umdType;
         int val = NumberUtils.randInteger(0x401, 0x7FFF);
         data[1] = (byte) ((val & 0xFF00) >> 8);
         data[2] = (byte) (val & 0xFF);
-        writeChunk(UMD.CDT_UMD_HEAD, false, data);
+        writeChunk(state, UMD.CDT_UMD_HEAD, false, data);
     }
 
-    private void writeMetaField(int id, String str) throws IOException {
+    private void writeMetaField(InternalData state, int id, String str) throws IOException {
         if (!TextUtils.isValid(str)) {
             return;
         }
-        writeChunk(id, false, str.getBytes(UMD.TEXT_ENCODING));
+        writeChunk(state, id, false, str.getBytes(UMD.TEXT_ENCODING));
     }
 
     // 2-9
-    private void writeAttributes() throws IOException {
-        writeMetaField(UMD.CDT_TITLE, book.getTitle());
-        writeMetaField(UMD.CDT_AUTHOR, book.getAuthor());
+    private void writeAttributes(InternalData state) throws IOException {
+        writeMetaField(state, UMD.CDT_TITLE, state.book.getTitle());
+        writeMetaField(state, UMD.CDT_AUTHOR, state.book.getAuthor());
 
         Calendar calendar = Calendar.getInstance();
-        calendar.setTime(book.getDate());
-        writeMetaField(UMD.CDT_YEAR, Integer.toString(calendar.get(Calendar.YEAR)));
-        writeMetaField(UMD.CDT_MONTH, Integer.toString(calendar.get(Calendar.MONTH) + 1));
-        writeMetaField(UMD.CDT_DAY, Integer.toString(calendar.get(Calendar.DAY_OF_MONTH)));
-
-        writeMetaField(UMD.CDT_GENRE, book.getGenre());
-        writeMetaField(UMD.CDT_PUBLISHER, book.getPublisher());
-        writeMetaField(UMD.CDT_VENDOR, book.getVendor());
+        calendar.setTime(state.book.getDate());
+        writeMetaField(state, UMD.CDT_YEAR, Integer.toString(calendar.get(Calendar.YEAR)));
+        writeMetaField(state, UMD.CDT_MONTH, Integer.toString(calendar.get(Calendar.MONTH) + 1));
+        writeMetaField(state, UMD.CDT_DAY, Integer.toString(calendar.get(Calendar.DAY_OF_MONTH)));
+
+        writeMetaField(state, UMD.CDT_GENRE, state.book.getGenre());
+        writeMetaField(state, UMD.CDT_PUBLISHER, state.book.getPublisher());
+        writeMetaField(state, UMD.CDT_VENDOR, state.book.getVendor());
     }
 
     // B
-    private void writeContentLength(long length) throws IOException {
-        writeChunk(UMD.CDT_CONTENT_LENGTH, false, littleRender.putUInt32(length));
+    private void writeContentLength(InternalData state, long length) throws IOException {
+        writeChunk(state, UMD.CDT_CONTENT_LENGTH, false, littleRender.putUInt32(length));
     }
 
     // 83
-    private void writeChapterOffsets(LinkedList<Long> offsets) throws IOException {
+    private void writeChapterOffsets(InternalData state, LinkedList<Long> offsets) throws IOException {
         int checkVal = NumberUtils.randInteger(0x3000, 0x3FFF);
-        writeChunk(UMD.CDT_CHAPTER_OFFSET, true, littleRender.putUInt32(checkVal));
+        writeChunk(state, UMD.CDT_CHAPTER_OFFSET, true, littleRender.putUInt32(checkVal));
         byte[] data;
         if (offsets != null && !offsets.isEmpty()) {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -218,13 +214,13 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
         } else {
             data = new byte[0];
         }
-        writeAddition(checkVal, data);
+        writeAddition(state, checkVal, data);
     }
 
     // 84
-    private void writeChapterTitles(LinkedList<String> titles) throws IOException {
+    private void writeChapterTitles(InternalData state, LinkedList<String> titles) throws IOException {
         int checkVal = NumberUtils.randInteger(0x4000, 0x4FFF);
-        writeChunk(UMD.CDT_CHAPTER_TITLE, true, littleRender.putUInt32(checkVal));
+        writeChunk(state, UMD.CDT_CHAPTER_TITLE, true, littleRender.putUInt32(checkVal));
         byte[] data;
         if (titles != null && !titles.isEmpty()) {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -237,19 +233,19 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
         } else {
             data = new byte[0];
         }
-        writeAddition(checkVal, data);
+        writeAddition(state, checkVal, data);
     }
 
     // E
-    private void writeImageFormat(String format) throws IOException {
+    private void writeImageFormat(InternalData state, String format) throws IOException {
         byte[] bytes = {(byte) UMD.formatOfName(format)};
-        writeChunk(UMD.CDT_IMAGE_FORMAT, false, bytes);
+        writeChunk(state, UMD.CDT_IMAGE_FORMAT, false, bytes);
     }
 
     // F1
-    private void writeLicenseKey() throws IOException {
+    private void writeLicenseKey(InternalData state) throws IOException {
         byte[] data;
-        Object key = book.getAttribute("license_key", null);
+        Object key = state.book.getAttribute("license_key", null);
         if (key != null && key instanceof byte[]) {
             data = (byte[]) key;
         } else {
@@ -258,37 +254,37 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
                     0, 0, 0, 0, 0, 0, 0, 0
             };
         }
-        writeChunk(UMD.CDT_LICENSE_KEY, false, data);
+        writeChunk(state, UMD.CDT_LICENSE_KEY, false, data);
     }
 
     // A
-    private void writeContentId() throws IOException {
+    private void writeContentId(InternalData state) throws IOException {
         int bookId;
-        Object id = book.getAttribute("book_id", null);
+        Object id = state.book.getAttribute("book_id", null);
         if (id != null && id instanceof Integer) {
             bookId = (Integer) id;
         } else {
             bookId = NumberUtils.randInteger(0, 1000) + 0x10000000;
         }
         byte[] data = littleRender.putUInt32(bookId);
-        writeChunk(UMD.CDT_CONTENT_ID, false, data);
+        writeChunk(state, UMD.CDT_CONTENT_ID, false, data);
     }
 
     // 81
-    private void writeContentEnd(LinkedList<Long> blockChecks) throws IOException {
+    private void writeContentEnd(InternalData state, LinkedList<Long> blockChecks) throws IOException {
         int randVal = NumberUtils.randInteger(0x2000, 0x2FFF);
-        writeChunk(UMD.CDT_CONTENT_END, true, littleRender.putUInt32(randVal));
+        writeChunk(state, UMD.CDT_CONTENT_END, true, littleRender.putUInt32(randVal));
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         for (long checkVal : blockChecks) {
             out.write(littleRender.putUInt32(checkVal));
         }
-        writeAddition(randVal, out.toByteArray());
+        writeAddition(state, randVal, out.toByteArray());
         out.close();
     }
 
     // 82
-    private void writeCoverImage() throws IOException {
-        FileObject cover = book.getCover();
+    private void writeCoverImage(InternalData state) throws IOException {
+        FileObject cover = state.book.getCover();
         if (cover == null) {
             return;
         }
@@ -297,12 +293,12 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
         byte[] data = new byte[5];
         data[0] = (byte) type;
         System.arraycopy(littleRender.putUInt32(checkVal), 0, data, 1, 4);
-        writeChunk(UMD.CDT_COVER_IMAGE, true, data);
-        writeAddition(checkVal, cover.readAll());
+        writeChunk(state, UMD.CDT_COVER_IMAGE, true, data);
+        writeAddition(state, checkVal, cover.readAll());
     }
 
     // 87, placeholder page
-    private void writeSimplePageOffsets(long contentLength) throws IOException {
+    private void writeSimplePageOffsets(InternalData state, long contentLength) throws IOException {
         int[][] pages = {
                 {0x1, 0x10, 0xD0},
                 {0x1, 0x10, 0xB0},
@@ -316,40 +312,50 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
             buf6[1] = (byte) page[2];
             long checkVal = NumberUtils.randLong(0x7000, 0x7FFF);
             System.arraycopy(littleRender.putUInt32(checkVal), 0, buf6, 2, 4);
-            writeChunk(UMD.CDT_PAGE_OFFSET, page[0], buf6);
+            writeChunk(state, UMD.CDT_PAGE_OFFSET, page[0], buf6);
 
             System.arraycopy(littleRender.putUInt32(17), 0, buf12, 0, 4);
             System.arraycopy(littleRender.putUInt32(0), 0, buf12, 4, 4);
             System.arraycopy(littleRender.putUInt32(contentLength), 0, buf12, 8, 4);
-            writeAddition(checkVal, buf12);
+            writeAddition(state, checkVal, buf12);
         }
     }
 
     // C
-    private void writeUmdEnd() throws IOException {
-        long length = writtenBytes;
+    private void writeUmdEnd(InternalData state) throws IOException {
+        long length = state.writtenBytes;
         length += 1 + 2 + 2 + 4 + 4;
-        writeChunk(UMD.CDT_UMD_END, false, littleRender.putUInt32(length));
+        writeChunk(state, UMD.CDT_UMD_END, false, littleRender.putUInt32(length));
     }
 
-    private void writeText(BufferedRandomAccessFile file, long contentLength, LinkedList<Long> blockChecks)
-            throws IOException {
+    private void writeText(final InternalData state, BufferedRandomAccessFile file, long contentLength,
+                           final LinkedList<Long> blockChecks, int threads) throws IOException {
         int count = (int) (contentLength >> 15);  // div 0x8000
         count += ((contentLength & 0x7FFF) > 0) ? 1 : 0;    // mod 0x8000 > 0
-        int randValA = NumberUtils.randInteger(0, count);
-        int randValB = NumberUtils.randInteger(0, count);
-        for (int i = 0; i < count; ++i) {
-            long checkVal = NumberUtils.randLong(4026530000L, 4294970000L);
-            blockChecks.add(checkVal);
-            byte[] buf = new byte[UMD.BLOCK_SIZE];
-            file.read(buf);
-            byte[] data = ZLibUtils.compress(buf);
-            writeAddition(checkVal, data);
-            if (i == randValA) {
-                writeLicenseKey();
-            } else if (i == randValB) {
-                writeContentId();
+        final int randValA = NumberUtils.randInteger(0, count);
+        final int randValB = NumberUtils.randInteger(0, count);
+        // blocks are independent, compressed in parallel and written in order
+        try (ParallelDeflater deflater = new ParallelDeflater(threads, Deflater.DEFAULT_COMPRESSION, getName(),
+                new ParallelDeflater.Consumer() {
+                    @Override
+                    public void consume(int index, byte[] data) throws IOException {
+                        long checkVal = NumberUtils.randLong(4026530000L, 4294970000L);
+                        blockChecks.add(checkVal);
+                        writeAddition(state, checkVal, data);
+                        if (index == randValA) {
+                            writeLicenseKey(state);
+                        } else if (index == randValB) {
+                            writeContentId(state);
+                        }
+                    }
+                })) {
+            for (long remaining = contentLength; remaining > 0; remaining -= UMD.BLOCK_SIZE) {
+                // the last block may be less than block size
+                byte[] buf = new byte[(int) Math.min(remaining, UMD.BLOCK_SIZE)];
+                file.readFully(buf);
+                deflater.submit(buf, 0, buf.length);
             }
+            deflater.finish();
         }
     }
 
@@ -368,7 +374,7 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
         }
     }
 
-    private void writeImages(List<FileObject> images, LinkedList<Long> blockChecks)
+    private void writeImages(InternalData state, List<FileObject> images, LinkedList<Long> blockChecks)
             throws IOException {
         if (images.isEmpty()) {
             return;
@@ -378,10 +384,21 @@ public class UmdMaker extends CommonMaker<UmdMakeConfig> {
         for (FileObject img : images) {
             long checkVal = NumberUtils.randLong(4026530000L, 4294970000L);
             blockChecks.add(checkVal);
-            writeAddition(checkVal, img.readAll());
+            writeAddition(state, checkVal, img.readAll());
             if (i++ == randVal) {
-                writeContentId();
+                writeContentId(state);
             }
         }
     }
+
+    private class InternalData {
+        private final Book book;
+        private final OutputStream output;
+        private long writtenBytes = 0L;
+
+        private InternalData(Book book, OutputStream output) {
+            this.book = book;
+            this.output = output;
+        }
+    }
 }
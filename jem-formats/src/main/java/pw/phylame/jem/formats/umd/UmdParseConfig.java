@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.formats.umd;
+
+import pw.phylame.jem.formats.util.config.ConfigKey;
+import pw.phylame.jem.formats.util.config.AbstractConfig;
+
+/**
+ * Config for parse UMD file.
+ *
+ * @since 2.4
+ */
+public class UmdParseConfig extends AbstractConfig {
+    public static final String CONFIG_SELF = "umd.parse.config";
+    public static final String CACHE_BLOCKS = "umd.parse.cacheBlocks";
+
+    /**
+     * Number of decoded text blocks (32KB each) cached for the book, <tt>0</tt> to disable
+     */
+    @ConfigKey(CACHE_BLOCKS)
+    public int cacheBlocks = 16;
+}
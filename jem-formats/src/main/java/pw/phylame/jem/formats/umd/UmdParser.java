@@ -19,30 +19,41 @@
 package pw.phylame.jem.formats.umd;
 
 import java.util.*;
+import java.io.Reader;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
 import pw.phylame.jem.core.Book;
 import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.BookVisitor;
+import pw.phylame.jem.util.IOUtils;
+import pw.phylame.jem.util.JemException;
 import pw.phylame.jem.util.FileFactory;
 import pw.phylame.jem.util.FileObject;
 import pw.phylame.jem.util.AbstractText;
-import pw.phylame.jem.formats.common.NonConfig;
+import pw.phylame.jem.util.TextFactory;
+import pw.phylame.jem.util.Instrumentation;
 import pw.phylame.jem.formats.common.BinaryParser;
 import pw.phylame.jem.formats.util.ZLibUtils;
 import pw.phylame.jem.formats.util.ParserException;
 import pw.phylame.jem.formats.util.ExceptionFactory;
+import pw.phylame.jem.formats.util.text.BlockCache;
+import pw.phylame.jem.formats.util.text.BlockTextReader;
 
 /**
  * <tt>Parser</tt> implement for UMD book.
  */
-public class UmdParser extends BinaryParser<NonConfig> {
+public class UmdParser extends BinaryParser<UmdParseConfig> {
+    private static final char LINE_FEED = UMD.UMD_LINE_FEED.charAt(0);
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
     public UmdParser() {
-        super("umd", null, null);
+        super("umd", UmdParseConfig.CONFIG_SELF, UmdParseConfig.class);
     }
 
     @Override
-    protected void validateFile(RandomAccessFile input, NonConfig config) throws IOException,
+    protected void validateFile(RandomAccessFile input, UmdParseConfig config) throws IOException,
             ParserException {
         if (readUInt32(input) != UMD.MAGIC_NUMBER) {
             throw ExceptionFactory.parserException("umd.parse.invalidMagic");
@@ -50,27 +61,93 @@ public class UmdParser extends BinaryParser<NonConfig> {
     }
 
     @Override
-    public Book parse(RandomAccessFile input, NonConfig config) throws IOException, ParserException {
-        return parse(input);
+    public Book parse(RandomAccessFile input, UmdParseConfig config) throws IOException, ParserException {
+        if (config == null) {
+            config = new UmdParseConfig();
+        }
+        InternalData data = new InternalData(input, config.cacheBlocks);
+        int sep;
+        while ((sep = input.read()) != -1) {
+            switch (sep) {
+                case UMD.CHUNK_SEPARATOR:
+                    readChunk(data);
+                    break;
+                case UMD.ADDITION_SEPARATOR: {
+                    Chapter chapter = readContent(data);
+                    if (chapter != null) {
+                        data.book.append(chapter);
+                    }
+                }
+                break;
+                default:
+                    throw ExceptionFactory.parserException("umd.parse.badSeparator", sep);
+            }
+        }
+        for (Chapter chapter : data.chapters) {
+            data.book.append(chapter);
+        }
+        data.book.setExtension(UmdInfo.FILE_INFO, new UmdInfo(data.umdType));
+        return data.book;
     }
 
-    public Book parse(RandomAccessFile file) throws IOException, ParserException {
-        InternalData data = new InternalData(file);
+    /**
+     * Reports chapters while reading contents, chapters are not added to the book.
+     * <p>Attributes, chapter offsets and titles are stored before contents, but the cover
+     * and some keys are stored after or between them, so all chunks are read first by
+     * skipping the contents, then the contents are read in one pass. Text chapter is
+     * reported once all of its blocks are read, cartoon image is reported when it is read.</p>
+     */
+    @Override
+    protected void visit(RandomAccessFile input, UmdParseConfig config, BookVisitor visitor) throws IOException,
+            JemException {
+        if (config == null) {
+            config = new UmdParseConfig();
+        }
+        InternalData data = new InternalData(input, config.cacheBlocks);
+        // positions of contents
+        ArrayList<Long> contents = new ArrayList<>();
         int sep;
-        while ((sep = file.read()) != -1) {
+        while ((sep = input.read()) != -1) {
             switch (sep) {
                 case UMD.CHUNK_SEPARATOR:
                     readChunk(data);
                     break;
                 case UMD.ADDITION_SEPARATOR:
-                    readContent(data);
+                    contents.add(input.getFilePointer());
+                    input.skipBytes(4);
+                    skipBlock(input);
                     break;
                 default:
                     throw ExceptionFactory.parserException("umd.parse.badSeparator", sep);
             }
         }
         data.book.setExtension(UmdInfo.FILE_INFO, new UmdInfo(data.umdType));
-        return data.book;
+        visitor.onAttributes(data.book);
+        int next = 0;   // index of next text chapter to be reported
+        for (long position : contents) {
+            input.seek(position);
+            Chapter chapter = readContent(data);
+            if (chapter != null) {
+                visitor.startChapter(chapter);
+                visitor.endChapter(chapter);
+            }
+            // bytes of text in read blocks
+            long end = (long) data.blocks.size() << 15;  // mul 0x8000
+            for (; next < data.chapters.size() && data.texts.get(next).end() <= end; ++next) {
+                reportText(data.chapters.get(next), visitor);
+            }
+        }
+        // text of broken file may be incomplete
+        for (; next < data.chapters.size(); ++next) {
+            reportText(data.chapters.get(next), visitor);
+        }
+        visitor.endBook(data.book);
+    }
+
+    private void reportText(Chapter chapter, BookVisitor visitor) throws IOException, JemException {
+        visitor.startChapter(chapter);
+        visitor.content(chapter, chapter.getContent());
+        visitor.endChapter(chapter);
     }
 
     private void readChunk(InternalData data) throws IOException, ParserException {
@@ -208,9 +285,12 @@ public class UmdParser extends BinaryParser<NonConfig> {
         file.skipBytes((int) length);
     }
 
+    public Book parse(RandomAccessFile file) throws IOException, ParserException {
+        return parse(file, null);
+    }
+
     private void readChapterOffsets(InternalData data) throws IOException, ParserException {
         RandomAccessFile file = data.file;
-        Book book = data.book;
         long count = (readUInt32(file) - 9) >> 2; // div 4
         data.chapterCount = (int) count;
 
@@ -219,14 +299,14 @@ public class UmdParser extends BinaryParser<NonConfig> {
         }
 
         long prevOffset = readUInt32(file);
-        UmdText umdText = new UmdText(file, prevOffset, 0, data.blocks);
-        book.append(new Chapter("", umdText));
+        UmdText umdText = new UmdText(prevOffset, 0, data.blocks);
+        data.addText(umdText);
         for (int ix = 1; ix < count; ++ix) {
             long offset = readUInt32(file);
             umdText.size = offset - prevOffset;
-            umdText = new UmdText(file, offset, 0, data.blocks);
+            umdText = new UmdText(offset, 0, data.blocks);
             prevOffset = offset;
-            book.append(new Chapter("", umdText));
+            data.addText(umdText);
         }
         umdText.size = data.contentLength - prevOffset;
     }
@@ -234,7 +314,7 @@ public class UmdParser extends BinaryParser<NonConfig> {
     private void readChapterTitles(InternalData data) throws IOException, ParserException {
         RandomAccessFile file = data.file;
         file.skipBytes(4);
-        for (Chapter ch : data.book) {
+        for (Chapter ch : data.chapters) {
             String title = readString(file, file.read());
             ch.setTitle(title);
         }
@@ -261,9 +341,10 @@ public class UmdParser extends BinaryParser<NonConfig> {
         skipBlock(data.file);
     }
 
-    private void readContent(InternalData data) throws IOException, ParserException {
+    // returns chapter of cartoon image, or null for text block
+    private Chapter readContent(InternalData data) throws IOException, ParserException {
         RandomAccessFile file = data.file;
-        Book book = data.book;
+        Chapter chapter = null;
 
         file.skipBytes(4);
         long offset, length = readUInt32(file) - 9;
@@ -276,22 +357,23 @@ public class UmdParser extends BinaryParser<NonConfig> {
             break;
             case UMD.CARTOON: {
                 String format = UMD.nameOfFormat(data.imageFormat);
-                String name = String.format("img_%d.%s", book.size() + 1, format);
+                int number = ++data.imageCount;
+                String name = String.format("img_%d.%s", number, format);
                 FileObject image = FileFactory.forBlock(name, file, offset, length, "image/" + format);
-                Chapter chapter = new Chapter(String.valueOf(book.size() + 1));
+                chapter = new Chapter(String.valueOf(number));
                 chapter.setCover(image);
-                book.append(chapter);
             }
             break;
             case UMD.COMIC:
                 break;
         }
         file.skipBytes((int) length);
+        return chapter;
     }
 
     @Override
     protected void onReadingError() throws ParserException {
-        throw ExceptionFactory.parserException("umd.parse.invalidFile", source);
+        throw ExceptionFactory.parserException("umd.parse.invalidFile", getSource());
     }
 
     private class TextBlock {
@@ -312,58 +394,156 @@ public class UmdParser extends BinaryParser<NonConfig> {
 
         private int chapterCount;
 
+        // text chapters and their texts, in order of offsets
+        private final ArrayList<Chapter> chapters = new ArrayList<>();
+        private final ArrayList<UmdText> texts = new ArrayList<>();
+
         private long contentLength;
         private int coverFormat, imageFormat;
+        private int imageCount = 0;
 
-        private final ArrayList<TextBlock> blocks = new ArrayList<>();
+        private final TextBlocks blocks;
 
-        private InternalData(RandomAccessFile file) {
+        private InternalData(RandomAccessFile file, int cacheBlocks) {
             this.file = file;
             book = new Book();
+            blocks = new TextBlocks(file, cacheBlocks);
+        }
+
+        private void addText(UmdText text) {
+            chapters.add(new Chapter("", TextFactory.forCached(text)));
+            texts.add(text);
         }
     }
 
-    private class UmdText extends AbstractText {
+    /**
+     * Text blocks of the book, decoded blocks are shared by all chapters.
+     */
+    private class TextBlocks extends BlockCache {
         private final RandomAccessFile file;
+        private final ArrayList<TextBlock> blocks = new ArrayList<>();
+
+        private TextBlocks(RandomAccessFile file, int capacity) {
+            super(capacity);
+            this.file = file;
+        }
+
+        private void add(TextBlock block) {
+            blocks.add(block);
+        }
+
+        private int size() {
+            return blocks.size();
+        }
+
+        @Override
+        protected String decode(int index) throws IOException {
+            TextBlock block = blocks.get(index);
+            Object token = Instrumentation.enter(getName());
+            long begin = Instrumentation.start();
+            byte[] bytes;
+            try {
+                bytes = new byte[block.length];
+                int n = IOUtils.read(file.getChannel(), block.offset, bytes, 0, bytes.length);
+                bytes = ZLibUtils.decompress(bytes, 0, n);
+            } finally {
+                Instrumentation.stop(Instrumentation.Stage.DECODE, begin);
+                Instrumentation.exit(token);
+            }
+            // UTF-16LE, decoded by hand so surrogate pairs split by blocks are kept
+            char[] chars = new char[bytes.length >> 1];
+            for (int ix = 0, end = chars.length; ix < end; ++ix) {
+                chars[ix] = (char) ((bytes[ix << 1] & 0xFF) | (bytes[(ix << 1) + 1] & 0xFF) << 8);
+            }
+            return new String(chars);
+        }
+    }
+
+    // replaces UMD line feeds with line separator of the platform
+    private static String translate(String chars) {
+        if (chars.indexOf(LINE_FEED) == -1) {
+            return chars;
+        }
+        if (LINE_SEPARATOR.length() == 1) {
+            return chars.replace(LINE_FEED, LINE_SEPARATOR.charAt(0));
+        }
+        StringBuilder sb = new StringBuilder(chars.length() + 64);
+        for (int ix = 0, end = chars.length(); ix < end; ++ix) {
+            char ch = chars.charAt(ix);
+            if (ch == LINE_FEED) {
+                sb.append(LINE_SEPARATOR);
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
+    }
+
+    private class UmdText extends AbstractText {
         private final long offset;
         private long size;
-        private final List<TextBlock> blocks;
+        private final TextBlocks blocks;
 
-        private UmdText(RandomAccessFile file, long offset, long size, List<TextBlock> blocks) {
+        private UmdText(long offset, long size, TextBlocks blocks) {
             super(PLAIN);
-            this.file = file;
             this.offset = offset;
             this.size = size;
             this.blocks = blocks;
         }
 
+        // end offset in bytes of all text
+        private long end() {
+            return offset + size;
+        }
+
         private String rawText() throws IOException {
             int index = (int) (offset >> 15);   // div 0x8000
             int start = (int) (offset & 0x7FFF);    // mod 0x8000
-            int length = -start;
-            StringBuilder sb = new StringBuilder();
-            do {
-                TextBlock block = blocks.get(index++);
-                file.seek(block.offset);
-                byte[] bytes = new byte[block.length];
-                int n = file.read(bytes);
-                bytes = ZLibUtils.decompress(bytes, 0, n);
-                length += bytes.length;
-                sb.append(new String(bytes, UMD.TEXT_ENCODING));
-                if (size <= length) {
-                    return sb.substring(start >> 1, (int) (start + size) >> 1); // div 2
-                }
-            } while (true);
+            int skip = start >> 1;  // div 2
+            long remaining = ((start + size) >> 1) - skip;
+            StringBuilder sb = new StringBuilder((int) remaining);
+            while (remaining > 0 && index < blocks.size()) {
+                String block = blocks.get(index++);
+                int begin = Math.min(skip, block.length());
+                int end = (int) Math.min(block.length(), begin + remaining);
+                sb.append(block, begin, end);
+                skip -= begin;
+                remaining -= end - begin;
+            }
+            return sb.toString();
         }
 
         @Override
         public String getText() throws IOException {
-            return rawText().replaceAll(UMD.UMD_LINE_FEED, System.lineSeparator());
+            return translate(rawText());
         }
 
         @Override
-        public List<String> getLines(boolean skipEmpty) throws IOException {
-            return Arrays.asList(rawText().split(UMD.UMD_LINE_FEED));
+        public Reader openReader() throws IOException {
+            final int start = (int) (offset & 0x7FFF);    // mod 0x8000
+            return new BlockTextReader(start >> 1, ((start + size) >> 1) - (start >> 1)) {
+                private int index = (int) (offset >> 15);   // div 0x8000
+
+                @Override
+                protected String nextBlock() throws IOException {
+                    if (index >= blocks.size()) {
+                        return null;
+                    }
+                    return blocks.get(index++);
+                }
+
+                @Override
+                protected String translate(String chars) {
+                    return UmdParser.translate(chars);
+                }
+            };
+        }
+
+        @Override
+        public int visitLines(LineVisitor visitor, boolean skipEmpty) throws Exception {
+            try (Reader reader = openReader()) {
+                return TextFactory.visitLines(reader, visitor, skipEmpty);
+            }
         }
     }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.formats.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import pw.phylame.jem.util.Instrumentation;
+
+/**
+ * Compresses independent blocks with ZLIB in worker threads.
+ * <p>Compressed blocks are passed to the consumer in submitting order, in the thread
+ * submitting blocks. At most two blocks for each worker are being compressed or waiting
+ * to be consumed, so submitting blocks waits when the consumer is behind.
+ * With one thread, blocks are compressed in the submitting thread.</p>
+ * <p>Workers are daemon threads shared by all deflaters, one for each processor at most,
+ * and stop after idle for a minute. Each deflater reuses its own <tt>Deflater</tt>s, which
+ * are ended by {@link #close()}.</p>
+ *
+ * @since 2.4
+ */
+public class ParallelDeflater implements Closeable {
+    /**
+     * Receives compressed blocks.
+     */
+    public interface Consumer {
+        /**
+         * Handles one compressed block.
+         *
+         * @param index index of the block, starts from <tt>0</tt>
+         * @param data  the compressed data
+         * @throws IOException if occurs I/O errors
+         */
+        void consume(int index, byte[] data) throws IOException;
+    }
+
+    // workers are created when the first deflater with more than one thread is used
+    private static class Workers {
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        private static final ExecutorService executor;
+
+        static {
+            int processors = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(processors, processors, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "jem-deflater-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+    }
+
+    private final int level;
+    private final String format;
+    private final Consumer consumer;
+    private final boolean parallel;
+    private final int window;
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<>();
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+    private int submitted = 0, consumed = 0;
+
+    /**
+     * Constructs deflater with specified number of workers.
+     *
+     * @param threads  number of worker threads, <tt>0</tt> for number of processors
+     * @param level    ZLIB compression level
+     * @param format   name of format for instrumentation, may be <tt>null</tt>
+     * @param consumer consumer of compressed blocks
+     * @throws NullPointerException     if the <tt>consumer</tt> is <tt>null</tt>
+     * @throws IllegalArgumentException if the <tt>threads</tt> is negative
+     */
+    public ParallelDeflater(int threads, int level, String format, Consumer consumer) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("threads < 0: " + threads);
+        }
+        if (consumer == null) {
+            throw new NullPointerException("consumer");
+        }
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        this.level = level;
+        this.format = format;
+        this.consumer = consumer;
+        parallel = threads > 1;
+        window = threads << 1;
+    }
+
+    /**
+     * Submits a block to be compressed.
+     * <p>The data must not be changed after submitted.</p>
+     *
+     * @param data   the data
+     * @param offset start index of the block
+     * @param length length of the block
+     * @throws IOException if the consumer throws or the worker fails
+     */
+    public void submit(final byte[] data, final int offset, final int length) throws IOException {
+        if (!parallel) {
+            consumer.consume(submitted++, compress(data, offset, length));
+            ++consumed;
+            return;
+        }
+        while (pending.size() >= window) {
+            consumeFirst();
+        }
+        pending.add(Workers.executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return compress(data, offset, length);
+            }
+        }));
+        ++submitted;
+    }
+
+    /**
+     * Waits for all submitted blocks to be compressed and consumed.
+     *
+     * @throws IOException if the consumer throws or the worker fails
+     */
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            consumeFirst();
+        }
+    }
+
+    /**
+     * Returns number of consumed blocks.
+     *
+     * @return number of blocks
+     */
+    public int getConsumedCount() {
+        return consumed;
+    }
+
+    private byte[] compress(byte[] data, int offset, int length) {
+        Object token = Instrumentation.enter(format);
+        Deflater deflater = deflaters.poll();
+        if (deflater != null) {
+            deflater.reset();
+        } else {
+            deflater = new Deflater(level);
+        }
+        try {
+            return ZLibUtils.compress(deflater, data, offset, length);
+        } finally {
+            deflaters.offer(deflater);
+            if (closed) {   // closed when compressing, no one ends it later
+                endDeflaters();
+            }
+            Instrumentation.exit(token);
+        }
+    }
+
+    private void endDeflaters() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+
+    private void consumeFirst() throws IOException {
+        byte[] result;
+        try {
+            result = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted when compressing");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        consumer.consume(consumed++, result);
+    }
+
+    /**
+     * Discards blocks not consumed and ends the <tt>Deflater</tt>s.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Future<byte[]> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        endDeflaters();
+    }
+}
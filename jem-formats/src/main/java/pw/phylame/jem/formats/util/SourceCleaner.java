@@ -21,27 +21,34 @@ package pw.phylame.jem.formats.util;
 import java.io.Closeable;
 
 import pw.phylame.jem.util.IOUtils;
+import pw.phylame.jem.util.LeakTracker;
 import pw.phylame.jem.core.Chapter;
 
 /**
  * Cleans input source of book.
+ * <p>If leak tracking is enabled, the source not closed before the book is
+ * collected will be reported by {@link LeakTracker}.</p>
  */
 public class SourceCleaner implements Chapter.Cleanable {
     private final Closeable source;
     private final Runnable addon;
+    private final LeakTracker.Handle leak;
 
     public SourceCleaner(Closeable source) {
-        this.source = source;
-        addon = null;
+        this(source, null);
     }
 
     public SourceCleaner(Closeable source, Runnable addon) {
         this.source = source;
         this.addon = addon;
+        leak = LeakTracker.track(this, "Book source " + source);
     }
 
     @Override
     public void clean(Chapter chapter) {
+        if (leak != null) {
+            leak.release();
+        }
         IOUtils.closeQuietly(source);
         if (addon != null) {
             addon.run();
@@ -29,6 +29,8 @@ import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
+import pw.phylame.jem.util.Instrumentation;
+
 /**
  * Utility class for ZLib operations.
  */
@@ -41,6 +43,31 @@ public final class ZLibUtils {
      */
     public static final int BUFFER_SIZE = 2048;
 
+    // compressors and decompressors are reused by each thread, released when the thread dies
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<>();
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    // output buffer for compressing, grown when need
+    private static final ThreadLocal<byte[]> deflateBuffers = new ThreadLocal<>();
+
+    private static Deflater deflaterOf(int level) {
+        Deflater deflater = deflaters.get();
+        if (deflater != null) {
+            deflater.reset();
+            deflater.setLevel(level);
+        } else {
+            deflater = new Deflater(level);
+            deflaters.set(deflater);
+        }
+        return deflater;
+    }
+
     /**
      * Compresses specified byte data with default compression level.
      *
@@ -76,6 +103,7 @@ public final class ZLibUtils {
 
     /**
      * Compresses a specified area of input byte data with specified compression level.
+     * <p>The <tt>Deflater</tt> is reused by later calls in current thread.</p>
      *
      * @param data   the input byte data
      * @param offset start index of compressing area
@@ -84,30 +112,37 @@ public final class ZLibUtils {
      * @return compressed data
      */
     public static byte[] compress(byte[] data, int offset, int length, int level) {
-        byte[] output = new byte[0];
-        Deflater compresser = new Deflater(level);
-        compresser.reset();
+        return compress(deflaterOf(level), data, offset, length);
+    }
+
+    // compresses with specified deflater, which has been reset
+    static byte[] compress(Deflater compresser, byte[] data, int offset, int length) {
+        long begin = Instrumentation.start();
+        byte[] output;
         compresser.setInput(data, offset, length);
         compresser.finish();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(length);
+        // bound of compressed size by zlib
+        int bound = length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+        byte[] buf = deflateBuffers.get();
+        if (buf == null || buf.length < bound) {
+            buf = new byte[Math.max(bound, BUFFER_SIZE)];
+            deflateBuffers.set(buf);
+        }
         try {
-            byte[] buf = new byte[BUFFER_SIZE];
+            int n = 0;
             while (!compresser.finished()) {
-                int i = compresser.deflate(buf);
-                baos.write(buf, 0, i);
+                if (n == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length << 1);
+                    deflateBuffers.set(buf);
+                }
+                n += compresser.deflate(buf, n, buf.length - n);
             }
-            output = baos.toByteArray();
+            output = Arrays.copyOf(buf, n);
         } catch (Exception e) {
             output = Arrays.copyOfRange(data, offset, offset + length);
             e.printStackTrace();
-        } finally {
-            try {
-                baos.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
         }
-        compresser.end();
+        Instrumentation.stop(Instrumentation.Stage.DEFLATE, begin);
         return output;
     }
 
@@ -132,6 +167,7 @@ public final class ZLibUtils {
      * @param output the output stream
      */
     public static void compress(byte[] data, int offset, int length, OutputStream output) {
+        long begin = Instrumentation.start();
         DeflaterOutputStream dos = new DeflaterOutputStream(output);
         try {
             dos.write(data, offset, length);
@@ -140,6 +176,7 @@ public final class ZLibUtils {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        Instrumentation.stop(Instrumentation.Stage.DEFLATE, begin);
     }
 
     /**
@@ -154,6 +191,7 @@ public final class ZLibUtils {
 
     /**
      * Decompresses a specified area of input data.
+     * <p>The <tt>Inflater</tt> is reused by later calls in current thread.</p>
      *
      * @param data   the input byte data
      * @param offset start index of decompressing area
@@ -161,8 +199,9 @@ public final class ZLibUtils {
      * @return decompressed data
      */
     public static byte[] decompress(byte[] data, int offset, int length) {
+        long begin = Instrumentation.start();
         byte[] output = new byte[0];
-        Inflater decompresser = new Inflater();
+        Inflater decompresser = inflaters.get();
         decompresser.reset();
         decompresser.setInput(data, offset, length);
         ByteArrayOutputStream baos = new ByteArrayOutputStream(length);
@@ -170,6 +209,9 @@ public final class ZLibUtils {
             byte[] buf = new byte[BUFFER_SIZE];
             while (!decompresser.finished()) {
                 int i = decompresser.inflate(buf);
+                if (i == 0 && (decompresser.needsInput() || decompresser.needsDictionary())) {
+                    break;  // truncated data
+                }
                 baos.write(buf, 0, i);
             }
             output = baos.toByteArray();
@@ -183,10 +225,43 @@ public final class ZLibUtils {
                 e.printStackTrace();
             }
         }
-        decompresser.end();
+        Instrumentation.stop(Instrumentation.Stage.INFLATE, begin);
         return output;
     }
 
+    /**
+     * Decompresses a specified area of input data to specified buffer.
+     * <p>Decompressing stops when the buffer is full. The <tt>Inflater</tt> is reused
+     * by later calls in current thread.</p>
+     *
+     * @param data   the input byte data
+     * @param offset start index of decompressing area
+     * @param length length of decompression area
+     * @param output the buffer for decompressed data
+     * @return number of bytes written to the buffer
+     * @since 2.4
+     */
+    public static int decompress(byte[] data, int offset, int length, byte[] output) {
+        long begin = Instrumentation.start();
+        Inflater decompresser = inflaters.get();
+        decompresser.reset();
+        decompresser.setInput(data, offset, length);
+        int n = 0;
+        try {
+            while (n < output.length && !decompresser.finished()) {
+                int i = decompresser.inflate(output, n, output.length - n);
+                if (i == 0 && (decompresser.needsInput() || decompresser.needsDictionary())) {
+                    break;  // truncated data
+                }
+                n += i;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        Instrumentation.stop(Instrumentation.Stage.INFLATE, begin);
+        return n;
+    }
+
     /**
      * Decompresses byte data from specified input stream.
      *
@@ -194,6 +269,7 @@ public final class ZLibUtils {
      * @return decompressed data
      */
     public static byte[] decompress(InputStream input) {
+        long begin = Instrumentation.start();
         InflaterInputStream iis = new InflaterInputStream(input);
         ByteArrayOutputStream o = new ByteArrayOutputStream(BUFFER_SIZE);
         try {
@@ -206,6 +282,7 @@ public final class ZLibUtils {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        Instrumentation.stop(Instrumentation.Stage.INFLATE, begin);
         return o.toByteArray();
     }
 }
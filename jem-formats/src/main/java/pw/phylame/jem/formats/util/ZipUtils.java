@@ -26,6 +26,7 @@ import java.util.zip.ZipOutputStream;
 import pw.phylame.jem.util.IOUtils;
 import pw.phylame.jem.util.FileObject;
 import pw.phylame.jem.util.TextObject;
+import pw.phylame.jem.util.Instrumentation;
 
 /**
  * Utilities operations for ZIP..
@@ -50,15 +51,25 @@ public final class ZipUtils {
 
     public static void writeString(String str, String name, String encoding, ZipOutputStream zipout)
             throws IOException {
-        zipout.putNextEntry(new ZipEntry(name));
-        zipout.write(str.getBytes(encoding));
-        zipout.closeEntry();
+        long begin = Instrumentation.start();
+        try {
+            zipout.putNextEntry(new ZipEntry(name));
+            zipout.write(str.getBytes(encoding));
+            zipout.closeEntry();
+        } finally {
+            Instrumentation.stop(Instrumentation.Stage.ZIP_WRITE, begin);
+        }
     }
 
     public static void writeFile(FileObject file, String name, ZipOutputStream zipout) throws IOException {
-        zipout.putNextEntry(new ZipEntry(name));
-        file.writeTo(zipout);
-        zipout.closeEntry();
+        long begin = Instrumentation.start();
+        try {
+            zipout.putNextEntry(new ZipEntry(name));
+            file.writeTo(zipout);
+            zipout.closeEntry();
+        } finally {
+            Instrumentation.stop(Instrumentation.Stage.ZIP_WRITE, begin);
+        }
     }
 
     /**
@@ -73,16 +84,21 @@ public final class ZipUtils {
      */
     public static void writeText(TextObject text, String name, String encoding, ZipOutputStream zipout)
             throws IOException {
-        zipout.putNextEntry(new ZipEntry(name));
-        Writer writer = encoding != null
-                ? new OutputStreamWriter(zipout, encoding)
-                : new OutputStreamWriter(zipout);
+        long begin = Instrumentation.start();
         try {
-            text.writeTo(writer);
-        } catch (Exception e) {
-            throw new IOException(e);
+            zipout.putNextEntry(new ZipEntry(name));
+            Writer writer = encoding != null
+                    ? new OutputStreamWriter(zipout, encoding)
+                    : new OutputStreamWriter(zipout);
+            try {
+                text.writeTo(writer);
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            writer.flush();
+            zipout.closeEntry();
+        } finally {
+            Instrumentation.stop(Instrumentation.Stage.ZIP_WRITE, begin);
         }
-        writer.flush();
-        zipout.closeEntry();
     }
 }
@@ -62,7 +62,7 @@ public final class ConfigUtils {
                 continue;
             }
             String key = configKey.value();
-            Class<?> type = field.getType();
+            Class<?> type = boxedType(field.getType());
             try {
                 Object defaultValue = field.get(config);
                 Object value = ConfigUtils.fetchObject(kw, key, null, type);
@@ -83,6 +83,29 @@ public final class ConfigUtils {
         }
     }
 
+    // values of primitive fields are fetched as their wrappers
+    private static Class<?> boxedType(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else {
+            return Character.class;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public static <T> T fetchObject(Map<String, Object> kw, String key, Object defaultValue, Class<T> type)
             throws InvalidConfigException {
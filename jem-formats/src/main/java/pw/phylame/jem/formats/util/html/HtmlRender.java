@@ -245,16 +245,35 @@ public class HtmlRender {
      *   <p>trimmed-line</p>
      * </div>
      */
-    private void writeText(TextObject text, String style) throws IOException {
-        List<String> lines = TextUtils.fetchLines(text, config.skipEmpty);
-        if (lines == null || lines.isEmpty()) {
-            return;
+    private void writeText(TextObject text, final String style) throws IOException {
+        final boolean[] started = {false};
+        final IOException[] renderError = {null};
+        try {
+            text.visitLines(new TextObject.LineVisitor() {
+                @Override
+                public boolean visitLine(String line) throws IOException {
+                    try {
+                        if (!started[0]) {
+                            xmlRender.startTag("div").attribute("class", style);
+                            started[0] = true;
+                        }
+                        xmlRender.startTag("p").text(TextUtils.trimmed(line)).endTag();
+                    } catch (IOException e) {
+                        renderError[0] = e;
+                        throw e;
+                    }
+                    return true;
+                }
+            }, config.skipEmpty);
+        } catch (Exception e) {
+            if (renderError[0] != null) {
+                throw renderError[0];
+            }
+            // ignored, same as failed fetching lines
         }
-        xmlRender.startTag("div").attribute("class", style);
-        for (String line : lines) {
-            xmlRender.startTag("p").text(TextUtils.trimmed(line)).endTag();
+        if (started[0]) {
+            xmlRender.endTag();
         }
-        xmlRender.endTag();
     }
 
     /*
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014-2016 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.formats.util.text;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Least-recently-used cache for decoded text blocks of a book.
+ * <p>Text objects of one book share the cache, so a block spanned by several
+ * chapters is decoded once. Blocks are decoded out of the lock of the cache,
+ * different blocks can be decoded by different threads at the same time, while
+ * threads requiring a block being decoded wait for it instead of decoding it again.</p>
+ *
+ * @since 2.4
+ */
+public abstract class BlockCache {
+    private final int capacity;
+
+    // guarded by this
+    private final LinkedHashMap<Integer, String> blocks;
+
+    // blocks being decoded
+    private final ConcurrentHashMap<Integer, FutureTask<String>> decoding = new ConcurrentHashMap<>();
+
+    private long hitCount = 0, missCount = 0;
+
+    /**
+     * Constructs cache with specified capacity.
+     *
+     * @param capacity max number of cached blocks, <tt>0</tt> to disable the cache
+     * @throws IllegalArgumentException if the <tt>capacity</tt> is negative
+     */
+    protected BlockCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        }
+        this.capacity = capacity;
+        blocks = new LinkedHashMap<Integer, String>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > BlockCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Decodes text of the block at specified index.
+     * <p>Called without holding the lock of the cache, may be called by several
+     * threads at the same time for different blocks.</p>
+     *
+     * @param index index of the block
+     * @return text of the block
+     * @throws IOException if occurs I/O errors
+     */
+    protected abstract String decode(int index) throws IOException;
+
+    /**
+     * Returns text of the block at specified index, decodes it if not cached.
+     *
+     * @param index index of the block
+     * @return text of the block
+     * @throws IOException if occurs I/O errors
+     */
+    public String get(final int index) throws IOException {
+        synchronized (this) {
+            String text = blocks.get(index);
+            if (text != null) {
+                ++hitCount;
+                return text;
+            }
+            ++missCount;
+        }
+        FutureTask<String> task = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return decode(index);
+            }
+        });
+        FutureTask<String> running = decoding.putIfAbsent(index, task);
+        if (running != null) {  // decoding by other thread
+            return await(running);
+        }
+        try {
+            task.run();
+            String text = await(task);
+            if (capacity > 0) {
+                synchronized (this) {
+                    blocks.put(index, text);
+                }
+            }
+            return text;
+        } finally {
+            decoding.remove(index, task);
+        }
+    }
+
+    private static String await(FutureTask<String> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for block");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Removes all cached blocks.
+     */
+    public synchronized void clear() {
+        blocks.clear();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2015 Peng Wan <phylame@163.com>
+ *
+ * This file is part of Jem.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package pw.phylame.jem.formats.util.text;
+
+import java.io.Reader;
+import java.io.IOException;
+
+/**
+ * Reader for text stored in sequence of compressed blocks.
+ * <p>Blocks are decoded one by one when reading, so at most one block of text
+ * is held in memory.</p>
+ */
+public abstract class BlockTextReader extends Reader {
+    private int skip;
+    private long remaining;
+    private String chunk = null;
+    private int position = 0;
+
+    /**
+     * Constructs reader with range of text in the decoded blocks.
+     *
+     * @param start  index of the first character in the first block
+     * @param length number of characters to be read
+     */
+    protected BlockTextReader(int start, long length) {
+        this.skip = start;
+        this.remaining = length;
+    }
+
+    /**
+     * Decodes the next block.
+     *
+     * @return characters of the block, or <tt>null</tt> if no more block
+     * @throws IOException if occurs I/O errors
+     */
+    protected abstract String nextBlock() throws IOException;
+
+    /**
+     * Converts characters of one block before returning to the caller.
+     * <p>Default implementation returns the characters unchanged.</p>
+     *
+     * @param chars the characters in range of the text
+     * @return the converted characters
+     */
+    protected String translate(String chars) {
+        return chars;
+    }
+
+    private boolean fill() throws IOException {
+        while (chunk == null || position >= chunk.length()) {
+            if (remaining <= 0) {
+                return false;
+            }
+            String block = nextBlock();
+            if (block == null) {
+                remaining = 0;
+                return false;
+            }
+            int begin = Math.min(skip, block.length());
+            int end = (int) Math.min(block.length(), begin + remaining);
+            skip -= begin;
+            remaining -= end - begin;
+            chunk = translate(block.substring(begin, end));
+            position = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > cbuf.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length() - position);
+        chunk.getChars(position, position + n, cbuf, off);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunk = null;
+        remaining = 0;
+    }
+}
@@ -18,12 +18,13 @@
 
 package pw.phylame.jem.formats.util.text;
 
-import java.util.List;
 import java.util.LinkedList;
 
 import pw.phylame.jem.core.Chapter;
+import pw.phylame.jem.core.BookTask;
 import pw.phylame.jem.util.TextFactory;
 import pw.phylame.jem.util.TextObject;
+import pw.phylame.jem.util.Instrumentation;
 
 /**
  * Render book text with plain style.
@@ -57,24 +58,41 @@ public final class TextRender {
         return renderLines(text, writer, config, false);
     }
 
-    private static int renderLines(TextObject text, TextWriter writer, TextConfig config,
-                                   boolean prependNL) throws Exception {
-        List<String> lines = TextUtils.plainLines(text, config.skipEmptyLine, config.textConverter);
-        if (lines == null) {
-            return 0;
-        }
-        int ix = 1, size = lines.size();
-        if (prependNL && size > 0) {
-            writer.writeText(config.lineSeparator);
-        }
-        for (String line : lines) {
-            line = TextUtils.trimmed(line);
-            writer.writeText(config.paragraphPrefix + line);
-            if (ix++ != size) {
-                writer.writeText(config.lineSeparator);
+    // errors of fetching text are ignored like TextUtils.fetchText, lines written before the error are kept
+    private static int renderLines(TextObject text, final TextWriter writer, final TextConfig config,
+                                   final boolean prependNL) throws Exception {
+        LineWriter visitor = new LineWriter() {
+            @Override
+            public boolean visitLine(String line) throws Exception {
+                try {
+                    if (count != 0 || prependNL) {
+                        writer.writeText(config.lineSeparator);
+                    }
+                    writer.writeText(config.paragraphPrefix + TextUtils.trimmed(line));
+                } catch (Exception e) {
+                    error = e;
+                    throw e;
+                }
+                ++count;
+                return true;
+            }
+        };
+        try {
+            TextUtils.visitPlainLines(text, config.skipEmptyLine, config.textConverter, visitor);
+        } catch (Exception e) {
+            if (e == visitor.error) {
+                throw e;
             }
         }
-        return size;
+        return visitor.count;
+    }
+
+    private static abstract class LineWriter implements TextObject.LineVisitor {
+        // number of written lines
+        int count = 0;
+
+        // error thrown by the writer
+        Exception error = null;
     }
 
     public static String renderLines(TextObject text, TextConfig config) throws Exception {
@@ -103,7 +121,7 @@ public final class TextRender {
             return renderLines(text, writer, config, prependLF) > 0;
         } else {
             String str = TextUtils.plainText(text, config.textConverter);
-            if (!str.isEmpty()) {
+            if (str != null && !str.isEmpty()) {     // null if failed to fetch text
                 if (prependLF) {
                     writer.writeText(config.lineSeparator);
                 }
@@ -119,7 +137,8 @@ public final class TextRender {
         if (config.formatParagraph) {
             return renderLines(text, config);
         } else {
-            return TextUtils.plainText(text, config.textConverter);
+            String str = TextUtils.plainText(text, config.textConverter);
+            return str != null ? str : "";
         }
     }
 
@@ -155,15 +174,21 @@ public final class TextRender {
         }
 
         maker.endItem();
+        BookTask.advance(1);
     }
 
-    private static class RenderHelper {
+    /**
+     * Renders chapters one by one, used by makers writing chapters while they are reported.
+     *
+     * @since 2.4
+     */
+    public static final class RenderHelper {
         private final TextWriter writer;
         private final TextConfig config;
 
         private LinkedList<String> titleStack;
 
-        private RenderHelper(TextWriter writer, TextConfig config) {
+        public RenderHelper(TextWriter writer, TextConfig config) {
             this.config = config;
             this.writer = writer;
             if (config.joinTitles) {
@@ -171,13 +196,33 @@ public final class TextRender {
             }
         }
 
-        private void beginItem(Chapter chapter) {
+        public void beginItem(Chapter chapter) {
             if (config.joinTitles) {
                 titleStack.addLast(chapter.getTitle());
             }
         }
 
         private void writeText(Chapter chapter) throws Exception {
+            writeText(chapter, chapter.getContent());
+        }
+
+        /**
+         * Renders title, intro and specified content of the chapter.
+         *
+         * @param chapter the chapter
+         * @param content content of the chapter, may be <tt>null</tt>
+         * @throws Exception if occurs error while rendering text
+         */
+        public void writeText(Chapter chapter, TextObject content) throws Exception {
+            long begin = Instrumentation.start();
+            try {
+                render(chapter, content);
+            } finally {
+                Instrumentation.stop(Instrumentation.Stage.RENDER, begin);
+            }
+        }
+
+        private void render(Chapter chapter, TextObject content) throws Exception {
             String lineSeparator = config.lineSeparator;
             String title;
             if (config.joinTitles) {
@@ -209,7 +254,6 @@ public final class TextRender {
                 }
             }
             // content
-            TextObject content = chapter.getContent();
             renderText(content != null ? content : TextFactory.emptyText(), writer, config, true);
             // suffix
             if (TextUtils.isValid(config.suffixText)) {
@@ -222,7 +266,7 @@ public final class TextRender {
             writer.endChapter();
         }
 
-        private void endItem() {
+        public void endItem() {
             if (config.joinTitles) {
                 titleStack.removeLast();
             }
@@ -266,4 +266,30 @@ public final class TextUtils {
     public static List<String> styledLines(TextObject text, boolean skipEmpty, TextConverter converter) {
         return converter != null ? converter.getLines(text, skipEmpty) : fetchLines(text, skipEmpty);
     }
+
+    /**
+     * Passes plain lines of specified text to the visitor without collecting all lines.
+     * <p>Non-plain text is converted by <tt>converter</tt> firstly if it is specified.</p>
+     *
+     * @param text      the text source
+     * @param skipEmpty <tt>true</tt> to skip empty line
+     * @param converter converter for non-plain text, may be <tt>null</tt>
+     * @param visitor   the line visitor
+     * @return number of visited lines
+     * @throws Exception if occurs error while fetching text or visiting lines
+     */
+    public static int visitPlainLines(TextObject text, boolean skipEmpty, TextConverter converter,
+                                      TextObject.LineVisitor visitor) throws Exception {
+        if (converter == null || TextObject.PLAIN.equals(text.getType())) {
+            return text.visitLines(visitor, skipEmpty);
+        }
+        int count = 0;
+        for (String line : converter.getLines(text, skipEmpty)) {
+            ++count;
+            if (!visitor.visitLine(line)) {
+                break;
+            }
+        }
+        return count;
+    }
 }